@@ -16,9 +16,15 @@ class HttpAndWSHandler extends HandlerCollection {
 
     private final static Logger logger = LoggerFactory.getLogger(HttpAndWSHandler.class);
 
+    private Handler payloadHandler;
     private Handler httpHandler;
     private Handler wsHandler;
 
+    void addPayloadHandler(Handler payloadHandler) {
+        this.payloadHandler = payloadHandler;
+        addHandler(payloadHandler);
+    }
+
     void addHttpHandler(Handler httpHandler) {
         this.httpHandler = httpHandler;
         addHandler(httpHandler);
@@ -36,6 +42,12 @@ class HttpAndWSHandler extends HandlerCollection {
             if (baseRequest.getHttpFields().contains("Upgrade", "websocket")) {
                 wsHandler.handle(target, baseRequest, request, response);
             } else {
+                if (payloadHandler != null) {
+                    payloadHandler.handle(target, baseRequest, request, response);
+                    if (baseRequest.isHandled()) {
+                        return;
+                    }
+                }
                 httpHandler.handle(target, baseRequest, request, response);
                 MetricsRequestFilter.finalStats();
             }
@@ -12,10 +12,7 @@ import com.flightstats.hub.metrics.MetricsRunner;
 import com.flightstats.hub.metrics.MetricsService;
 import com.flightstats.hub.replication.ReplicationGlobalManager;
 import com.flightstats.hub.rest.*;
-import com.flightstats.hub.spoke.FileSpokeStore;
-import com.flightstats.hub.spoke.GCRunner;
-import com.flightstats.hub.spoke.SpokeClusterRegister;
-import com.flightstats.hub.spoke.SpokeFinalCheck;
+import com.flightstats.hub.spoke.*;
 import com.flightstats.hub.time.NtpMonitor;
 import com.flightstats.hub.time.TimeService;
 import com.flightstats.hub.util.HubUtils;
@@ -161,15 +158,31 @@ public class HubBindings extends AbstractModule {
         bind(WebhookManager.class).asEagerSingleton();
         bind(LastContentPath.class).asEagerSingleton();
         bind(WatchManager.class).asEagerSingleton();
+        bind(ContentNotifier.class).asEagerSingleton();
         bind(MetricsService.class).to(DelegatingMetricsService.class).asEagerSingleton();
         bind(NtpMonitor.class).asEagerSingleton();
         bind(Leaders.class).asEagerSingleton();
         bind(TimeService.class).asEagerSingleton();
         bind(ShutdownManager.class).asEagerSingleton();
-        bind(FileSpokeStore.class).asEagerSingleton();
+        bindSpokeStore();
         bind(SpokeClusterRegister.class).asEagerSingleton();
         bind(FinalCheck.class).to(SpokeFinalCheck.class).asEagerSingleton();
         bind(InFlightService.class).asEagerSingleton();
     }
 
+    private void bindSpokeStore() {
+        String storeType = HubProperties.getProperty("spoke.storeType", "file");
+        logger.info("using spoke.storeType {}", storeType);
+        switch (storeType) {
+            case "file":
+                bind(SpokeStore.class).to(FileSpokeStore.class).asEagerSingleton();
+                break;
+            case "segment":
+                bind(SpokeStore.class).to(SegmentSpokeStore.class).asEagerSingleton();
+                break;
+            default:
+                throw new RuntimeException("unsupported spoke.storeType " + storeType);
+        }
+    }
+
 }
@@ -1,5 +1,8 @@
 package com.flightstats.hub.app;
 
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.spoke.SpokePayloadHandler;
+import com.flightstats.hub.spoke.SpokeStore;
 import com.flightstats.hub.ws.ChannelWSEndpoint;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
@@ -52,6 +55,10 @@ public class HubJettyServer {
             server.setConnectors(new Connector[]{serverConnector});
 
             HttpAndWSHandler handler = new HttpAndWSHandler();
+            if (HubProperties.getProperty("spoke.zeroCopyReads", true)) {
+                handler.addPayloadHandler(new SpokePayloadHandler(HubProvider.getInstance(SpokeStore.class),
+                        HubProvider.getInstance(MetricsService.class)));
+            }
             handler.addHttpHandler(ContainerFactory.createContainer(JettyHttpContainer.class, config));
 
             ServletContextHandler wsContext = new ServletContextHandler(server, "/", ServletContextHandler.SESSIONS);
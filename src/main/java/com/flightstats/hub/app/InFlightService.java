@@ -28,6 +28,10 @@ public class InFlightService {
         }
     }
 
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
     private void waitForInFlight() {
         Integer shutdown_wait_seconds = HubProperties.getProperty("app.shutdown_wait_seconds", 180);
         logger.info("waiting for " + inFlight.get() + " in-flight to complete in " + shutdown_wait_seconds + " seconds");
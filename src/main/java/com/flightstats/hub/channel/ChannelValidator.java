@@ -40,6 +40,7 @@ public class ChannelValidator {
         validateDescription(config);
         validateTags(config);
         validateStorage(config);
+        validateCodec(config);
         validateGlobal(config);
         if (!isLocalHost) {
             preventDataLoss(config, oldConfig);
@@ -129,6 +130,12 @@ public class ChannelValidator {
         }
     }
 
+    private void validateCodec(ChannelConfig config) {
+        if (!config.isValidCodec()) {
+            throw new InvalidRequestException("{\"error\": \"Valid codec values are ZIP, NONE, DEFLATE and LZ4\"}");
+        }
+    }
+
     private void validateTags(ChannelConfig request) {
         if (request.getTags().size() > 20) {
             throw new InvalidRequestException("{\"error\": \"Channels are limited to 20 tags\"}");
@@ -45,6 +45,7 @@ public class LinkBuilder {
 
         root.put("name", config.getName());
         root.put("allowZeroBytes", config.isAllowZeroBytes());
+        root.put("codec", config.getCodec());
         root.put("creationDate", TimeUtil.FORMATTER.print(new DateTime(config.getCreationDate())));
         root.put("description", config.getDescription());
         if (config.isGlobal()) {
@@ -0,0 +1,163 @@
+package com.flightstats.hub.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.util.HubUtils;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * ContentNotifier tells subscribers about new items in a channel.
+ * Inserts are delivered to subscribers on this hub immediately, and the latest key for each channel is
+ * forwarded to the other hubs every notify.flushMillis, in parallel on notify.sendThreads.
+ * A hub which is still handling the previous flush is skipped.
+ * Notifications are best effort, subscribers still need to reconcile with the channel.
+ */
+@Singleton
+public class ContentNotifier {
+
+    private final static Logger logger = LoggerFactory.getLogger(ContentNotifier.class);
+    static final String PATH = "/internal/notify";
+
+    private static final Client client = RestClient.createClient(1, 2, true, false);
+
+    private final boolean enabled = HubProperties.getProperty("notify.enabled", true);
+    private final Map<String, Set<Consumer<ContentKey>>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, ContentKey> pending = new ConcurrentHashMap<>();
+    private final Set<String> sending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sendExecutor = Executors.newFixedThreadPool(
+            HubProperties.getProperty("notify.sendThreads", 10),
+            new ThreadFactoryBuilder().setNameFormat("ContentNotifierSend-%d").setDaemon(true).build());
+
+    @Inject
+    @Named("HubCluster")
+    private Cluster cluster;
+
+    public ContentNotifier() {
+        if (enabled) {
+            int flushMillis = HubProperties.getProperty("notify.flushMillis", 100);
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("ContentNotifier-%d").setDaemon(true).build())
+                    .scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void subscribe(String channel, Consumer<ContentKey> subscriber) {
+        subscribers.computeIfAbsent(channel.toLowerCase(), name -> new CopyOnWriteArraySet<>()).add(subscriber);
+    }
+
+    public void unsubscribe(String channel, Consumer<ContentKey> subscriber) {
+        subscribers.computeIfPresent(channel.toLowerCase(), (name, channelSubscribers) -> {
+            channelSubscribers.remove(subscriber);
+            return channelSubscribers.isEmpty() ? null : channelSubscribers;
+        });
+    }
+
+    /**
+     * Called after an item is written to this hub.
+     */
+    public void publish(String channel, ContentKey key) {
+        if (!enabled) {
+            return;
+        }
+        String name = channel.toLowerCase();
+        notifyLocal(name, key);
+        pending.merge(name, key, (existing, added) -> added.compareTo(existing) > 0 ? added : existing);
+    }
+
+    /**
+     * Called with the keys forwarded from another hub.
+     */
+    void receive(JsonNode channels) {
+        channels.fields().forEachRemaining(entry -> {
+            Optional<ContentKey> key = ContentKey.fromUrl(entry.getValue().asText());
+            if (key.isPresent()) {
+                notifyLocal(entry.getKey(), key.get());
+            }
+        });
+    }
+
+    private void notifyLocal(String channel, ContentKey key) {
+        Set<Consumer<ContentKey>> channelSubscribers = subscribers.get(channel);
+        if (channelSubscribers == null) {
+            return;
+        }
+        for (Consumer<ContentKey> subscriber : channelSubscribers) {
+            try {
+                subscriber.accept(key);
+            } catch (Exception e) {
+                logger.warn("unable to notify " + channel + " " + key, e);
+            }
+        }
+    }
+
+    private void flush() {
+        try {
+            if (pending.isEmpty() || cluster == null) {
+                return;
+            }
+            ObjectNode channels = HubProvider.getInstance(ObjectMapper.class).createObjectNode();
+            for (String channel : new ArrayList<>(pending.keySet())) {
+                ContentKey key = pending.remove(channel);
+                if (key != null) {
+                    channels.put(channel, key.toUrl());
+                }
+            }
+            String json = channels.toString();
+            Set<String> servers = new HashSet<>(cluster.getAllServers());
+            servers.remove(cluster.getHost(true));
+            for (String server : servers) {
+                if (sending.add(server)) {
+                    sendExecutor.submit(() -> send(server, json));
+                } else {
+                    logger.debug("skipping notify to {}, previous send is in progress", server);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("unable to flush notifications", e);
+        }
+    }
+
+    private void send(String server, String json) {
+        ClientResponse response = null;
+        try {
+            response = client.resource(HubHost.getScheme() + server + PATH)
+                    .type(MediaType.APPLICATION_JSON)
+                    .put(ClientResponse.class, json);
+            if (response.getStatus() != 200) {
+                logger.info("unexpected notify response {} {}", server, response.getStatus());
+            }
+        } catch (Exception e) {
+            logger.info("unable to notify {} {}", server, e.getMessage());
+        } finally {
+            HubUtils.close(response);
+            sending.remove(server);
+        }
+    }
+}
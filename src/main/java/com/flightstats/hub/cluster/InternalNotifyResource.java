@@ -0,0 +1,35 @@
+package com.flightstats.hub.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flightstats.hub.app.HubProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Receives the latest keys per channel forwarded by ContentNotifier on the other hubs.
+ */
+@Path(ContentNotifier.PATH)
+public class InternalNotifyResource {
+
+    private final static Logger logger = LoggerFactory.getLogger(InternalNotifyResource.class);
+    private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+    private static final ContentNotifier contentNotifier = HubProvider.getInstance(ContentNotifier.class);
+
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response put(String json) {
+        try {
+            contentNotifier.receive(mapper.readTree(json));
+            return Response.ok().build();
+        } catch (Exception e) {
+            logger.warn("unable to parse notification " + json, e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,16 +78,31 @@ public class WatchManager {
     }
 
     public void notifyWatcher(String path) {
+        notifyWatcher(path, Longs.toByteArray(System.currentTimeMillis()));
+    }
+
+    /**
+     * Sets the data of the path, so watchers can read what changed.
+     * Each notification increments the version of the path.
+     */
+    public void notifyWatcher(String path, byte[] data) {
         Watcher watcher = watcherMap.get(path);
         if (watcher != null) {
             try {
-                curator.setData().forPath(path, Longs.toByteArray(System.currentTimeMillis()));
+                curator.setData().forPath(path, data);
             } catch (Exception e) {
                 logger.warn("unable to set watcher path", e);
             }
         }
     }
 
+    /**
+     * @return the data of the path, with its version stored in stat.
+     */
+    public byte[] getData(String path, Stat stat) throws Exception {
+        return curator.getData().storingStatIn(stat).forPath(path);
+    }
+
     private void createNode(Watcher watcher) {
         try {
             curator.create().creatingParentsIfNeeded().forPath(watcher.getPath(), Longs.toByteArray(System.currentTimeMillis()));
@@ -1,31 +1,45 @@
 package com.flightstats.hub.dao;
 
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.cluster.WatchManager;
 import com.flightstats.hub.cluster.Watcher;
 import com.flightstats.hub.model.NamedType;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CachedDao keeps every item in memory, and hears about changes from other hubs with a ZooKeeper watch.
+ * Each change writes the changed name to the watched path, so a hub which sees the next version of the path
+ * only reloads that item.  A hub which misses a version reloads everything, as it does every cachedDao.reconcileMinutes.
+ */
 public class CachedDao<T extends NamedType> implements Dao<T> {
 
     private final static Logger logger = LoggerFactory.getLogger(CachedDao.class);
 
+    private static final String CHANGE_PREFIX = "name:";
+    private static final long reconcileMinutes = HubProperties.getProperty("cachedDao.reconcileMinutes", 60);
+
     private final Dao<T> delegate;
     private final String path;
     private final WatchManager watchManager;
-    private ConcurrentMap<String, T> cacheMap = new ConcurrentHashMap<>();
-    private ExecutorService executor = Executors.newSingleThreadExecutor(
+    private volatile ConcurrentMap<String, T> cacheMap = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
             new ThreadFactoryBuilder().setNameFormat("cachedDao-%d").build());
+    private int version = -1;
 
     public CachedDao(Dao<T> delegate, WatchManager watchManager, String path) {
         this.delegate = delegate;
@@ -38,7 +52,7 @@ public class CachedDao<T extends NamedType> implements Dao<T> {
     public void upsert(T t) {
         delegate.upsert(t);
         cacheMap.put(t.getName(), t);
-        notifyWatchers();
+        notifyWatchers(t.getName());
     }
 
     @Override
@@ -78,15 +92,68 @@ public class CachedDao<T extends NamedType> implements Dao<T> {
         logger.trace("updated map {}", newMap.keySet());
     }
 
+    private void updateItem(String name) {
+        logger.trace("updating {} {}", path, name);
+        T t = delegate.get(name);
+        if (t == null) {
+            cacheMap.remove(name);
+        } else {
+            cacheMap.put(name, t);
+        }
+    }
+
+    @VisibleForTesting
+    void onChange() {
+        try {
+            Stat stat = new Stat();
+            String change = new String(watchManager.getData(path, stat), StandardCharsets.UTF_8);
+            if (stat.getVersion() <= version) {
+                logger.trace("already updated {} to version {}", path, stat.getVersion());
+                return;
+            }
+            if (stat.getVersion() == version + 1 && change.startsWith(CHANGE_PREFIX)) {
+                updateItem(change.substring(CHANGE_PREFIX.length()));
+            } else {
+                logger.info("reloading {} at version {}, last version {}", path, stat.getVersion(), version);
+                updateMap();
+            }
+            version = stat.getVersion();
+        } catch (Exception e) {
+            logger.warn("unable to read change for " + path, e);
+            updateMap();
+        }
+    }
+
+    /**
+     * The version is read before the items, so a change during the reload is read again.
+     */
+    @VisibleForTesting
+    void reconcile() {
+        int current = -1;
+        try {
+            Stat stat = new Stat();
+            watchManager.getData(path, stat);
+            current = stat.getVersion();
+        } catch (Exception e) {
+            logger.warn("unable to read version for " + path, e);
+        }
+        try {
+            updateMap();
+            version = current;
+        } catch (Exception e) {
+            logger.warn("unable to reconcile " + path, e);
+        }
+    }
+
     @Override
     public void delete(String name) {
         delegate.delete(name);
         cacheMap.remove(name);
-        notifyWatchers();
+        notifyWatchers(name);
     }
 
-    private void notifyWatchers() {
-        watchManager.notifyWatcher(path);
+    private void notifyWatchers(String name) {
+        watchManager.notifyWatcher(path, (CHANGE_PREFIX + name).getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
@@ -100,7 +167,7 @@ public class CachedDao<T extends NamedType> implements Dao<T> {
         watchManager.register(new Watcher() {
             @Override
             public void callback(CuratorEvent event) {
-                executor.submit(dao::updateMap);
+                executor.submit(dao::onChange);
             }
 
             @Override
@@ -108,6 +175,7 @@ public class CachedDao<T extends NamedType> implements Dao<T> {
                 return path;
             }
         });
+        executor.scheduleAtFixedRate(this::reconcile, 0, reconcileMinutes, TimeUnit.MINUTES);
     }
 
     private class CachedDaoService extends AbstractIdleService {
@@ -0,0 +1,65 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.HubProperties;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * ContentCodec is how ContentMarshaller compresses a payload.
+ * ZIP is the original format, a zip with BEST_COMPRESSION, and is the default, as every hub can read it.
+ * The others share a small versioned header, and the id is written in the header.
+ * Older hubs can not read the header, so the others are opt in, with the channel's codec or content.codec,
+ * once every hub in the cluster has been upgraded.
+ */
+public enum ContentCodec {
+    ZIP(-1),
+    NONE(0),
+    DEFLATE(1),
+    LZ4(2);
+
+    private static final ContentCodec defaultCodec = parse(HubProperties.getProperty("content.codec", "ZIP"), ZIP);
+
+    private final int id;
+
+    ContentCodec(int id) {
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    static ContentCodec fromId(int id) {
+        for (ContentCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("unknown codec id " + id);
+    }
+
+    public static ContentCodec getDefault() {
+        return defaultCodec;
+    }
+
+    public static boolean isValid(String name) {
+        return StringUtils.isBlank(name) || parse(name, null) != null;
+    }
+
+    /**
+     * @return the named codec, or the default if the name is blank or unknown.
+     */
+    public static ContentCodec parse(String name) {
+        return parse(name, defaultCodec);
+    }
+
+    private static ContentCodec parse(String name, ContentCodec missing) {
+        if (StringUtils.isBlank(name)) {
+            return missing;
+        }
+        try {
+            return valueOf(StringUtils.upperCase(name.trim()));
+        } catch (IllegalArgumentException e) {
+            return missing;
+        }
+    }
+}
@@ -11,8 +11,13 @@ import com.google.common.io.ByteStreams;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -21,8 +26,50 @@ public class ContentMarshaller {
 
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024;
+    //zip files start with PK, so the first two bytes tell the formats apart
+    private static final int MAGIC = 0x4843;
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    //creating a Deflater allocates and clears native buffers, which costs more than compressing a small item
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
 
     public static byte[] toBytes(Content content) throws IOException {
+        return toBytes(content, ContentCodec.getDefault());
+    }
+
+    /**
+     * Codecs other than ZIP write MAGIC, VERSION, codec id, meta length, meta, payload length and the encoded payload.
+     * A payload which does not get smaller is written with NONE.
+     */
+    public static byte[] toBytes(Content content, ContentCodec codec) throws IOException {
+        if (codec == ContentCodec.ZIP) {
+            return toZipBytes(content);
+        }
+        byte[] payload = ByteStreams.toByteArray(ByteStreams.limit(content.getStream(), maxBytes + 1L));
+        if (payload.length > maxBytes) {
+            throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
+        }
+        content.setSize((long) payload.length);
+        byte[] encoded = encode(payload, codec);
+        if (encoded.length >= payload.length) {
+            codec = ContentCodec.NONE;
+            encoded = payload;
+        }
+        byte[] meta = getMetaData(content).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(HEADER_BYTES + meta.length + encoded.length);
+        DataOutputStream output = new DataOutputStream(baos);
+        output.writeShort(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(codec.getId());
+        output.writeInt(meta.length);
+        output.write(meta);
+        output.writeInt(payload.length);
+        output.write(encoded);
+        return baos.toByteArray();
+    }
+
+    private static byte[] toZipBytes(Content content) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ZipOutputStream zipOut = new ZipOutputStream(baos);
         zipOut.setLevel(Deflater.BEST_COMPRESSION);
@@ -39,6 +86,54 @@ public class ContentMarshaller {
         return baos.toByteArray();
     }
 
+    private static byte[] encode(byte[] payload, ContentCodec codec) {
+        switch (codec) {
+            case LZ4:
+                return Lz4Block.compress(payload);
+            case DEFLATE:
+                return deflate(payload);
+            default:
+                return payload;
+        }
+    }
+
+    private static byte[] deflate(byte[] payload) {
+        Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(payload.length / 2 + 64);
+            byte[] buffer = new byte[8 * 1024];
+            while (!deflater.finished()) {
+                baos.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static byte[] inflate(byte[] read, int offset, int length, int size) throws IOException {
+        Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(read, offset, length);
+            byte[] payload = new byte[size];
+            int inflated = 0;
+            while (inflated < size) {
+                int count = inflater.inflate(payload, inflated, size - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("expected " + size + " bytes, found " + inflated);
+                }
+                inflated += count;
+            }
+            return payload;
+        } catch (DataFormatException e) {
+            throw new IOException("unable to inflate", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
     public static String getMetaData(Content content) {
         ObjectNode objectNode = mapper.createObjectNode();
         if (content.getContentType().isPresent()) {
@@ -48,6 +143,34 @@ public class ContentMarshaller {
     }
 
     public static Content toContent(byte[] read, ContentKey key) throws IOException {
+        if (read.length < HEADER_BYTES || ((read[0] & 0xFF) << 8 | (read[1] & 0xFF)) != MAGIC) {
+            return toContentFromZip(read, key);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(read);
+        buffer.position(2);
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("unknown content version " + version + " for " + key);
+        }
+        ContentCodec codec = ContentCodec.fromId(buffer.get());
+        int metaLength = buffer.getInt();
+        Content.Builder builder = Content.builder().withContentKey(key);
+        setMetaData(new String(read, buffer.position(), metaLength, StandardCharsets.UTF_8), builder);
+        buffer.position(buffer.position() + metaLength);
+        int size = buffer.getInt();
+        int offset = buffer.position();
+        int length = read.length - offset;
+        switch (codec) {
+            case LZ4:
+                return builder.withData(Lz4Block.decompress(read, offset, length, size)).build();
+            case DEFLATE:
+                return builder.withData(inflate(read, offset, length, size)).build();
+            default:
+                return builder.withStream(new ByteArrayInputStream(read, offset, length)).build();
+        }
+    }
+
+    private static Content toContentFromZip(byte[] read, ContentKey key) throws IOException {
         ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(read));
         zipStream.getNextEntry();
         byte[] bytes = ByteStreams.toByteArray(zipStream);
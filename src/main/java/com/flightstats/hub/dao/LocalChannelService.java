@@ -3,6 +3,7 @@ package com.flightstats.hub.dao;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.InFlightService;
 import com.flightstats.hub.channel.ChannelValidator;
+import com.flightstats.hub.cluster.ContentNotifier;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.aws.MultiPartParser;
 import com.flightstats.hub.exception.*;
@@ -54,6 +55,8 @@ public class LocalChannelService implements ChannelService {
     private TimeService timeService;
     @Inject
     private MetricsService metricsService;
+    @Inject
+    private ContentNotifier contentNotifier;
 
     @Override
     public boolean channelExists(String channelName) {
@@ -106,6 +109,7 @@ public class LocalChannelService implements ChannelService {
         }
         long start = System.currentTimeMillis();
         ContentKey contentKey = insertInternal(channelName, content);
+        contentNotifier.publish(channelName, contentKey);
         metricsService.insert(channelName, start, Insert.single, 1, content.getSize());
         return contentKey;
     }
@@ -116,7 +120,7 @@ public class LocalChannelService implements ChannelService {
             Traces traces = ActiveTraces.getLocal();
             traces.add("ContentService.insert");
             try {
-                content.packageStream();
+                content.packageStream(channelConfig.getContentCodec());
                 checkZeroBytes(content, channelConfig);
                 traces.add("ContentService.insert marshalled");
                 ContentKey key = content.keyAndStart(timeService.getNow());
@@ -150,7 +154,7 @@ public class LocalChannelService implements ChannelService {
             throw new InvalidRequestException(msg);
         }
         boolean insert = inFlightService.inFlight(() -> {
-            content.packageStream();
+            content.packageStream(channelConfig.getContentCodec());
             checkZeroBytes(content, channelConfig);
             return contentService.historicalInsert(channelName, content);
         });
@@ -173,10 +177,17 @@ public class LocalChannelService implements ChannelService {
         }
         long start = System.currentTimeMillis();
         Collection<ContentKey> contentKeys = inFlightService.inFlight(() -> {
-            MultiPartParser multiPartParser = new MultiPartParser(bulkContent);
-            multiPartParser.parse();
+            if (bulkContent.getStream() != null) {
+                MultiPartParser multiPartParser = new MultiPartParser(bulkContent);
+                multiPartParser.parse();
+            }
+            ContentCodec codec = getContentCodec(channel);
+            for (Content content : bulkContent.getItems()) {
+                content.packageStream(codec);
+            }
             return contentService.insert(bulkContent);
         });
+        contentKeys.forEach(key -> contentNotifier.publish(channel, key));
         metricsService.insert(channel, start, Insert.bulk, bulkContent.getItems().size(), bulkContent.getSize());
         return contentKeys;
     }
@@ -190,6 +201,14 @@ public class LocalChannelService implements ChannelService {
         }
     }
 
+    private ContentCodec getContentCodec(String channelName) {
+        try {
+            return getCachedChannelConfig(channelName).getContentCodec();
+        } catch (NoSuchChannelException e) {
+            return ContentCodec.getDefault();
+        }
+    }
+
     private boolean isHistorical(String channelName) {
         try {
             return getCachedChannelConfig(channelName).isHistorical();
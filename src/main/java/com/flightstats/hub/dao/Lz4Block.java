@@ -0,0 +1,157 @@
+package com.flightstats.hub.dao;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lz4Block is a pure java implementation of the LZ4 block format, which trades compression ratio for speed.
+ * Matches are found with a single probe into a hash table of 4 byte sequences,
+ * and decoding is mostly array copies.
+ */
+class Lz4Block {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    static byte[] compress(byte[] src) {
+        int length = src.length;
+        byte[] dst = new byte[length + length / 255 + 16];
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        int matchLimit = length - MATCH_FIND_LIMIT;
+        int literalLimit = length - LAST_LITERALS;
+        int anchor = 0;
+        int position = 0;
+        int output = 0;
+        int attempts = 1 << SKIP_TRIGGER;
+        while (position < matchLimit) {
+            int sequence = readInt(src, position);
+            int hash = hash(sequence);
+            int reference = table[hash];
+            table[hash] = position;
+            if (reference < 0 || position - reference > MAX_OFFSET || readInt(src, reference) != sequence) {
+                //step further through data which does not compress
+                position += attempts++ >>> SKIP_TRIGGER;
+                continue;
+            }
+            attempts = 1 << SKIP_TRIGGER;
+            while (position > anchor && reference > 0 && src[position - 1] == src[reference - 1]) {
+                position--;
+                reference--;
+            }
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < literalLimit && src[position + matchLength] == src[reference + matchLength]) {
+                matchLength++;
+            }
+            output = writeSequence(dst, output, src, anchor, position - anchor, position - reference, matchLength);
+            position += matchLength;
+            anchor = position;
+        }
+        output = writeLiterals(dst, output, src, anchor, length - anchor);
+        return Arrays.copyOf(dst, output);
+    }
+
+    static byte[] decompress(byte[] src, int offset, int length, int size) throws IOException {
+        byte[] dst = new byte[size];
+        int end = offset + length;
+        int input = offset;
+        int output = 0;
+        try {
+            while (true) {
+                int token = src[input++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int value;
+                    do {
+                        value = src[input++] & 0xFF;
+                        literals += value;
+                    } while (value == 255);
+                }
+                System.arraycopy(src, input, dst, output, literals);
+                input += literals;
+                output += literals;
+                if (input >= end) {
+                    break;
+                }
+                int matchOffset = (src[input++] & 0xFF) | (src[input++] & 0xFF) << 8;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int value;
+                    do {
+                        value = src[input++] & 0xFF;
+                        matchLength += value;
+                    } while (value == 255);
+                }
+                matchLength += MIN_MATCH;
+                int reference = output - matchOffset;
+                if (matchOffset == 0 || reference < 0) {
+                    throw new IOException("invalid lz4 offset " + matchOffset);
+                }
+                if (matchOffset >= matchLength) {
+                    System.arraycopy(dst, reference, dst, output, matchLength);
+                } else {
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[output + i] = dst[reference + i];
+                    }
+                }
+                output += matchLength;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt lz4 block", e);
+        }
+        if (output != size) {
+            throw new IOException("expected " + size + " bytes, found " + output);
+        }
+        return dst;
+    }
+
+    private static int writeSequence(byte[] dst, int output, byte[] src, int anchor, int literals,
+                                     int matchOffset, int matchLength) {
+        int token = output++;
+        int value = Math.min(literals, 15) << 4;
+        if (literals >= 15) {
+            output = writeLength(dst, output, literals - 15);
+        }
+        System.arraycopy(src, anchor, dst, output, literals);
+        output += literals;
+        dst[output++] = (byte) matchOffset;
+        dst[output++] = (byte) (matchOffset >>> 8);
+        int remaining = matchLength - MIN_MATCH;
+        value |= Math.min(remaining, 15);
+        if (remaining >= 15) {
+            output = writeLength(dst, output, remaining - 15);
+        }
+        dst[token] = (byte) value;
+        return output;
+    }
+
+    private static int writeLiterals(byte[] dst, int output, byte[] src, int anchor, int literals) {
+        dst[output++] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15) {
+            output = writeLength(dst, output, literals - 15);
+        }
+        System.arraycopy(src, anchor, dst, output, literals);
+        return output + literals;
+    }
+
+    private static int writeLength(byte[] dst, int output, int length) {
+        while (length >= 255) {
+            dst[output++] = (byte) 255;
+            length -= 255;
+        }
+        dst[output++] = (byte) length;
+        return output;
+    }
+
+    private static int readInt(byte[] src, int index) {
+        return (src[index] & 0xFF) | (src[index + 1] & 0xFF) << 8 | (src[index + 2] & 0xFF) << 16 | src[index + 3] << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -1,26 +1,35 @@
 package com.flightstats.hub.dao;
 
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.channel.ChannelEarliestResource;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
+/**
+ * Tag queries run against the member channels concurrently, at most tag.channelThreads at a time for each query,
+ * and the sorted results of each channel are combined with a k-way merge.
+ */
 @Singleton
 public class TagService {
     private final static Logger logger = LoggerFactory.getLogger(TagService.class);
 
+    private static final int channelThreads = HubProperties.getProperty("tag.channelThreads", 10);
+    private static final ExecutorService executorService = Executors.newFixedThreadPool(
+            HubProperties.getProperty("tag.threads", 50),
+            new ThreadFactoryBuilder().setNameFormat("TagService-%d").setDaemon(true).build());
+
     @Inject
     private ChannelService channelService;
 
@@ -33,74 +42,142 @@ public class TagService {
     }
 
     public SortedSet<ChannelContentKey> queryByTime(TimeQuery timeQuery) {
-        Iterable<ChannelConfig> channels = getChannels(timeQuery.getTagName());
-        SortedSet<ChannelContentKey> orderedKeys = Collections.synchronizedSortedSet(new TreeSet<>());
-        for (ChannelConfig channel : channels) {
-            Collection<ContentKey> contentKeys = channelService.queryByTime(timeQuery.withChannelName(channel.getName()));
-            for (ContentKey contentKey : contentKeys) {
-                orderedKeys.add(new ChannelContentKey(channel.getName(), contentKey));
-            }
-        }
-        return orderedKeys;
+        Map<String, SortedSet<ContentKey>> results = forChannels(getChannels(timeQuery.getTagName()),
+                channel -> channelService.queryByTime(timeQuery.withChannelName(channel.getName())));
+        return merge(results, true, Integer.MAX_VALUE);
     }
 
     public SortedSet<ChannelContentKey> getKeys(DirectionQuery query) {
-        Iterable<ChannelConfig> channels = getChannels(query.getTagName());
-        SortedSet<ChannelContentKey> orderedKeys = Collections.synchronizedSortedSet(new TreeSet<>());
         Traces traces = ActiveTraces.getLocal();
-        for (ChannelConfig channel : channels) {
+        Map<String, SortedSet<ContentKey>> results = forChannels(getChannels(query.getTagName()), channel -> {
             traces.add("query for channel", channel.getName());
-            Collection<ContentKey> contentKeys = channelService.query(query.withChannelName(channel.getName()));
+            SortedSet<ContentKey> contentKeys = channelService.query(query.withChannelName(channel.getName()));
             traces.add("query size for channel", channel.getName(), contentKeys.size());
-            for (ContentKey contentKey : contentKeys) {
-                orderedKeys.add(new ChannelContentKey(channel.getName(), contentKey));
-            }
-        }
-
-        Stream<ChannelContentKey> stream = orderedKeys.stream();
-        if (!query.isNext()) {
-            Collection<ChannelContentKey> contentKeys = new TreeSet<>(Collections.reverseOrder());
-            contentKeys.addAll(orderedKeys);
-            stream = contentKeys.stream();
-        }
-
-        return stream
-                .limit(query.getCount())
-                .collect(Collectors.toCollection(TreeSet::new));
+            return contentKeys;
+        });
+        return merge(results, query.isNext(), query.getCount());
     }
 
     public Optional<ChannelContentKey> getLatest(DirectionQuery tagQuery) {
-        Iterable<ChannelConfig> channels = getChannels(tagQuery.getTagName());
-        SortedSet<ChannelContentKey> orderedKeys = Collections.synchronizedSortedSet(new TreeSet<>());
-        for (ChannelConfig channel : channels) {
-            Optional<ContentKey> contentKey = channelService.getLatest(tagQuery.withChannelName(channel.getName()));
-            if (contentKey.isPresent()) {
-                orderedKeys.add(new ChannelContentKey(channel.getName(), contentKey.get()));
+        Map<String, Optional<ContentKey>> results = forChannels(getChannels(tagQuery.getTagName()),
+                channel -> channelService.getLatest(tagQuery.withChannelName(channel.getName())));
+        ChannelContentKey latest = null;
+        for (Map.Entry<String, Optional<ContentKey>> entry : results.entrySet()) {
+            if (entry.getValue().isPresent()) {
+                ChannelContentKey key = new ChannelContentKey(entry.getKey(), entry.getValue().get());
+                if (latest == null || key.compareTo(latest) > 0) {
+                    latest = key;
+                }
             }
         }
-        if (orderedKeys.isEmpty()) {
-            return Optional.absent();
-        } else {
-            return Optional.of(orderedKeys.last());
-        }
+        return Optional.fromNullable(latest);
     }
 
     public SortedSet<ChannelContentKey> getEarliest(DirectionQuery tagQuery) {
-        Iterable<ChannelConfig> channels = getChannels(tagQuery.getTagName());
         Traces traces = ActiveTraces.getLocal();
         traces.add("TagService.getEarliest", tagQuery.getTagName());
-        SortedSet<ChannelContentKey> orderedKeys = Collections.synchronizedSortedSet(new TreeSet<>());
-        for (ChannelConfig channel : channels) {
+        Map<String, SortedSet<ContentKey>> results = forChannels(getChannels(tagQuery.getTagName()), channel -> {
             DirectionQuery query = ChannelEarliestResource.getDirectionQuery(channel.getName(), tagQuery.getCount(),
                     tagQuery.isStable(), tagQuery.getLocation().name(), tagQuery.getEpoch().name());
-            for (ContentKey contentKey : channelService.query(query)) {
-                orderedKeys.add(new ChannelContentKey(channel.getName(), contentKey));
-            }
-        }
+            return channelService.query(query);
+        });
+        SortedSet<ChannelContentKey> orderedKeys = merge(results, true, Integer.MAX_VALUE);
         traces.add("TagService.getEarliest completed", orderedKeys);
         return orderedKeys;
     }
 
+    /**
+     * Runs the function for each channel, with at most channelThreads running at once.
+     *
+     * @return the results by channel name, in the order of the channels.
+     */
+    private <T> Map<String, T> forChannels(Iterable<ChannelConfig> channels, Function<ChannelConfig, T> function) {
+        Traces traces = ActiveTraces.getLocal();
+        List<ChannelConfig> channelList = new ArrayList<>();
+        channels.forEach(channelList::add);
+        List<Future<T>> futures = new ArrayList<>();
+        Semaphore running = new Semaphore(channelThreads);
+        try {
+            for (ChannelConfig channel : channelList) {
+                running.acquire();
+                futures.add(executorService.submit(() -> {
+                    ActiveTraces.setLocal(traces);
+                    try {
+                        return function.apply(channel);
+                    } finally {
+                        ActiveTraces.setLocal(null);
+                        running.release();
+                    }
+                }));
+            }
+            Map<String, T> results = new LinkedHashMap<>();
+            for (int i = 0; i < channelList.size(); i++) {
+                results.put(channelList.get(i).getName(), futures.get(i).get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Merges the sorted keys of each channel, ascending or descending, and stops once count keys are found.
+     */
+    static SortedSet<ChannelContentKey> merge(Map<String, SortedSet<ContentKey>> results, boolean ascending, int count) {
+        Comparator<ChannelContentKey> order = ascending ? Comparator.naturalOrder() : Comparator.reverseOrder();
+        PriorityQueue<MergeCursor> cursors = new PriorityQueue<>(Math.max(1, results.size()),
+                (cursor, other) -> order.compare(cursor.current, other.current));
+        for (Map.Entry<String, SortedSet<ContentKey>> entry : results.entrySet()) {
+            MergeCursor cursor = new MergeCursor(entry.getKey(), entry.getValue(), ascending);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        SortedSet<ChannelContentKey> keys = new TreeSet<>();
+        while (keys.size() < count && !cursors.isEmpty()) {
+            MergeCursor cursor = cursors.poll();
+            keys.add(cursor.current);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        return keys;
+    }
+
+    private static class MergeCursor {
+        private final String channel;
+        private final Iterator<ContentKey> iterator;
+        private ChannelContentKey current;
+
+        MergeCursor(String channel, SortedSet<ContentKey> keys, boolean ascending) {
+            this.channel = channel;
+            if (ascending) {
+                iterator = keys.iterator();
+            } else if (keys instanceof NavigableSet) {
+                iterator = ((NavigableSet<ContentKey>) keys).descendingIterator();
+            } else {
+                List<ContentKey> list = new ArrayList<>(keys);
+                Collections.reverse(list);
+                iterator = list.iterator();
+            }
+        }
+
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            current = new ChannelContentKey(channel, iterator.next());
+            return true;
+        }
+    }
+
     public Optional<Content> getValue(Request request) {
         Iterable<ChannelConfig> channels = getChannels(request.getTag());
         for (ChannelConfig channel : channels) {
@@ -1,7 +1,6 @@
 package com.flightstats.hub.dao;
 
 import com.flightstats.hub.model.ChannelConfig;
-import com.flightstats.hub.util.Commander;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,7 +14,7 @@ public class TtlEnforcer {
     private final static Logger logger = LoggerFactory.getLogger(TtlEnforcer.class);
 
     public static void enforce(String path, ChannelService channelService,
-                               Consumer<ChannelConfig> channelConsumer) {
+                               Consumer<ChannelConfig> channelConsumer, TtlReaper reaper) {
         try {
             File spokeRoot = new File(path);
             Set<String> dirSet = new HashSet<>(Arrays.asList(spokeRoot.list()));
@@ -30,7 +29,7 @@ public class TtlEnforcer {
             for (String dir : dirSet) {
                 String dirPath = path + "/" + dir;
                 logger.info("removing dir without channel {}", dirPath);
-                Commander.run(new String[]{"rm", "-rf", dirPath}, 1);
+                reaper.delete(dirPath);
             }
         } catch (Exception e) {
             logger.warn("unble to run " + path, e);
@@ -0,0 +1,147 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.InFlightService;
+import com.flightstats.hub.metrics.MetricsService;
+import com.flightstats.hub.util.Sleeper;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * TtlReaper deletes expired files in process, instead of forking rm and find.
+ * Deletes are limited to {name}.ttl.deletesPerSecond.  While more than ttl.yieldInFlight inserts are in flight,
+ * deletes pause, for at most ttl.yieldMillis in total per run, so enforcement yields to foreground traffic
+ * without falling behind the insert rate.
+ * A reaper is used by a single thread for one enforcement run, after which report() sends the totals.
+ */
+public class TtlReaper {
+
+    private final static Logger logger = LoggerFactory.getLogger(TtlReaper.class);
+
+    private final String name;
+    private final InFlightService inFlightService;
+    private final MetricsService metricsService;
+    private final RateLimiter rateLimiter;
+    private final int yieldInFlight = HubProperties.getProperty("ttl.yieldInFlight", 20);
+    private final long yieldMillis = HubProperties.getProperty("ttl.yieldMillis", 1000);
+    private final long start = System.currentTimeMillis();
+    private long yielded;
+    private long items;
+    private long bytes;
+
+    public TtlReaper(String name, InFlightService inFlightService, MetricsService metricsService) {
+        this.name = name;
+        this.inFlightService = inFlightService;
+        this.metricsService = metricsService;
+        rateLimiter = RateLimiter.create(HubProperties.getProperty(name + ".ttl.deletesPerSecond", 5000));
+    }
+
+    /**
+     * Delete the file, or the directory and everything below it, if it exists.
+     */
+    public void delete(String path) {
+        walk(new File(path).toPath(), Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Delete the files below the directory which were last modified before the time,
+     * and the directories left empty, like find -mmin +N -delete.
+     */
+    public void deleteModifiedBefore(String path, long modifiedBefore) {
+        walk(new File(path).toPath(), modifiedBefore, false);
+    }
+
+    public long getItems() {
+        return items;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void report() {
+        logger.info("{} reclaimed {} items {} bytes in {} ms", name, items, bytes, System.currentTimeMillis() - start);
+        metricsService.count("ttl.items", items, "name:" + name);
+        metricsService.count("ttl.bytes", bytes, "name:" + name);
+    }
+
+    private void walk(Path root, long modifiedBefore, boolean deleteRoot) {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                //directory times change as their contents are deleted, so use the times from before the walk
+                private final Deque<Long> directoryModified = new ArrayDeque<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    directoryModified.push(attributes.lastModifiedTime().toMillis());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.lastModifiedTime().toMillis() < modifiedBefore) {
+                        pace();
+                        if (remove(file)) {
+                            items++;
+                            bytes += attributes.size();
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    logger.debug("unable to visit {} {}", file, e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    long modified = directoryModified.pop();
+                    if (!dir.equals(root) || deleteRoot) {
+                        String[] remaining = dir.toFile().list();
+                        if (remaining != null && remaining.length == 0 && modified < modifiedBefore) {
+                            pace();
+                            remove(dir);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.info("unable to reap " + root, e);
+        }
+    }
+
+    private boolean remove(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.debug("unable to delete {} {}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    private void pace() {
+        rateLimiter.acquire();
+        while (yielded < yieldMillis && inFlightService.getInFlight() > yieldInFlight) {
+            Sleeper.sleep(10);
+            yielded += 10;
+        }
+    }
+
+    long getYielded() {
+        return yielded;
+    }
+}
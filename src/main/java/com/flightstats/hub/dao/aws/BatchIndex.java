@@ -0,0 +1,81 @@
+package com.flightstats.hub.dao.aws;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.base.Optional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * BatchIndex is the parsed index of a minute batch.
+ * Keys are sorted, and the [offset, length] of each key's zip entry is held in a parallel array,
+ * which keeps a cached index much smaller than the json it came from.
+ */
+class BatchIndex {
+
+    private final List<ContentKey> keys;
+    private final long[] ranges;
+
+    private BatchIndex(List<ContentKey> keys, long[] ranges) {
+        this.keys = keys;
+        this.ranges = ranges;
+    }
+
+    static BatchIndex fromJson(JsonNode root, String itemsName, String rangesName) {
+        List<ContentKey> keys = new ArrayList<>();
+        for (JsonNode item : root.get(itemsName)) {
+            Optional<ContentKey> key = ContentKey.fromUrl(item.asText());
+            if (key.isPresent()) {
+                keys.add(key.get());
+            }
+        }
+        Collections.sort(keys);
+        JsonNode rangesNode = root.get(rangesName);
+        long[] ranges = null;
+        if (rangesNode != null) {
+            ranges = new long[keys.size() * 2];
+            for (int i = 0; i < keys.size(); i++) {
+                JsonNode range = rangesNode.get(keys.get(i).toUrl());
+                if (range == null) {
+                    ranges = null;
+                    break;
+                }
+                ranges[i * 2] = range.get(0).asLong();
+                ranges[i * 2 + 1] = range.get(1).asLong();
+            }
+        }
+        return new BatchIndex(Collections.unmodifiableList(keys), ranges);
+    }
+
+    List<ContentKey> getKeys() {
+        return keys;
+    }
+
+    boolean contains(ContentKey key) {
+        return Collections.binarySearch(keys, key) >= 0;
+    }
+
+    /**
+     * @return [offset, length] for the key, or null if the index was written without ranges, or the key is missing.
+     */
+    long[] getRange(ContentKey key) {
+        if (ranges == null) {
+            return null;
+        }
+        int index = Collections.binarySearch(keys, key);
+        if (index < 0) {
+            return null;
+        }
+        return new long[]{ranges[index * 2], ranges[index * 2 + 1]};
+    }
+
+    boolean hasRanges() {
+        return ranges != null;
+    }
+
+    int getWeight() {
+        return keys.size() + 1;
+    }
+}
@@ -0,0 +1,74 @@
+package com.flightstats.hub.dao.aws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * BatchZipRanges reads the central directory of a batch zip, to find the bytes of each entry.
+ * A range runs from the entry's local header to the next entry, so it can be read on its own with a ZipInputStream.
+ */
+class BatchZipRanges {
+
+    private final static Logger logger = LoggerFactory.getLogger(BatchZipRanges.class);
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int END_LENGTH = 22;
+    private static final int CENTRAL_LENGTH = 46;
+    private static final long ZIP64 = 0xFFFFFFFFL;
+
+    /**
+     * @return [offset, length] by entry name, or an empty map if the zip can not be read, or needs zip64.
+     */
+    static Map<String, long[]> read(byte[] zip) {
+        ByteBuffer buffer = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd(buffer);
+        if (end < 0) {
+            logger.info("no end of central directory in {} bytes", zip.length);
+            return Collections.emptyMap();
+        }
+        int entries = buffer.getShort(end + 10) & 0xFFFF;
+        long directory = buffer.getInt(end + 16) & ZIP64;
+        if (entries == 0xFFFF || directory == ZIP64) {
+            return Collections.emptyMap();
+        }
+        TreeMap<Long, String> offsets = new TreeMap<>();
+        int position = (int) directory;
+        for (int i = 0; i < entries; i++) {
+            if (position + CENTRAL_LENGTH > zip.length || buffer.getInt(position) != CENTRAL_SIGNATURE) {
+                logger.info("invalid central directory entry {} at {}", i, position);
+                return Collections.emptyMap();
+            }
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            long offset = buffer.getInt(position + 42) & ZIP64;
+            String name = new String(zip, position + CENTRAL_LENGTH, nameLength, StandardCharsets.UTF_8);
+            offsets.put(offset, name);
+            position += CENTRAL_LENGTH + nameLength + extraLength + commentLength;
+        }
+        Map<String, long[]> ranges = new HashMap<>();
+        for (Map.Entry<Long, String> entry : offsets.entrySet()) {
+            Long next = offsets.higherKey(entry.getKey());
+            long limit = next == null ? directory : next;
+            ranges.put(entry.getValue(), new long[]{entry.getKey(), limit - entry.getKey()});
+        }
+        return ranges;
+    }
+
+    private static int findEnd(ByteBuffer buffer) {
+        //the end record is followed by a comment of up to 64K
+        int lowest = Math.max(0, buffer.limit() - END_LENGTH - 0xFFFF);
+        for (int i = buffer.limit() - END_LENGTH; i >= lowest; i--) {
+            if (buffer.getInt(i) == END_SIGNATURE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
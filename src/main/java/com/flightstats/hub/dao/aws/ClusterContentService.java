@@ -6,6 +6,7 @@ import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.*;
 import com.flightstats.hub.exception.FailedQueryException;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.MetricsService;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.replication.S3Batch;
@@ -15,7 +16,6 @@ import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.AbstractScheduledService;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.joda.time.DateTime;
@@ -26,10 +26,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.SortedSet;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -65,7 +62,16 @@ public class ClusterContentService implements ContentService {
     @Inject
     private HubUtils hubUtils;
 
-    private static final ExecutorService executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("ClusterContentService-%d").build());
+    @Inject
+    private MetricsService metricsService;
+
+    private final int queryTimeoutSeconds = HubProperties.getProperty("query.timeoutSeconds", 118);
+    private final QueryExecutor spokeQueryExecutor = new QueryExecutor("spoke",
+            HubProperties.getProperty("query.spoke.threads", 50),
+            HubProperties.getProperty("query.spoke.queueSize", 1000), () -> metricsService);
+    private final QueryExecutor s3QueryExecutor = new QueryExecutor("s3",
+            HubProperties.getProperty("query.s3.threads", 50),
+            HubProperties.getProperty("query.s3.queueSize", 1000), () -> metricsService);
 
     public ClusterContentService() {
         HubServices.registerPreStop(new SpokeS3ContentServiceInit());
@@ -155,7 +161,11 @@ public class ClusterContentService implements ContentService {
             ContentKey indexKey = content.getContentKey().get();
             Content largeMeta = fromIndex(content);
             content = largePayloadContentDao.get(channelName, largeMeta.getContentKey().get());
+            if (content == null) {
+                return Optional.absent();
+            }
             content.setContentKey(indexKey);
+            content.setLarge(true);
         }
         return Optional.of(content);
     }
@@ -233,32 +243,52 @@ public class ClusterContentService implements ContentService {
         return query(daoQuery, daos);
     }
 
-    private static SortedSet<ContentKey> query(Function<ContentDao, SortedSet<ContentKey>> daoQuery, List<ContentDao> contentDaos) {
+    /**
+     * Each dao is queried on the executor for its location.  Tasks still running when the caller gives up are cancelled.
+     */
+    private SortedSet<ContentKey> query(Function<ContentDao, SortedSet<ContentKey>> daoQuery, List<ContentDao> contentDaos) {
+        QueryResult queryResult = new QueryResult(contentDaos.size());
+        Traces traces = ActiveTraces.getLocal();
+        String threadName = Thread.currentThread().getName();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(queryTimeoutSeconds);
+        List<Future<SortedSet<ContentKey>>> futures = new ArrayList<>();
         try {
-            QueryResult queryResult = new QueryResult(contentDaos.size());
-            CountDownLatch latch = new CountDownLatch(contentDaos.size());
-            Traces traces = ActiveTraces.getLocal();
-            String threadName = Thread.currentThread().getName();
             for (ContentDao contentDao : contentDaos) {
-                executorService.submit(() -> {
-                    Thread.currentThread().setName(contentDao.getClass().getSimpleName() + "|" + threadName);
+                QueryExecutor executor = contentDao == spokeContentDao ? spokeQueryExecutor : s3QueryExecutor;
+                futures.add(executor.submit(() -> {
+                    Thread thread = Thread.currentThread();
+                    String poolName = thread.getName();
+                    thread.setName(contentDao.getClass().getSimpleName() + "|" + threadName);
                     ActiveTraces.setLocal(traces);
                     try {
-                        queryResult.addKeys(daoQuery.apply(contentDao));
+                        return daoQuery.apply(contentDao);
                     } finally {
-                        latch.countDown();
+                        ActiveTraces.setLocal(null);
+                        thread.setName(poolName);
                     }
-                });
+                }, deadline));
             }
-            latch.await(118, TimeUnit.SECONDS);
-            if (queryResult.hadSuccess()) {
-                return queryResult.getContentKeys();
-            } else {
-                traces.add("unable to complete query ", queryResult);
-                throw new FailedQueryException("unable to complete query " + queryResult + " " + threadName);
+            for (Future<SortedSet<ContentKey>> future : futures) {
+                long remaining = deadline - System.currentTimeMillis();
+                try {
+                    queryResult.addKeys(future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS));
+                } catch (ExecutionException e) {
+                    logger.warn("query failed " + threadName, e.getCause());
+                    traces.add("query failed", e.getCause());
+                } catch (TimeoutException | CancellationException e) {
+                    traces.add("query timed out", threadName);
+                }
             }
         } catch (InterruptedException e) {
             throw new RuntimeInterruptedException(e);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        if (queryResult.hadSuccess()) {
+            return queryResult.getContentKeys();
+        } else {
+            traces.add("unable to complete query ", queryResult);
+            throw new FailedQueryException("unable to complete query " + queryResult + " " + threadName);
         }
     }
 
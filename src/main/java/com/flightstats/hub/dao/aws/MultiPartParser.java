@@ -6,31 +6,45 @@ import com.flightstats.hub.exception.InvalidRequestException;
 import com.flightstats.hub.model.BulkContent;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
-import com.flightstats.hub.util.ByteRing;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * MultiPartParser reads the stream into a fixed buffer, and finds each boundary with a Boyer-Moore-Horspool scan,
+ * so a part is copied once into its item, and only the current part is buffered.
+ */
 public class MultiPartParser {
     private final static Logger logger = LoggerFactory.getLogger(MultiPartParser.class);
 
     private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024 * 3;
-    private BulkContent bulkContent;
-    private BufferedInputStream stream;
-    private Content.Builder builder;
-    private final ByteArrayOutputStream baos;
-    private static final byte[] CRLF = "\r\n".getBytes();
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte DASH = '-';
+    private static final int CRLF_LENGTH = 2;
+
+    private enum Boundary {NEXT, LAST, MISSING}
+
+    private final BulkContent bulkContent;
+    private final InputStream stream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long count;
+    private boolean eof;
+    private byte[] delimiter;
+    private int[] skip;
 
     public MultiPartParser(BulkContent bulkContent) {
         this.bulkContent = bulkContent;
-        builder = Content.builder();
-        stream = new BufferedInputStream(bulkContent.getStream());
-        baos = new ByteArrayOutputStream();
+        stream = bulkContent.getStream();
     }
 
     public void parse() throws IOException {
@@ -47,52 +61,161 @@ public class MultiPartParser {
     }
 
     private void parseItems() throws IOException {
-        String boundary = "--" + getBoundary();
-        byte[] startBoundary = (boundary + "\r\n").getBytes();
-        byte[] endBoundary = (boundary + "--").getBytes();
-        boolean started = false;
-        boolean header = false;
-        ByteRing byteRing = new ByteRing(endBoundary.length);
-        int count = 0;
-        int read = stream.read();
-        while (read != -1) {
-            count++;
-            if (count > maxBytes) {
-                logger.warn("multipart max payload exceeded {}", maxBytes, bulkContent.getChannel());
-                throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
+        delimiter = ("--" + getBoundary()).getBytes(StandardCharsets.UTF_8);
+        skip = new int[256];
+        Arrays.fill(skip, delimiter.length);
+        for (int i = 0; i < delimiter.length - 1; i++) {
+            skip[delimiter[i] & 0xFF] = delimiter.length - 1 - i;
+        }
+        PartOutputStream part = new PartOutputStream();
+        if (readPart(null) != Boundary.NEXT) {
+            return;
+        }
+        while (true) {
+            Content.Builder builder = readHeaders();
+            if (builder == null) {
+                return;
+            }
+            part.reset();
+            Boundary boundary = readPart(part);
+            if (boundary == Boundary.MISSING) {
+                logger.info("multipart ended without a boundary {}", bulkContent.getChannel());
+                return;
             }
-            baos.write((byte) read);
-            byteRing.put((byte) read);
-
-            if (byteRing.compare(startBoundary)) {
-                if (!started) {
-                    started = true;
-                    baos.reset();
-                } else {
-                    addItem(startBoundary);
+            addItem(builder, part);
+            if (boundary == Boundary.LAST) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copy the bytes before the next boundary into output, or discard them if output is null.
+     */
+    private Boundary readPart(PartOutputStream output) throws IOException {
+        int after = delimiter.length + CRLF_LENGTH;
+        while (true) {
+            int found = find();
+            if (found < 0 || found + after > limit) {
+                //keep the tail which could be the start of a boundary, and read more
+                write(output, found < 0 ? Math.max(position, limit - after + 1) : found);
+                if (!fill()) {
+                    return Boundary.MISSING;
                 }
-                header = true;
-                builder.withContentType("text/plain");
-            } else if (header && byteRing.compare(CRLF)) {
-                String headerLine = StringUtils.strip(baos.toString());
-                baos.reset();
-                if (StringUtils.isEmpty(headerLine)) {
-                    header = false;
-                } else {
-                    if (StringUtils.startsWithIgnoreCase(headerLine, "content-type:")) {
-                        String type = StringUtils.trim(StringUtils.removeStartIgnoreCase(headerLine, "content-type:"));
-                        builder.withContentType(type);
-                    } else if (StringUtils.startsWithIgnoreCase(headerLine, "content-key:")) {
-                        String key = StringUtils.trim(StringUtils.removeStartIgnoreCase(headerLine, "content-key:"));
-                        builder.withContentKey(ContentKey.fromFullUrl(key));
-                    }
+                continue;
+            }
+            byte first = buffer[found + delimiter.length];
+            byte second = buffer[found + delimiter.length + 1];
+            if (first == CR && second == LF) {
+                write(output, found);
+                position = found + after;
+                return Boundary.NEXT;
+            } else if (first == DASH && second == DASH) {
+                write(output, found);
+                position = found + after;
+                return Boundary.LAST;
+            }
+            write(output, found + 1);
+        }
+    }
+
+    /**
+     * @return the header values for the next part, or null if the stream ends before the blank line.
+     */
+    private Content.Builder readHeaders() throws IOException {
+        Content.Builder builder = Content.builder().withContentType("text/plain");
+        while (true) {
+            String headerLine = readLine();
+            if (headerLine == null) {
+                return null;
+            }
+            headerLine = StringUtils.strip(headerLine);
+            if (StringUtils.isEmpty(headerLine)) {
+                return builder;
+            }
+            if (StringUtils.startsWithIgnoreCase(headerLine, "content-type:")) {
+                String type = StringUtils.trim(StringUtils.removeStartIgnoreCase(headerLine, "content-type:"));
+                builder.withContentType(type);
+            } else if (StringUtils.startsWithIgnoreCase(headerLine, "content-key:")) {
+                String key = StringUtils.trim(StringUtils.removeStartIgnoreCase(headerLine, "content-key:"));
+                builder.withContentKey(ContentKey.fromFullUrl(key));
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        int scanned = position;
+        while (true) {
+            for (int i = scanned; i < limit - 1; i++) {
+                if (buffer[i] == CR && buffer[i + 1] == LF) {
+                    String line = new String(buffer, position, i - position, StandardCharsets.UTF_8);
+                    position = i + CRLF_LENGTH;
+                    return line;
                 }
-            } else if (byteRing.compare(endBoundary)) {
-                addItem(endBoundary);
-                break;
             }
-            read = stream.read();
+            scanned = Math.max(position, limit - 1);
+            if (limit - position == buffer.length) {
+                throw new InvalidRequestException("multipart header is too long");
+            }
+            int start = position;
+            if (!fill()) {
+                return null;
+            }
+            scanned -= start;
+        }
+    }
+
+    /**
+     * Horspool search for the delimiter in the unread bytes of the buffer.
+     */
+    private int find() {
+        int last = delimiter.length - 1;
+        int index = position;
+        while (index + last < limit) {
+            int i = last;
+            while (buffer[index + i] == delimiter[i]) {
+                if (i == 0) {
+                    return index;
+                }
+                i--;
+            }
+            index += skip[buffer[index + last] & 0xFF];
+        }
+        return -1;
+    }
+
+    private void write(PartOutputStream output, int end) {
+        if (output != null) {
+            output.write(buffer, position, end - position);
         }
+        position = end;
+    }
+
+    /**
+     * Move the unread bytes to the start of the buffer, and read more.
+     *
+     * @return false if the stream has ended.
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int remaining = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, remaining);
+        position = 0;
+        limit = remaining;
+        int read = stream.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        count += read;
+        if (count > maxBytes) {
+            logger.warn("multipart max payload exceeded {} {}", maxBytes, bulkContent.getChannel());
+            throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
+        }
+        limit += read;
+        return true;
     }
 
     private String getBoundary() {
@@ -104,17 +227,26 @@ public class MultiPartParser {
 
     }
 
-    private void addItem(byte[] boundary) {
-        byte[] bytes = baos.toByteArray();
-        byte[] data = ArrayUtils.subarray(bytes, 0, bytes.length - boundary.length - CRLF.length);
+    private void addItem(Content.Builder builder, PartOutputStream part) {
+        byte[] data = part.toByteArray(CRLF_LENGTH);
         if ((data.length == 0 && builder.getContentKey().isPresent())
                 || data.length > 0) {
             builder.withData(data);
             bulkContent.getItems().add(builder.build());
         }
-        builder = Content.builder();
-        baos.reset();
     }
 
+    /**
+     * Exposes the buffer, so the CRLF before a boundary can be dropped without another copy.
+     */
+    private static class PartOutputStream extends ByteArrayOutputStream {
 
+        PartOutputStream() {
+            super(BUFFER_SIZE);
+        }
+
+        byte[] toByteArray(int trim) {
+            return Arrays.copyOf(buf, Math.max(0, count - trim));
+        }
+    }
 }
@@ -0,0 +1,64 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.exception.FailedQueryException;
+import com.flightstats.hub.metrics.MetricsService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * QueryExecutor runs dao queries for one location on a fixed pool with a bounded queue.
+ * A full queue rejects the query with a FailedQueryException, which the caller sees as a 503.
+ * A task which starts after its caller's deadline is skipped, and callers cancel the tasks they stop waiting for.
+ */
+class QueryExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger(QueryExecutor.class);
+
+    private final String name;
+    private final Supplier<MetricsService> metricsService;
+    private final BlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param metricsService supplies the metrics, so the executor can be built before its owner is injected.
+     */
+    QueryExecutor(String name, int threads, int queueSize, Supplier<MetricsService> metricsService) {
+        this.name = name;
+        this.metricsService = metricsService;
+        queue = new ArrayBlockingQueue<>(queueSize);
+        executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, queue,
+                new ThreadFactoryBuilder().setNameFormat("query-" + name + "-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param deadline the time in millis when the caller stops waiting.
+     */
+    <T> Future<T> submit(Callable<T> callable, long deadline) {
+        long submitted = System.currentTimeMillis();
+        String tag = "location:" + name;
+        MetricsService metrics = metricsService.get();
+        metrics.gauge("query.queue", queue.size(), tag);
+        try {
+            return executor.submit(() -> {
+                metrics.time("query.wait", submitted, tag);
+                if (System.currentTimeMillis() >= deadline) {
+                    throw new CancellationException("caller stopped waiting before query " + name + " started");
+                }
+                return callable.call();
+            });
+        } catch (RejectedExecutionException e) {
+            metrics.count("query.rejected", 1, tag);
+            logger.warn("rejected {} query, queue {} active {}", name, queue.size(), executor.getActiveCount());
+            throw new FailedQueryException("too many " + name + " queries, please retry");
+        }
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+}
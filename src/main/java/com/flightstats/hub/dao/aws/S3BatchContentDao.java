@@ -15,6 +15,8 @@ import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -31,6 +33,7 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
@@ -42,10 +45,16 @@ public class S3BatchContentDao implements ContentDao {
     private final static Logger logger = LoggerFactory.getLogger(S3BatchContentDao.class);
     private static final String BATCH_INDEX = "Batch/index/";
     private static final String BATCH_ITEMS = "Batch/items/";
+    private static final String ITEMS = "items";
+    private static final String RANGES = "ranges";
     private static final ObjectMapper mapper = new ObjectMapper();
 
     private final boolean useEncrypted = HubProperties.isAppEncrypted();
     private final int s3MaxQueryItems = HubProperties.getProperty("s3.maxQueryItems", 1000);
+    private final Cache<String, BatchIndex> indexCache = CacheBuilder.newBuilder()
+            .maximumWeight(HubProperties.getProperty("s3.batchIndexCacheKeys", 100 * 1000))
+            .weigher((String indexKey, BatchIndex index) -> index.getWeight())
+            .build();
     @Inject
     private AmazonS3 s3Client;
     @Inject
@@ -93,6 +102,64 @@ public class S3BatchContentDao implements ContentDao {
     private Content getS3Object(String channel, ContentKey key) throws IOException {
         logger.trace("S3BatchContentDao.getS3Object {} {}", channel, key);
         MinutePath minutePath = new MinutePath(key.getTime());
+        BatchIndex index = null;
+        try {
+            index = getIndex(channel, minutePath);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                ActiveTraces.getLocal().add("S3BatchContentDao.getS3Object no index", minutePath);
+                return null;
+            }
+            logger.info("unable to read index " + channel + " " + minutePath, e);
+        } catch (IOException e) {
+            logger.info("unable to read index " + channel + " " + minutePath, e);
+        }
+        if (index == null) {
+            return scanS3Object(channel, key, minutePath);
+        }
+        if (!index.contains(key)) {
+            ActiveTraces.getLocal().add("S3BatchContentDao.getS3Object not in index", key);
+            return null;
+        }
+        long[] range = index.getRange(key);
+        if (range == null) {
+            return scanS3Object(channel, key, minutePath);
+        }
+        return getRangedS3Object(channel, key, minutePath, range[0], range[1]);
+    }
+
+    /**
+     * Read just the zip entry for the key, using the range recorded in the index when the batch was written.
+     */
+    private Content getRangedS3Object(String channel, ContentKey key, MinutePath minutePath,
+                                      long offset, long length) throws IOException {
+        ActiveTraces.getLocal().add("S3BatchContentDao.getRangedS3Object", key, offset, length);
+        long start = System.currentTimeMillis();
+        GetObjectRequest request = new GetObjectRequest(s3BucketName.getS3BucketName(), getS3BatchItemsKey(channel, minutePath))
+                .withRange(offset, offset + length - 1);
+        try (S3Object object = s3Client.getObject(request);
+             ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(object.getObjectContent()))) {
+            ZipEntry entry = zipStream.getNextEntry();
+            if (entry != null && entry.getName().equals(key.toUrl())) {
+                return getContent(key, zipStream, entry);
+            }
+            logger.warn("unexpected entry {} for {} {}", entry == null ? null : entry.getName(), channel, key);
+            return scanS3Object(channel, key, minutePath);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404) {
+                logger.warn("AmazonS3Exception : unable to read " + channel + " " + key, e);
+            }
+            return null;
+        } finally {
+            metricsService.time(channel, "s3.get", start, "type:batch");
+            ActiveTraces.getLocal().add("S3BatchContentDao.getRangedS3Object completed");
+        }
+    }
+
+    /**
+     * Batches written before the index had ranges need to be read until the key is found.
+     */
+    private Content scanS3Object(String channel, ContentKey key, MinutePath minutePath) throws IOException {
         Content content = null;
         try (ZipInputStream zipStream = getZipInputStream(channel, minutePath)) {
             ZipEntry nextEntry = zipStream.getNextEntry();
@@ -100,6 +167,7 @@ public class S3BatchContentDao implements ContentDao {
                 logger.trace("found zip entry {} in {}", nextEntry.getName(), minutePath);
                 if (nextEntry.getName().equals(key.toUrl())) {
                     content = getContent(key, zipStream, nextEntry);
+                    break;
                 }
                 nextEntry = zipStream.getNextEntry();
             }
@@ -174,28 +242,73 @@ public class S3BatchContentDao implements ContentDao {
         }
     }
 
+    /**
+     * Hours are listed with one prefix, days by hour and months by day, with the prefixes listed concurrently.
+     * When the query has a count, minutes are read newest first, and reading stops once the count is met.
+     */
     private SortedSet<ContentKey> queryHourPlus(TimeQuery query) {
         Traces traces = ActiveTraces.getLocal();
-        SortedSet<ContentKey> keys = new TreeSet<>();
-        if (query.getCount() > 0) {
-            keys = new ContentKeySet(query.getCount(), query.getLimitKey());
-        }
+        SortedSet<ContentKey> keys = query.getCount() > 0
+                ? new ContentKeySet(query.getCount(), query.getLimitKey()) : new TreeSet<>();
 
         DateTime rounded = query.getUnit().round(query.getStartTime());
         String channel = query.getChannelName();
         traces.add("S3BatchContentDao.queryHourPlus starting ", channel, rounded, query.getUnit());
-        ListObjectsRequest request = new ListObjectsRequest()
-                .withBucketName(s3BucketName.getS3BucketName())
-                .withPrefix(channel + BATCH_INDEX + query.getUnit().format(rounded))
-                .withMaxKeys(s3MaxQueryItems);
-        SortedSet<MinutePath> minutePaths = listMinutePaths(channel, request, traces, true);
-        for (MinutePath minutePath : minutePaths) {
-            getKeysForMinute(channel, minutePath, keys, traces);
+        List<Callable<SortedSet<MinutePath>>> listings = new ArrayList<>();
+        for (String prefix : getPrefixes(query.getUnit(), rounded)) {
+            ListObjectsRequest request = new ListObjectsRequest()
+                    .withBucketName(s3BucketName.getS3BucketName())
+                    .withPrefix(channel + BATCH_INDEX + prefix)
+                    .withMaxKeys(s3MaxQueryItems);
+            listings.add(() -> listMinutePaths(channel, request, traces, true));
+        }
+        List<MinutePath> minutePaths = new ArrayList<>();
+        S3Util.inOrder(listings, listings.size(), paths -> {
+            minutePaths.addAll(paths);
+            return true;
+        });
+        if (query.getCount() > 0) {
+            Collections.reverse(minutePaths);
         }
+        List<Callable<List<ContentKey>>> reads = getMinuteReads(channel, minutePaths, traces);
+        S3Util.inOrder(reads, query.getCount() > 0 ? 1 : reads.size(), minuteKeys -> {
+            keys.addAll(minuteKeys);
+            return query.getCount() <= 0 || keys.size() < query.getCount();
+        });
         traces.add("S3BatchContentDao.queryHourPlus found keys", keys);
         return keys;
     }
 
+    private List<Callable<List<ContentKey>>> getMinuteReads(String channel, Collection<MinutePath> minutePaths, Traces traces) {
+        List<Callable<List<ContentKey>>> reads = new ArrayList<>();
+        for (MinutePath minutePath : minutePaths) {
+            reads.add(() -> {
+                List<ContentKey> minuteKeys = new ArrayList<>();
+                getKeysForMinute(channel, minutePath, traces, minuteKeys::add);
+                return minuteKeys;
+            });
+        }
+        return reads;
+    }
+
+    static List<String> getPrefixes(TimeUtil.Unit unit, DateTime rounded) {
+        List<String> prefixes = new ArrayList<>();
+        if (unit.equals(TimeUtil.Unit.DAYS)) {
+            for (int hour = 0; hour < 24; hour++) {
+                prefixes.add(TimeUtil.Unit.HOURS.format(rounded.plusHours(hour)));
+            }
+        } else if (unit.equals(TimeUtil.Unit.MONTHS)) {
+            DateTime day = rounded.withDayOfMonth(1);
+            while (day.getMonthOfYear() == rounded.getMonthOfYear()) {
+                prefixes.add(TimeUtil.Unit.DAYS.format(day));
+                day = day.plusDays(1);
+            }
+        } else {
+            prefixes.add(unit.format(rounded));
+        }
+        return prefixes;
+    }
+
     private SortedSet<ContentKey> queryMinute(String channel, DateTime startTime, TimeUtil.Unit unit) {
         Traces traces = ActiveTraces.getLocal();
         SortedSet<ContentKey> keys = new TreeSet<>();
@@ -215,21 +328,14 @@ public class S3BatchContentDao implements ContentDao {
     }
 
     private void getKeysForMinute(String channel, MinutePath minutePath, SortedSet<ContentKey> keys, Traces traces) {
-        getKeysForMinute(channel, minutePath, traces, item -> {
-            keys.add(ContentKey.fromUrl(item.asText()).get());
-        });
+        getKeysForMinute(channel, minutePath, traces, keys::add);
     }
 
-    private void getKeysForMinute(String channel, MinutePath minutePath, Traces traces, Consumer<JsonNode> itemNodeConsumer) {
-        long start = System.currentTimeMillis();
-        try (S3Object object = s3Client.getObject(s3BucketName.getS3BucketName(), getS3BatchIndexKey(channel, minutePath))) {
-            byte[] bytes = ByteStreams.toByteArray(object.getObjectContent());
-            JsonNode root = mapper.readTree(bytes);
-            JsonNode items = root.get("items");
-            for (JsonNode item : items) {
-                itemNodeConsumer.accept(item);
-            }
-            traces.add("S3BatchContentDao.getKeysForMinute ", minutePath, items.size());
+    private void getKeysForMinute(String channel, MinutePath minutePath, Traces traces, Consumer<ContentKey> keyConsumer) {
+        try {
+            List<ContentKey> keys = getIndex(channel, minutePath).getKeys();
+            keys.forEach(keyConsumer);
+            traces.add("S3BatchContentDao.getKeysForMinute ", minutePath, keys.size());
         } catch (AmazonS3Exception e) {
             if (e.getStatusCode() != 404) {
                 logger.warn("unable to get index " + channel, minutePath, e);
@@ -240,9 +346,30 @@ public class S3BatchContentDao implements ContentDao {
         } catch (IOException e) {
             logger.warn("unable to get index " + channel, minutePath, e);
             traces.add("issue with getting keys", e);
+        }
+    }
+
+    /**
+     * Indexes do not change once a batch is written, so they are cached until the channel is deleted,
+     * the batch is rewritten on this server, or they are evicted by s3.batchIndexCacheKeys.
+     * Missing indexes are not cached, as the batch for a recent minute may not be written yet.
+     */
+    private BatchIndex getIndex(String channel, MinutePath minutePath) throws IOException {
+        String indexKey = getS3BatchIndexKey(channel, minutePath);
+        BatchIndex index = indexCache.getIfPresent(indexKey);
+        if (index != null) {
+            ActiveTraces.getLocal().add("S3BatchContentDao.getIndex cached", minutePath);
+            return index;
+        }
+        long start = System.currentTimeMillis();
+        try (S3Object object = s3Client.getObject(s3BucketName.getS3BucketName(), indexKey)) {
+            JsonNode root = mapper.readTree(ByteStreams.toByteArray(object.getObjectContent()));
+            index = BatchIndex.fromJson(root, ITEMS, RANGES);
         } finally {
             metricsService.time(channel, "s3.get", start, "type:batch");
         }
+        indexCache.put(indexKey, index);
+        return index;
     }
 
     @Override
@@ -282,19 +409,16 @@ public class S3BatchContentDao implements ContentDao {
             if (paths.isEmpty()) {
                 return keys;
             }
-            for (MinutePath path : paths) {
-                getKeysForMinute(channel, path, traces, item -> {
-                    ContentKey contentKey = ContentKey.fromUrl(item.asText()).get();
+            S3Util.inOrder(getMinuteReads(channel, paths, traces), 1, minuteKeys -> {
+                for (ContentKey contentKey : minuteKeys) {
                     if (contentKey.compareTo(query.getStartKey()) > 0
                             && keys.size() < query.getCount()) {
                         keys.add(contentKey);
                     }
-                });
-                if (keys.size() >= query.getCount()) {
-                    break;
                 }
-                markerTime = path.getTime();
-            }
+                return keys.size() < query.getCount();
+            });
+            markerTime = paths.last().getTime();
         } while (keys.size() < query.getCount() && markerTime.isBefore(endTime));
         return keys;
     }
@@ -330,9 +454,17 @@ public class S3BatchContentDao implements ContentDao {
             logger.info("completed deleteBefore of " + channel);
         } catch (Exception e) {
             logger.warn("unable to delete " + channel + " in " + s3BucketName.getS3BucketName(), e);
+        } finally {
+            invalidateIndexes(channel, limitKey);
         }
     }
 
+    private void invalidateIndexes(String channel, ContentKey limitKey) {
+        String prefix = channel + BATCH_INDEX;
+        String limit = prefix + new MinutePath(limitKey.getTime()).toUrl();
+        indexCache.asMap().keySet().removeIf(indexKey -> indexKey.startsWith(prefix) && indexKey.compareTo(limit) <= 0);
+    }
+
     @Override
     public void delete(String channel) {
         Traces traces = ActiveTraces.getLocal();
@@ -360,7 +492,8 @@ public class S3BatchContentDao implements ContentDao {
         try {
             logger.debug("writing {} batch {} keys {} bytes {}", channel, path, keys.size(), bytes.length);
             writeBatchItems(channel, path, bytes);
-            writeBatchIndex(channel, path, keys);
+            writeBatchIndex(channel, path, keys, BatchZipRanges.read(bytes));
+            indexCache.invalidate(getS3BatchIndexKey(channel, path));
         } catch (Exception e) {
             logger.warn("unable to write batch to S3 " + channel + " " + path, e);
             throw e;
@@ -369,14 +502,26 @@ public class S3BatchContentDao implements ContentDao {
         }
     }
 
-    private void writeBatchIndex(String channel, ContentPath path, Collection<ContentKey> keys) {
+    /**
+     * The index lists the keys in items, and the [offset, length] of each key's zip entry in ranges.
+     */
+    private void writeBatchIndex(String channel, ContentPath path, Collection<ContentKey> keys, Map<String, long[]> zipRanges) {
         String batchIndexKey = getS3BatchIndexKey(channel, path);
         ObjectNode root = mapper.createObjectNode();
         root.put("id", path.toUrl());
-        ArrayNode items = root.putArray("items");
+        ArrayNode items = root.putArray(ITEMS);
         for (ContentKey key : keys) {
             items.add(key.toUrl());
         }
+        if (!zipRanges.isEmpty()) {
+            ObjectNode ranges = root.putObject(RANGES);
+            for (ContentKey key : keys) {
+                long[] range = zipRanges.get(key.toUrl());
+                if (range != null) {
+                    ranges.putArray(key.toUrl()).add(range[0]).add(range[1]);
+                }
+            }
+        }
         String index = root.toString();
         logger.trace("index is {} {}", batchIndexKey, index);
         byte[] bytes = index.getBytes(StandardCharsets.UTF_8);
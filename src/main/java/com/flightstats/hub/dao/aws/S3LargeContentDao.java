@@ -22,11 +22,11 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SuppressWarnings("Duplicates")
 @Singleton
@@ -34,6 +34,8 @@ public class S3LargeContentDao implements ContentDao {
 
     private final static Logger logger = LoggerFactory.getLogger(S3LargeContentDao.class);
 
+    private static final int COPY_BUFFER = 64 * 1024;
+
     private final boolean useEncrypted = HubProperties.isAppEncrypted();
 
     @Inject
@@ -66,13 +68,18 @@ public class S3LargeContentDao implements ContentDao {
         throw new UnsupportedOperationException("use query interface");
     }
 
+    /**
+     * The size check uses the parts which S3 acknowledged, and the part count in the completed ETag,
+     * so the object is not read back after the upload.
+     */
     public ContentKey insert(String channelName, Content content) {
         content.keyAndStart(TimeUtil.now());
         ContentKey key = content.getContentKey().get();
         ActiveTraces.getLocal().add("S3LargeContentDao.write ", key);
         long start = System.currentTimeMillis();
-        int length = 0;
+        long length = 0;
         List<PartETag> partETags = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong partBytes = new AtomicLong();
         String s3Key = getS3ContentKey(channelName, key, content.isHistorical());
         String name = s3BucketName.getS3BucketName();
         String uploadId = "";
@@ -84,19 +91,19 @@ public class S3LargeContentDao implements ContentDao {
             uploadId = initResponse.getUploadId();
             ChunkOutputStream outputStream = new ChunkOutputStream(content.getThreads(), chunk -> {
                 try {
-                    byte[] bytes = chunk.getBytes();
-                    logger.info("got bytes {} {}", s3Key, bytes.length);
-                    ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+                    int bytes = chunk.getLength();
+                    logger.info("got bytes {} {}", s3Key, bytes);
                     UploadPartRequest uploadRequest = new UploadPartRequest()
                             .withBucketName(name)
                             .withKey(s3Key)
                             .withUploadId(initResponse.getUploadId())
                             .withPartNumber(chunk.getCount())
-                            .withInputStream(bais)
-                            .withPartSize(bytes.length);
+                            .withInputStream(chunk.getStream())
+                            .withPartSize(bytes);
                     UploadPartResult uploadPart = s3Client.uploadPart(uploadRequest);
                     partETags.add(uploadPart.getPartETag());
-                    logger.info("wrote chunk {} {} {}", s3Key, chunk.getCount(), bytes.length);
+                    partBytes.addAndGet(bytes);
+                    logger.info("wrote chunk {} {} {}", s3Key, chunk.getCount(), bytes);
                     return "ok";
                 } catch (Exception e) {
                     logger.warn("what happened POST to " + channelName + " for chunk " + chunk.getCount(), e);
@@ -105,22 +112,19 @@ public class S3LargeContentDao implements ContentDao {
             });
 
             InputStream stream = content.getStream();
-            long copied = IOUtils.copyLarge(stream, outputStream);
+            long copied = IOUtils.copyLarge(stream, outputStream, new byte[COPY_BUFFER]);
+            length = copied;
             ActiveTraces.getLocal().add("S3LargeContentDao.write processed", copied);
             logger.info("before complete key {} with {} parts", s3Key, partETags.size());
             outputStream.close();
             CompleteMultipartUploadRequest compRequest = new CompleteMultipartUploadRequest(name, s3Key, uploadId, partETags);
-            s3Client.completeMultipartUpload(compRequest);
+            CompleteMultipartUploadResult result = s3Client.completeMultipartUpload(compRequest);
             S3ResponseMetadata completedMetaData = s3Client.getCachedResponseMetadata(compRequest);
-            logger.info("completed key {} request id {} with {} parts", s3Key, completedMetaData.getRequestId(), partETags.size());
+            logger.info("completed key {} request id {} with {} parts", s3Key, completedMetaData == null ? null : completedMetaData.getRequestId(), partETags.size());
             completed = true;
             content.setSize(copied);
-            long s3Length = getLength(s3Key, name);
-            if (s3Length != copied) {
-                String message = "object is not the correct size. expected " + copied + ", found " + s3Length;
-                logger.warn(message);
-                throw new RuntimeException(message);
-            }
+            checkCompleted(result, partETags.size(), partBytes.get(), copied);
+            ActiveTraces.getLocal().add("S3LargeContentDao.write completed length ", copied);
             return key;
         } catch (Exception e) {
             logger.warn("unable to write large item to S3 " + channelName + " " + key, e);
@@ -140,18 +144,21 @@ public class S3LargeContentDao implements ContentDao {
         }
     }
 
-    private long getLength(String s3Key, String name) throws IOException {
-        GetObjectRequest request = new GetObjectRequest(name, s3Key);
-        try (S3Object object = s3Client.getObject(request)) {
-            ObjectMetadata metadata = object.getObjectMetadata();
-            long contentLength = metadata.getContentLength();
-            S3ResponseMetadata responseMetadata = s3Client.getCachedResponseMetadata(request);
-            logger.info("{} {} get content length {} {}", name, s3Key, contentLength, responseMetadata.getRequestId());
-            ActiveTraces.getLocal().add("S3LargeContentDao.write completed length ", contentLength);
-            return contentLength;
-        } catch (Exception e) {
-            logger.warn("unable to get length" + name + " " + s3Key, e);
-            return 0;
+    /**
+     * A multipart ETag ends with -partCount.
+     */
+    static void checkCompleted(CompleteMultipartUploadResult result, int parts, long partBytes, long copied) {
+        if (partBytes != copied) {
+            String message = "object is not the correct size. expected " + copied + ", uploaded " + partBytes;
+            logger.warn(message);
+            throw new RuntimeException(message);
+        }
+        String eTag = result == null ? null : result.getETag();
+        String partCount = StringUtils.substringAfterLast(StringUtils.remove(eTag, '"'), "-");
+        if (StringUtils.isNumeric(partCount) && Integer.parseInt(partCount) != parts) {
+            String message = "object does not have the correct parts. expected " + parts + ", found " + eTag;
+            logger.warn(message);
+            throw new RuntimeException(message);
         }
     }
 
@@ -2,28 +2,36 @@ package com.flightstats.hub.dao.aws;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.*;
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.dao.ContentKeyUtil;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.ContentPath;
 import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.model.TimeQuery;
 import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
 
 class S3Util {
 
     private final static Logger logger = LoggerFactory.getLogger(S3Util.class);
 
+    private static final int listThreads = HubProperties.getProperty("s3.listThreads", 20);
+    private static final ExecutorService listPool = Executors.newFixedThreadPool(listThreads,
+            new ThreadFactoryBuilder().setNameFormat("S3List-%d").setDaemon(true).build());
+    private static final ThreadLocal<Boolean> inListPool = ThreadLocal.withInitial(() -> false);
+
     public static void initialize(String s3BucketName, AmazonS3 s3Client) {
         logger.info("checking if bucket exists " + s3BucketName);
         if (s3Client.doesBucketExist(s3BucketName)) {
@@ -34,12 +42,34 @@ class S3Util {
         throw new RuntimeException("unable to find bucket " + s3BucketName);
     }
 
+    /**
+     * The windows before the start key are queried concurrently, and merged newest first until the count is met.
+     */
     static SortedSet<ContentKey> queryPrevious(DirectionQuery query, ContentDao dao) {
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        List<Callable<SortedSet<ContentKey>>> calls = new ArrayList<>();
+        for (TimeQuery timeQuery : getPreviousWindows(query)) {
+            calls.add(() -> dao.queryByTime(timeQuery));
+        }
+        inOrder(calls, 1, contentKeys -> {
+            contentKeys.addAll(keys);
+            keys.clear();
+            keys.addAll(ContentKeyUtil.filter(contentKeys, query));
+            return keys.size() < query.getCount();
+        });
+        ActiveTraces.getLocal().add("queryPrevious returning", keys);
+        return keys;
+    }
+
+    /**
+     * Hours back to two days, then days back to a month, then months, until the earliest time.
+     */
+    static List<TimeQuery> getPreviousWindows(DirectionQuery query) {
+        List<TimeQuery> windows = new ArrayList<>();
         DateTime endTime = query.getStartKey().getTime();
         DateTime queryTime = endTime;
-        SortedSet<ContentKey> keys = new TreeSet<>();
         DateTime earliestTime = query.getEarliestTime().minusHours(1);
-        while (keys.size() < query.getCount() && queryTime.isAfter(earliestTime)) {
+        while (queryTime.isAfter(earliestTime)) {
             TimeUtil.Unit unit = TimeUtil.Unit.HOURS;
             Duration duration = new Duration(queryTime, endTime);
             if (duration.getStandardDays() >= 2) {
@@ -49,14 +79,78 @@ class S3Util {
             if (duration.getStandardDays() >= 31) {
                 unit = TimeUtil.Unit.MONTHS;
             }
-            SortedSet<ContentKey> contentKeys = dao.queryByTime(query.convert(queryTime, unit));
-            contentKeys.addAll(keys);
-            keys = ContentKeyUtil.filter(contentKeys, query);
+            windows.add(query.convert(queryTime, unit));
             queryTime = queryTime.minus(unit.getDuration());
         }
+        return windows;
+    }
 
-        ActiveTraces.getLocal().add("queryPrevious returning", keys);
-        return keys;
+    /**
+     * Runs the calls on a bounded pool, and gives the results to the consumer in the order of the calls,
+     * until the consumer returns false.  The number of calls in flight starts at initial, and doubles up to
+     * s3.listThreads while the consumer wants more, so a query which is met early does not pay for the rest.
+     * Calls made from the pool run in order on the calling thread, so nested queries can not starve the pool.
+     */
+    static <T> void inOrder(List<Callable<T>> calls, int initial, Predicate<T> consumer) {
+        if (inListPool.get()) {
+            for (Callable<T> call : calls) {
+                if (!consumer.test(call(call))) {
+                    return;
+                }
+            }
+            return;
+        }
+        Traces traces = ActiveTraces.getLocal();
+        Deque<Future<T>> futures = new ArrayDeque<>();
+        int next = 0;
+        int parallel = Math.max(1, Math.min(initial, listThreads));
+        try {
+            while (next < calls.size() || !futures.isEmpty()) {
+                while (futures.size() < parallel && next < calls.size()) {
+                    Callable<T> call = calls.get(next++);
+                    futures.add(listPool.submit(() -> {
+                        inListPool.set(true);
+                        ActiveTraces.setLocal(traces);
+                        try {
+                            return call.call();
+                        } finally {
+                            ActiveTraces.setLocal(null);
+                            inListPool.set(false);
+                        }
+                    }));
+                }
+                if (!consumer.test(get(futures.removeFirst()))) {
+                    return;
+                }
+                parallel = Math.min(parallel * 2, listThreads);
+            }
+        } finally {
+            futures.forEach(future -> future.cancel(false));
+        }
+    }
+
+    private static <T> T call(Callable<T> call) {
+        try {
+            return call.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
     }
 
     public static void delete(String channelPath, ContentKey limitKey, String s3BucketName, AmazonS3 s3Client) {
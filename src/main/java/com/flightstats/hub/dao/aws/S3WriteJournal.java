@@ -0,0 +1,352 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ChannelContentKey;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * S3WriteJournal records the keys waiting for S3 in segment files, so they survive a restart.
+ * A segment takes appends until it is full or segmentMillis pass, and is deleted once every key in it has been acknowledged.
+ * Appends are group committed, so concurrent callers share one force of the segment.
+ * Acknowledged lines are recorded in batches by checkpoint, so a restart only repeats the keys acknowledged since then.
+ * Keys which do not fit in memory are marked as spilled, and read back from their segment when there is room.
+ */
+class S3WriteJournal {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3WriteJournal.class);
+    private static final String SUFFIX = ".journal";
+    private static final String ACKS = ".acks";
+
+    private final File directory;
+    private final int segmentEntries;
+    private final long segmentMillis;
+    private final SortedMap<Long, Segment> segments = new TreeMap<>();
+    private final Object syncLock = new Object();
+    private Segment current;
+    private long nextId;
+    private int spilled;
+    private long written;
+    private long synced;
+
+    S3WriteJournal(File directory, int segmentEntries, long segmentMillis) throws IOException {
+        this.directory = directory;
+        this.segmentEntries = segmentEntries;
+        this.segmentMillis = segmentMillis;
+        Files.createDirectories(directory.toPath());
+    }
+
+    /**
+     * @return the keys left in the journal by the last run, which are still outstanding.
+     */
+    synchronized List<Entry> recover() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return entries;
+        }
+        for (File file : files) {
+            long id = Long.parseLong(StringUtils.removeEnd(file.getName(), SUFFIX));
+            Segment segment = new Segment(id, file);
+            segment.closed = true;
+            segments.put(id, segment);
+            nextId = Math.max(nextId, id + 1);
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            BitSet acked = readAcks(segment);
+            for (String line : Files.readAllLines(segment.file.toPath(), StandardCharsets.UTF_8)) {
+                int index = segment.lines++;
+                if (acked.get(index)) {
+                    continue;
+                }
+                ChannelContentKey key = parse(line);
+                if (key != null) {
+                    segment.outstanding++;
+                    entries.add(new Entry(key, segment, index));
+                }
+            }
+            deleteIfDone(segment);
+        }
+        logger.info("recovered {} keys from {} segments", entries.size(), segments.size());
+        return entries;
+    }
+
+    /**
+     * @return once the key is forced to disk.
+     */
+    Entry append(ChannelContentKey key) throws IOException {
+        Entry entry;
+        long sequence;
+        synchronized (this) {
+            if (current == null || current.lines >= segmentEntries || isExpired(current)) {
+                rotate();
+            }
+            current.writer.write(key.toUrl());
+            current.writer.write('\n');
+            current.outstanding++;
+            entry = new Entry(key, current, current.lines++);
+            sequence = ++written;
+        }
+        sync(sequence);
+        return entry;
+    }
+
+    /**
+     * One caller flushes and forces the current segment for every append made so far, while the others wait,
+     * and return without forcing again if it covered their append.  Segments are also forced as they close.
+     */
+    private void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= sequence) {
+                return;
+            }
+            long target;
+            FileChannel channel = null;
+            synchronized (this) {
+                target = written;
+                if (current != null) {
+                    current.writer.flush();
+                    channel = current.output.getChannel();
+                }
+            }
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                } catch (ClosedChannelException e) {
+                    logger.trace("segment was forced as it closed");
+                }
+            }
+            synced = target;
+        }
+    }
+
+    /**
+     * Acknowledged lines are written by checkpoint.
+     */
+    synchronized void ack(Entry entry) {
+        Segment segment = entry.segment;
+        segment.outstanding--;
+        segment.acks.set(entry.line);
+        deleteIfDone(segment);
+    }
+
+    /**
+     * Record the acknowledged lines, and close the current segment once segmentMillis have passed.
+     * The ack files are not forced, as lost acks only repeat writes to S3.
+     */
+    synchronized void checkpoint() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            writeAcks(segment);
+        }
+        if (current != null && isExpired(current)) {
+            Segment previous = current;
+            closeCurrent();
+            deleteIfDone(previous);
+        }
+    }
+
+    synchronized void spill(Entry entry) {
+        entry.segment.spilled.set(entry.line);
+        spilled++;
+    }
+
+    synchronized int getSpilled() {
+        return spilled;
+    }
+
+    /**
+     * @return up to max spilled entries, oldest first.
+     */
+    synchronized List<Entry> unspill(int max) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (spilled == 0) {
+            return entries;
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (entries.size() >= max) {
+                break;
+            }
+            if (segment.spilled.isEmpty()) {
+                continue;
+            }
+            List<String> lines = Files.readAllLines(segment.file.toPath(), StandardCharsets.UTF_8);
+            BitSet bits = segment.spilled;
+            for (int i = bits.nextSetBit(0); i >= 0 && entries.size() < max; i = bits.nextSetBit(i + 1)) {
+                bits.clear(i);
+                spilled--;
+                ChannelContentKey key = i < lines.size() ? parse(lines.get(i)) : null;
+                if (key == null) {
+                    segment.outstanding--;
+                    segment.acks.set(i);
+                } else {
+                    entries.add(new Entry(key, segment, i));
+                }
+            }
+            deleteIfDone(segment);
+        }
+        return entries;
+    }
+
+    synchronized void close() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            writeAcks(segment);
+        }
+        if (current != null) {
+            Segment previous = current;
+            closeCurrent();
+            deleteIfDone(previous);
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (current != null) {
+            Segment previous = current;
+            closeCurrent();
+            deleteIfDone(previous);
+        }
+        long id = nextId++;
+        current = new Segment(id, new File(directory, id + SUFFIX));
+        current.output = new FileOutputStream(current.file);
+        current.writer = new BufferedWriter(new OutputStreamWriter(current.output, StandardCharsets.UTF_8));
+        segments.put(id, current);
+    }
+
+    private boolean isExpired(Segment segment) {
+        return System.currentTimeMillis() - segment.created >= segmentMillis;
+    }
+
+    private void closeCurrent() {
+        closeWriter(current);
+        current.closed = true;
+        current = null;
+    }
+
+    private void closeWriter(Segment segment) {
+        try {
+            segment.writer.flush();
+            segment.output.getChannel().force(false);
+        } catch (IOException e) {
+            logger.warn("unable to force " + segment.file, e);
+        }
+        try {
+            segment.writer.close();
+        } catch (IOException e) {
+            logger.warn("unable to close " + segment.file, e);
+        }
+    }
+
+    private void deleteIfDone(Segment segment) {
+        if (segment.closed && segment.outstanding <= 0) {
+            segments.remove(segment.id);
+            if (!segment.file.delete()) {
+                logger.warn("unable to delete {}", segment.file);
+            }
+            File acks = ackFile(segment);
+            if (acks.exists() && !acks.delete()) {
+                logger.warn("unable to delete {}", acks);
+            }
+        }
+    }
+
+    private void writeAcks(Segment segment) {
+        if (segment.acks.isEmpty()) {
+            return;
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(ackFile(segment), true), StandardCharsets.UTF_8))) {
+            BitSet acks = segment.acks;
+            for (int i = acks.nextSetBit(0); i >= 0; i = acks.nextSetBit(i + 1)) {
+                writer.write(Integer.toString(i));
+                writer.write('\n');
+            }
+            acks.clear();
+        } catch (IOException e) {
+            logger.warn("unable to record acks for " + segment.file, e);
+        }
+    }
+
+    private BitSet readAcks(Segment segment) throws IOException {
+        BitSet acked = new BitSet();
+        File file = ackFile(segment);
+        if (!file.exists()) {
+            return acked;
+        }
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            try {
+                acked.set(Integer.parseInt(line));
+            } catch (NumberFormatException e) {
+                logger.warn("unable to parse ack line {} in {}", line, file);
+            }
+        }
+        return acked;
+    }
+
+    private File ackFile(Segment segment) {
+        return new File(directory, segment.id + ACKS);
+    }
+
+    private ChannelContentKey parse(String line) {
+        try {
+            return ChannelContentKey.fromUrl(line);
+        } catch (Exception e) {
+            logger.warn("unable to parse journal line {}", line);
+            return null;
+        }
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    static class Entry {
+        private final ChannelContentKey key;
+        private final Segment segment;
+        private final int line;
+
+        private Entry(ChannelContentKey key, Segment segment, int line) {
+            this.key = key;
+            this.segment = segment;
+            this.line = line;
+        }
+
+        /**
+         * An entry for a key which could not be journaled, and is only held in memory.
+         */
+        static Entry inMemory(ChannelContentKey key) {
+            return new Entry(key, null, 0);
+        }
+
+        ChannelContentKey getKey() {
+            return key;
+        }
+
+        boolean isJournaled() {
+            return segment != null;
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final File file;
+        private final BitSet spilled = new BitSet();
+        private final BitSet acks = new BitSet();
+        private final long created = System.currentTimeMillis();
+        private FileOutputStream output;
+        private Writer writer;
+        private int lines;
+        private int outstanding;
+        private boolean closed;
+
+        Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.flightstats.hub.dao.aws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * S3WriteLimit sets how many S3 writes run at once from their latency.
+ * While the average stays near the lowest latency seen recently, the limit grows by one for every limit writes.
+ * When the average climbs past twice the lowest, S3 is treated as congested, and the limit drops by a tenth.
+ */
+class S3WriteLimit {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3WriteLimit.class);
+    private static final long LOWEST_WINDOW_MILLIS = 10 * 60 * 1000;
+    private static final long TOLERANCE_MILLIS = 20;
+
+    private final int min;
+    private final int max;
+    private double limit;
+    private int active;
+    private double average = -1;
+    private long lowest = Long.MAX_VALUE;
+    private long lowestStart;
+    private long lastDecrease;
+
+    S3WriteLimit(int min, int initial, int max) {
+        this.min = min;
+        this.max = max;
+        this.limit = Math.max(min, Math.min(initial, max));
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (active >= (int) limit) {
+            wait();
+        }
+        active++;
+    }
+
+    synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    synchronized void update(long millis, long now) {
+        if (now - lowestStart > LOWEST_WINDOW_MILLIS) {
+            lowest = millis;
+            lowestStart = now;
+        } else {
+            lowest = Math.min(lowest, millis);
+        }
+        average = average < 0 ? millis : average * 0.9 + millis * 0.1;
+        int previous = (int) limit;
+        if (average > 2 * lowest + TOLERANCE_MILLIS) {
+            if (now - lastDecrease > average) {
+                limit = Math.max(min, limit * 0.9);
+                lastDecrease = now;
+            }
+        } else {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+        if ((int) limit != previous) {
+            logger.debug("limit {} average {} lowest {}", (int) limit, (long) average, lowest);
+            notifyAll();
+        }
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+}
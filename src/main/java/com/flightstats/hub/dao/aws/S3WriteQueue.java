@@ -19,8 +19,18 @@ import com.google.inject.name.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 
+/**
+ * S3WriteQueue copies items from spoke to S3.
+ * Keys are recorded in an S3WriteJournal before they are queued, so a restart picks up where the last run stopped,
+ * and keys beyond s3.writeQueueSize wait on disk instead of being dropped.
+ * A key which is already waiting is not queued again, and S3WriteLimit sets the number of active writers.
+ */
 @SuppressWarnings("WeakerAccess")
 @Singleton
 public class S3WriteQueue {
@@ -28,10 +38,18 @@ public class S3WriteQueue {
     private final static Logger logger = LoggerFactory.getLogger(S3WriteQueue.class);
 
     private static final int THREADS = HubProperties.getProperty("s3.writeQueueThreads", 20);
+    private static final int MIN_THREADS = HubProperties.getProperty("s3.writeQueueMinThreads", 2);
+    private static final int MAX_THREADS = HubProperties.getProperty("s3.writeQueueMaxThreads", THREADS * 2);
+    private static final int QUEUE_SIZE = HubProperties.getProperty("s3.writeQueueSize", 40000);
     private Retryer<Void> retryer = buildRetryer();
-    private BlockingQueue<ChannelContentKey> keys = new LinkedBlockingQueue<>(HubProperties.getProperty("s3.writeQueueSize", 40000));
-    private ExecutorService executorService = Executors.newFixedThreadPool(THREADS,
+    private BlockingQueue<S3WriteJournal.Entry> keys = new LinkedBlockingQueue<>(QUEUE_SIZE);
+    private final Set<ChannelContentKey> pending = ConcurrentHashMap.newKeySet();
+    private final S3WriteLimit limit = new S3WriteLimit(MIN_THREADS, THREADS, MAX_THREADS);
+    private S3WriteJournal journal;
+    private ExecutorService executorService = Executors.newFixedThreadPool(MAX_THREADS,
             new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-%d").build());
+    private ScheduledExecutorService unspillService = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-unspill").build());
     @Inject
     @Named(ContentDao.CACHE)
     private ContentDao spokeContentDao;
@@ -42,7 +60,19 @@ public class S3WriteQueue {
 
     @Inject
     private S3WriteQueue() throws InterruptedException {
-        for (int i = 0; i < THREADS; i++) {
+        String path = HubProperties.getProperty("s3.writeQueuePath", HubProperties.getSpokePath() + "_s3WriteQueue");
+        try {
+            journal = new S3WriteJournal(new File(path), HubProperties.getProperty("s3.writeQueueSegmentKeys", 1000),
+                    TimeUnit.SECONDS.toMillis(HubProperties.getProperty("s3.writeQueueSegmentSeconds", 60)));
+            for (S3WriteJournal.Entry entry : journal.recover()) {
+                pending.add(entry.getKey());
+                enqueue(entry);
+            }
+        } catch (IOException e) {
+            logger.warn("unable to use journal " + path + ", queued keys will not survive a restart", e);
+            journal = null;
+        }
+        for (int i = 0; i < MAX_THREADS; i++) {
             executorService.submit(() -> {
                 try {
                     while (true) {
@@ -54,41 +84,105 @@ public class S3WriteQueue {
                 }
             });
         }
+        unspillService.scheduleWithFixedDelay(this::unspill, 5, 5, TimeUnit.SECONDS);
+        if (journal != null) {
+            int checkpointMillis = HubProperties.getProperty("s3.writeQueueCheckpointMillis", 1000);
+            unspillService.scheduleWithFixedDelay(this::checkpoint, checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+        }
     }
 
     private void write() throws InterruptedException {
+        limit.acquire();
         try {
-            ChannelContentKey key = keys.poll(5, TimeUnit.SECONDS);
-            retryer.call(() -> {
-                writeContent(key);
-                return null;
-            });
-        } catch (Exception e) {
-            logger.warn("unable to call s3", e);
+            S3WriteJournal.Entry entry = keys.poll(5, TimeUnit.SECONDS);
+            if (entry == null) {
+                return;
+            }
+            try {
+                retryer.call(() -> {
+                    writeContent(entry.getKey());
+                    return null;
+                });
+            } catch (Exception e) {
+                logger.warn("unable to call s3", e);
+            } finally {
+                pending.remove(entry.getKey());
+                if (entry.isJournaled()) {
+                    journal.ack(entry);
+                }
+            }
+        } finally {
+            limit.release();
         }
     }
 
     private void writeContent(ChannelContentKey key) throws Exception {
-        if (key != null) {
-            ActiveTraces.start("S3WriteQueue.writeContent", key);
-            try {
-                logger.trace("writing {}", key.getContentKey());
-                Content content = spokeContentDao.get(key.getChannel(), key.getContentKey());
-                content.packageStream();
-                if (content.getData() == null) {
-                    throw new FailedReadException("unable to read " + key.toString());
-                }
-                s3SingleContentDao.insert(key.getChannel(), content);
-            } finally {
-                ActiveTraces.end();
+        ActiveTraces.start("S3WriteQueue.writeContent", key);
+        try {
+            logger.trace("writing {}", key.getContentKey());
+            Content content = spokeContentDao.get(key.getChannel(), key.getContentKey());
+            content.packageStream();
+            if (content.getData() == null) {
+                throw new FailedReadException("unable to read " + key.toString());
             }
+            long start = System.currentTimeMillis();
+            s3SingleContentDao.insert(key.getChannel(), content);
+            limit.update(System.currentTimeMillis() - start, System.currentTimeMillis());
+        } finally {
+            ActiveTraces.end();
         }
     }
 
     public void add(ChannelContentKey key) {
-        boolean value = keys.offer(key);
-        if (!value) {
-            logger.warn("Add to queue failed - out of queue space. key= {}", key);
+        if (!pending.add(key)) {
+            logger.trace("already queued {}", key);
+            return;
+        }
+        S3WriteJournal.Entry entry = S3WriteJournal.Entry.inMemory(key);
+        if (journal != null) {
+            try {
+                entry = journal.append(key);
+            } catch (IOException e) {
+                logger.warn("unable to journal " + key, e);
+            }
+        }
+        enqueue(entry);
+    }
+
+    private void enqueue(S3WriteJournal.Entry entry) {
+        if (keys.offer(entry)) {
+            return;
+        }
+        if (entry.isJournaled()) {
+            journal.spill(entry);
+        } else {
+            pending.remove(entry.getKey());
+            logger.warn("Add to queue failed - out of queue space. key= {}", entry.getKey());
+        }
+    }
+
+    /**
+     * Move spilled keys from the journal back into memory once there is room.
+     */
+    private void unspill() {
+        try {
+            int room = keys.remainingCapacity();
+            if (journal == null || journal.getSpilled() == 0 || room < QUEUE_SIZE / 2) {
+                return;
+            }
+            List<S3WriteJournal.Entry> entries = journal.unspill(room);
+            logger.info("unspilled {} keys, {} still on disk", entries.size(), journal.getSpilled());
+            entries.forEach(this::enqueue);
+        } catch (Exception e) {
+            logger.warn("unable to unspill", e);
+        }
+    }
+
+    private void checkpoint() {
+        try {
+            journal.checkpoint();
+        } catch (Exception e) {
+            logger.warn("unable to checkpoint", e);
         }
     }
 
@@ -99,11 +193,15 @@ public class S3WriteQueue {
             logger.info("waiting for keys {}", keys.size());
             if (count >= 60) {
                 logger.warn("waited too long for keys {}", keys.size());
-                return;
+                break;
             }
             Sleeper.sleepQuietly(1000);
         }
+        unspillService.shutdown();
         executorService.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
     }
 
     private Retryer<Void> buildRetryer() {
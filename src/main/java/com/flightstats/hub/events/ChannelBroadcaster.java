@@ -0,0 +1,367 @@
+package com.flightstats.hub.events;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.Request;
+import com.flightstats.hub.exception.NoSuchChannelException;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ChannelBroadcaster reads the new items in a channel once, and fans them out to every local listener.
+ * Each listener has a buffer of broadcast.bufferSize items, a listener which falls that far behind is closed,
+ * and is expected to reconnect from the last item it received.
+ * Listeners which start before the channel's read position catch up with their own queries.
+ * Listeners write to their sockets on a shared pool, so a send which takes longer than broadcast.sendTimeoutMillis
+ * is interrupted and the listener is closed, rather than letting stalled clients hold the pool.
+ */
+@Singleton
+public class ChannelBroadcaster {
+
+    private final static Logger logger = LoggerFactory.getLogger(ChannelBroadcaster.class);
+    private static final int queryCount = 1000;
+    private static final int sendBatch = 100;
+
+    private final ChannelService channelService;
+    private final int bufferSize;
+    private final long periodMillis;
+    private final long sendTimeoutMillis;
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService readExecutor;
+    private final ExecutorService sendExecutor;
+
+    @Inject
+    public ChannelBroadcaster(ChannelService channelService) {
+        this(channelService, HubProperties.getProperty("broadcast.bufferSize", 1000),
+                HubProperties.getProperty("broadcast.periodMillis", 1000),
+                HubProperties.getProperty("broadcast.sendTimeoutMillis", 10 * 1000));
+    }
+
+    ChannelBroadcaster(ChannelService channelService, int bufferSize, long periodMillis, long sendTimeoutMillis) {
+        this.channelService = channelService;
+        this.bufferSize = bufferSize;
+        this.periodMillis = periodMillis;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+        readExecutor = Executors.newScheduledThreadPool(HubProperties.getProperty("broadcast.readThreads", 5),
+                new ThreadFactoryBuilder().setNameFormat("broadcast-read-%d").setDaemon(true).build());
+        sendExecutor = Executors.newFixedThreadPool(HubProperties.getProperty("broadcast.sendThreads", 20),
+                new ThreadFactoryBuilder().setNameFormat("broadcast-send-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @param startingKey the listener receives the items after this key.
+     */
+    public Subscription subscribe(String channel, ContentKey startingKey, String name, Listener listener) {
+        Subscription subscription = new Subscription(channel.toLowerCase(), startingKey, name, listener);
+        streams.compute(subscription.channel, (key, stream) -> {
+            if (stream == null) {
+                stream = new Stream(channel);
+            }
+            stream.subscriptions.add(subscription);
+            return stream;
+        });
+        logger.info("subscribed {} to {} at {}", name, channel, startingKey);
+        return subscription;
+    }
+
+    private void remove(Subscription subscription) {
+        streams.computeIfPresent(subscription.channel, (key, stream) -> {
+            stream.subscriptions.remove(subscription);
+            if (stream.subscriptions.isEmpty()) {
+                stream.future.cancel(false);
+                return null;
+            }
+            return stream;
+        });
+    }
+
+    /**
+     * The Listener methods are called from one thread at a time.
+     * send and heartbeat may block for up to broadcast.sendTimeoutMillis, after which the thread is interrupted.
+     */
+    public interface Listener {
+
+        /**
+         * @return false when send only needs the key, and the content is not read.
+         */
+        boolean needsContent();
+
+        void send(ContentKey key, Content content) throws Exception;
+
+        /**
+         * Called when the listener has nothing to send for a period.
+         */
+        default void heartbeat() throws Exception {
+            //do nothing
+        }
+
+        /**
+         * Called once, when the subscription is closed for any reason.
+         */
+        void close();
+    }
+
+    private static class Item {
+        private final ContentKey key;
+        private final Content content;
+
+        private Item(ContentKey key, Content content) {
+            this.key = key;
+            this.content = content;
+        }
+    }
+
+    private static final Item HEARTBEAT = new Item(null, null);
+
+    /**
+     * The reads for one channel, run every broadcast.periodMillis.
+     */
+    private class Stream implements Runnable {
+
+        private final String channel;
+        private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+        private final ScheduledFuture<?> future;
+        private ContentKey cursor;
+
+        private Stream(String channel) {
+            this.channel = channel;
+            future = readExecutor.scheduleWithFixedDelay(this, 0, periodMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            ActiveTraces.start("ChannelBroadcaster", channel);
+            try {
+                if (cursor == null) {
+                    DateTime stable = channelService.getLastUpdated(channel, new ContentKey(TimeUtil.stable())).getTime();
+                    cursor = ContentKey.lastKey(stable.minusMillis(1));
+                }
+                for (Subscription subscription : subscriptions) {
+                    if (!subscription.isLive(cursor)) {
+                        catchUp(subscription);
+                    }
+                }
+                readNew();
+                long now = System.currentTimeMillis();
+                for (Subscription subscription : subscriptions) {
+                    subscription.checkTimeout(now);
+                    subscription.heartbeat();
+                }
+            } catch (NoSuchChannelException e) {
+                logger.info("closing listeners for missing channel {}", channel);
+                subscriptions.forEach(Subscription::close);
+            } catch (Exception e) {
+                logger.warn("unexpected issue reading " + channel, e);
+            } finally {
+                ActiveTraces.end();
+            }
+        }
+
+        private void readNew() {
+            while (true) {
+                SortedSet<ContentKey> keys = query(cursor, queryCount);
+                if (keys.isEmpty()) {
+                    return;
+                }
+                boolean needsContent = subscriptions.stream().anyMatch(subscription -> subscription.listener.needsContent());
+                for (ContentKey key : keys) {
+                    Item item = read(key, needsContent);
+                    for (Subscription subscription : subscriptions) {
+                        if (subscription.isLive(cursor) && subscription.position.compareTo(key) < 0) {
+                            subscription.offer(item);
+                        }
+                    }
+                    cursor = key;
+                }
+                if (keys.size() < queryCount) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Reads one page of the items before the cursor, limited by the space in the buffer.
+         */
+        private void catchUp(Subscription subscription) {
+            int count = Math.min(queryCount, subscription.buffer.remainingCapacity());
+            if (count == 0) {
+                return;
+            }
+            SortedSet<ContentKey> keys = query(subscription.position, count);
+            for (ContentKey key : keys) {
+                if (key.compareTo(cursor) > 0) {
+                    break;
+                }
+                subscription.offer(read(key, subscription.listener.needsContent()));
+            }
+            if (keys.size() < count || keys.last().compareTo(cursor) >= 0) {
+                logger.debug("{} caught up with {}", subscription.name, channel);
+                subscription.position = cursor;
+            }
+        }
+
+        private SortedSet<ContentKey> query(ContentKey startKey, int count) {
+            DirectionQuery query = DirectionQuery.builder()
+                    .channelName(channel)
+                    .startKey(startKey)
+                    .next(true)
+                    .count(count)
+                    .stable(true)
+                    .epoch(Epoch.IMMUTABLE)
+                    .build();
+            return channelService.query(query);
+        }
+
+        private Item read(ContentKey key, boolean needsContent) {
+            if (!needsContent) {
+                return new Item(key, null);
+            }
+            Request request = Request.builder()
+                    .channel(channel)
+                    .key(key)
+                    .build();
+            Optional<Content> optional = channelService.get(request);
+            if (optional.isPresent()) {
+                Content content = optional.get();
+                content.getData();
+                return new Item(key, content);
+            }
+            logger.info("unable to read {} {}", channel, key);
+            return new Item(key, null);
+        }
+    }
+
+    /**
+     * One listener's place in a channel.
+     */
+    public class Subscription {
+
+        private final String channel;
+        private final String name;
+        private final Listener listener;
+        private final BlockingQueue<Item> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private volatile ContentKey position;
+        private boolean active;
+        private volatile long sendStarted;
+        private Thread sender;
+
+        private Subscription(String channel, ContentKey position, String name, Listener listener) {
+            this.channel = channel;
+            this.position = position;
+            this.name = name;
+            this.listener = listener;
+        }
+
+        /**
+         * Listeners behind the cursor are still catching up, and do not receive new items yet.
+         */
+        private boolean isLive(ContentKey cursor) {
+            return position.compareTo(cursor) >= 0;
+        }
+
+        private void offer(Item item) {
+            if (closed.get()) {
+                return;
+            }
+            if (buffer.offer(item)) {
+                position = item.key;
+                active = true;
+                send();
+            } else {
+                logger.info("closing slow listener {} at {}", name, position);
+                close();
+            }
+        }
+
+        private void heartbeat() {
+            if (!active && buffer.isEmpty() && !closed.get()) {
+                buffer.offer(HEARTBEAT);
+                send();
+            }
+            active = false;
+        }
+
+        private void send() {
+            if (!buffer.isEmpty() && sending.compareAndSet(false, true)) {
+                sendExecutor.submit(this::sendBatch);
+            }
+        }
+
+        /**
+         * Sends up to sendBatch items, then lets the other listeners have the thread.
+         */
+        private void sendBatch() {
+            synchronized (this) {
+                sender = Thread.currentThread();
+            }
+            try {
+                for (int i = 0; i < sendBatch && !closed.get(); i++) {
+                    Item item = buffer.poll();
+                    if (item == null) {
+                        break;
+                    }
+                    sendStarted = System.currentTimeMillis();
+                    if (item == HEARTBEAT) {
+                        listener.heartbeat();
+                    } else if (!listener.needsContent()) {
+                        listener.send(item.key, null);
+                    } else if (item.content != null) {
+                        listener.send(item.key, item.content);
+                    }
+                    sendStarted = 0;
+                }
+            } catch (Exception e) {
+                logger.info("unable to send to {}, closing {}", name, e.getMessage());
+                close();
+            } finally {
+                synchronized (this) {
+                    sendStarted = 0;
+                    sender = null;
+                }
+                //clear an interrupt from checkTimeout, so it does not affect the next task on this thread
+                Thread.interrupted();
+                sending.set(false);
+            }
+            if (!closed.get()) {
+                send();
+            }
+        }
+
+        /**
+         * Interrupts a send which has taken longer than sendTimeoutMillis, and closes the listener.
+         * The close runs on the send pool, as closing the listener can wait for the stalled write.
+         */
+        private synchronized void checkTimeout(long now) {
+            long started = sendStarted;
+            if (sender != null && started > 0 && now - started > sendTimeoutMillis) {
+                logger.info("closing stalled listener {}, send started {} ms ago", name, now - started);
+                sendStarted = 0;
+                sender.interrupt();
+                sendExecutor.submit(this::close);
+            }
+        }
+
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                logger.info("unsubscribing {}", name);
+                remove(this);
+                buffer.clear();
+                listener.close();
+            }
+        }
+    }
+}
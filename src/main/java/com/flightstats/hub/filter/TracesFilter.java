@@ -52,5 +52,8 @@ public class TracesFilter implements ContainerRequestFilter, ContainerResponseFi
         Thread thread = Thread.currentThread();
         thread.setName(thread.getName() + "|" + request.getMethod() + "|" + requestUri);
         ActiveTraces.start(requestUri, request.getMethod(), ipAddress);
+        if (Boolean.valueOf(request.getUriInfo().getQueryParameters().getFirst("trace"))) {
+            ActiveTraces.captureAll();
+        }
     }
 }
@@ -8,43 +8,73 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.Queue;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Each thread registers a Slot the first time it uses ActiveTraces,
+ * so starting and ending a request only writes to the thread's own Slot.
+ * A request which ends on another thread clears the Slot of the thread which started it.
+ * traces.samplePercent of requests keep every trace, the others only keep traces after traces.captureMillis.
+ */
 public class ActiveTraces {
 
     private final static Logger logger = LoggerFactory.getLogger(ActiveTraces.class);
 
-    private static final Map<String, Traces> activeTraces = new ConcurrentHashMap<>();
+    private static final Queue<Slot> slots = new ConcurrentLinkedQueue<>();
     private static final ObjectRing<Traces> recent = new ObjectRing<>(100);
     private static final TopSortedSet<Traces> slowest = new TopSortedSet<>(100, Traces::getTime, new DescendingTracesComparator());
-    private static final ThreadLocal<Traces> threadLocal = new ThreadLocal<>();
+    private static final ThreadLocal<Slot> threadLocal = ThreadLocal.withInitial(ActiveTraces::register);
     private static long logSlowTraces = HubProperties.getProperty("logSlowTracesSeconds", 10) * 1000;
+    private static final int samplePercent = HubProperties.getProperty("traces.samplePercent", 10);
+    private static final long captureMillis = HubProperties.getProperty("traces.captureMillis", 1000);
 
     public static void start(Object... objects) {
-        start(new Traces(objects));
+        Traces traces = new Traces(objects);
+        traces.setSampled(ThreadLocalRandom.current().nextInt(100) < samplePercent, captureMillis);
+        start(traces);
     }
 
     private static void start(Traces traces) {
-        activeTraces.put(traces.getId(), traces);
-        setLocal(traces);
+        Slot slot = threadLocal.get();
+        slot.active.set(traces);
+        slot.local = traces;
+        traces.setSlot(slot);
         logger.trace("setting {}", traces);
     }
 
+    /**
+     * Keeps every trace of the current request, whether or not it was sampled.
+     */
+    public static void captureAll() {
+        Traces traces = threadLocal.get().local;
+        if (traces != null) {
+            traces.setSampled(true, 0);
+        }
+    }
+
     public static boolean end() {
         return end(false, 0);
     }
 
     public static boolean end(boolean trace, int status) {
-        Traces traces = threadLocal.get();
+        Slot slot = threadLocal.get();
+        Traces traces = slot.local;
         if (null == traces) {
             logger.trace("no Traces found");
             return false;
         } else {
-            logger.trace("removing {}", traces.getId());
-            activeTraces.remove(traces.getId());
-            threadLocal.remove();
+            logger.trace("removing {}", traces);
+            slot.local = null;
+            Slot origin = traces.getSlot();
+            if (origin != null) {
+                origin.active.compareAndSet(traces, null);
+                traces.setSlot(null);
+            }
             traces.end(status);
             traces.log(logSlowTraces, trace, logger);
             recent.put(traces);
@@ -54,11 +84,11 @@ public class ActiveTraces {
     }
 
     public static void setLocal(Traces traces) {
-        threadLocal.set(traces);
+        threadLocal.get().local = traces;
     }
 
     public static Traces getLocal() {
-        Traces traces = threadLocal.get();
+        Traces traces = threadLocal.get().local;
         if (traces == null) {
             traces = new Traces("error: missing initial context");
             StackTraceElement[] elements = new Exception().getStackTrace();
@@ -71,8 +101,13 @@ public class ActiveTraces {
     }
 
     public static void log(ObjectNode root) {
-        TreeSet<Traces> orderedActive = new TreeSet<>((t1, t2) -> (int) (t1.getStart() - t2.getStart()));
-        orderedActive.addAll(activeTraces.values());
+        TreeSet<Traces> orderedActive = new TreeSet<>(Comparator.comparingLong(Traces::getStart).thenComparing(Traces::getId));
+        for (Slot slot : slots) {
+            Traces traces = slot.active.get();
+            if (traces != null) {
+                orderedActive.add(traces);
+            }
+        }
         ArrayNode active = root.putArray("active");
         for (Traces trace : orderedActive) {
             trace.output(active.addObject());
@@ -89,4 +124,20 @@ public class ActiveTraces {
             trace.output(recent.addObject());
         }
     }
+
+    private static Slot register() {
+        slots.removeIf(slot -> !slot.thread.isAlive());
+        Slot slot = new Slot();
+        slots.add(slot);
+        return slot;
+    }
+
+    /**
+     * active is the request started by the thread, local is the Traces the thread is adding to.
+     */
+    static class Slot {
+        private final Thread thread = Thread.currentThread();
+        private final AtomicReference<Traces> active = new AtomicReference<>();
+        private Traces local;
+    }
 }
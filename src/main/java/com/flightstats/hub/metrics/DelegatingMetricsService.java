@@ -66,6 +66,9 @@ public class DelegatingMetricsService implements MetricsService {
         @Override
         protected void startUp() throws Exception {
             List<MetricsService> newServices = new ArrayList<>();
+            if (HubProperties.getProperty("metrics.histograms.enable", true)) {
+                newServices.add(HubProvider.getInstance(HistogramMetricsService.class));
+            }
             if (HubProperties.getProperty("hosted_graphite.enable", false)) {
                 logger.info("starting hosted graphite");
                 newServices.add(HubProvider.getInstance(HostedGraphiteMetricsService.class));
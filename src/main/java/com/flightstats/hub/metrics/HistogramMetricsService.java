@@ -0,0 +1,138 @@
+package com.flightstats.hub.metrics;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProperties;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HistogramMetricsService keeps a LatencyHistogram in memory for each timing,
+ * by name and tags, and separately by name and channel or tag.
+ * Histograms by name and tags are always kept.  At most metrics.histograms.max histograms
+ * by channel or tag are kept, later ones are counted as dropped.
+ */
+@Singleton
+class HistogramMetricsService implements MetricsService {
+
+    private final static Logger logger = LoggerFactory.getLogger(HistogramMetricsService.class);
+
+    private static final int maxHistograms = HubProperties.getProperty("metrics.histograms.max", 1000);
+    private static final int intervalSeconds = HubProperties.getProperty("metrics.histograms.intervalSeconds", 60);
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final AtomicInteger channelHistograms = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    HistogramMetricsService() {
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("HistogramMetrics")
+                .setDaemon(true).build())
+                .scheduleAtFixedRate(this::roll, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void insert(String channel, long start, Insert type, int items, long bytes) {
+        time(channel, "channel", start, "type:" + type);
+    }
+
+    @Override
+    public void event(String title, String text, String... tags) {
+        //do nothing
+    }
+
+    @Override
+    public void count(String name, long value, String... tags) {
+        //do nothing
+    }
+
+    @Override
+    public void gauge(String name, double value, String... tags) {
+        //do nothing
+    }
+
+    @Override
+    public void time(String name, long start, String... tags) {
+        record(name, System.currentTimeMillis() - start, tags);
+    }
+
+    @Override
+    public void time(String channel, String name, long start, String... tags) {
+        if (shouldLog(channel)) {
+            long millis = System.currentTimeMillis() - start;
+            record(name, millis, tags);
+            recordChannel(name + " channel:" + channel, millis);
+        }
+    }
+
+    @Override
+    public void time(String channel, String name, long start, long bytes, String... tags) {
+        time(channel, name, start, tags);
+    }
+
+    @Override
+    public void mute() {
+        //do nothing
+    }
+
+    private void record(String name, long millis, String... tags) {
+        StringBuilder key = new StringBuilder(name);
+        for (String tag : tags) {
+            if (tag.startsWith("channel:") || tag.startsWith("tag:")) {
+                recordChannel(name + " " + tag, millis);
+            } else {
+                key.append(" ").append(tag);
+            }
+        }
+        histograms.computeIfAbsent(key.toString(), k -> new LatencyHistogram()).record(millis);
+    }
+
+    private void recordChannel(String key, long millis) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            if (channelHistograms.get() >= maxHistograms) {
+                dropped.increment();
+                return;
+            }
+            histogram = histograms.computeIfAbsent(key, k -> {
+                channelHistograms.incrementAndGet();
+                return new LatencyHistogram();
+            });
+        }
+        histogram.record(millis);
+    }
+
+    private void roll() {
+        try {
+            histograms.values().forEach(LatencyHistogram::roll);
+        } catch (Exception e) {
+            logger.warn("unable to roll histograms", e);
+        }
+    }
+
+    /**
+     * Outputs the interval and cumulative views of each histogram whose name contains filter.
+     */
+    void output(ObjectNode root, String filter) {
+        root.put("intervalSeconds", intervalSeconds);
+        root.put("dropped", dropped.sum());
+        ObjectNode histogramsNode = root.putObject("histograms");
+        Map<String, LatencyHistogram> sorted = new TreeMap<>(histograms);
+        for (Map.Entry<String, LatencyHistogram> entry : sorted.entrySet()) {
+            if (filter == null || entry.getKey().contains(filter)) {
+                ObjectNode node = histogramsNode.putObject(entry.getKey());
+                entry.getValue().getInterval().output(node.putObject("interval"));
+                entry.getValue().getCumulative().output(node.putObject("cumulative"));
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.flightstats.hub.metrics;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProvider;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+@SuppressWarnings("WeakerAccess")
+@Path("/internal/latency")
+public class InternalLatencyResource {
+
+    public static final String DESCRIPTION = "Shows latency percentiles for requests, spoke, S3 and webhook calls on this hub, " +
+            "for the last interval and since startup.  Use ?name= to filter.";
+    private static final HistogramMetricsService histogramMetricsService = HubProvider.getInstance(HistogramMetricsService.class);
+
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getLatency(@QueryParam("name") String name) {
+        ObjectNode root = InternalTracesResource.serverAndServers("/internal/latency");
+        histogramMetricsService.output(root, name);
+        return Response.ok(root).build();
+    }
+}
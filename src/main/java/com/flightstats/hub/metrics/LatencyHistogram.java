@@ -0,0 +1,130 @@
+package com.flightstats.hub.metrics;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts millisecond latencies in log-linear buckets, in the style of HdrHistogram.
+ * Values below 64 have their own bucket, and each larger power of two is split into 32 buckets,
+ * so a percentile is within about 3% of the recorded latency.
+ * <p>
+ * Recording is an atomic increment.  roll() is called at the end of each interval,
+ * and the interval view is the difference from the previous roll().
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    static final long MAX_VALUE = (1L << 26) - 1;
+    static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private Snapshot mark = new Snapshot(new long[BUCKETS], 0);
+    private volatile Snapshot interval = mark;
+
+    void record(long millis) {
+        long value = Math.min(Math.max(millis, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (int) (shift * SUB_COUNT + (value >>> shift));
+    }
+
+    /**
+     * @return the largest value which is counted in the bucket.
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long subBucket = index % SUB_COUNT + SUB_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    Snapshot getCumulative() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.sum());
+    }
+
+    Snapshot getInterval() {
+        return interval;
+    }
+
+    synchronized void roll() {
+        Snapshot cumulative = getCumulative();
+        long[] difference = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            difference[i] = cumulative.counts[i] - mark.counts[i];
+        }
+        interval = new Snapshot(difference, cumulative.sum - mark.sum);
+        mark = cumulative;
+    }
+
+    static class Snapshot {
+
+        private final long[] counts;
+        private final long sum;
+        private final long count;
+
+        Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+            long total = 0;
+            for (long bucket : counts) {
+                total += bucket;
+            }
+            this.count = total;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the highest value in the bucket which holds the percentile, or zero if nothing was recorded.
+         */
+        long getPercentile(double percentile) {
+            long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        void output(ObjectNode node) {
+            node.put("count", count);
+            node.put("mean", count == 0 ? 0 : (double) sum / count);
+            node.put("p50", getPercentile(50));
+            node.put("p90", getPercentile(90));
+            node.put("p99", getPercentile(99));
+            node.put("p999", getPercentile(99.9));
+            node.put("max", getMax());
+        }
+    }
+}
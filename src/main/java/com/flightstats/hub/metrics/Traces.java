@@ -9,7 +9,11 @@ import com.flightstats.hub.util.ObjectRing;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 
-import java.util.*;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Consumer;
 
 public class Traces {
@@ -17,12 +21,39 @@ public class Traces {
     private static final int LIMIT = HubProperties.getProperty("traces.limit", 50);
     private long start = System.currentTimeMillis();
     private long end;
-    private final String id = UUID.randomUUID().toString();
-    private final List<Trace> traces = Collections.synchronizedList(new ArrayList<>());
-    private final ObjectRing<Trace> lastTraces = new ObjectRing<>(LIMIT);
+    private String id;
+    private final AtomicReferenceArray<Trace> traces = new AtomicReferenceArray<>(LIMIT + 1);
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile ObjectRing<Trace> lastTraces;
+    private volatile boolean sampled = true;
+    private long captureMillis;
+    private volatile ActiveTraces.Slot slot;
 
     public Traces(Object... objects) {
-        add(objects);
+        add(new SingleTrace(objects));
+    }
+
+    /**
+     * An unsampled Traces only keeps the first trace, until it has been running for captureMillis.
+     */
+    void setSampled(boolean sampled, long captureMillis) {
+        this.sampled = sampled;
+        this.captureMillis = captureMillis;
+    }
+
+    boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * The Slot of the thread which started this request, which may be ended by another thread.
+     */
+    ActiveTraces.Slot getSlot() {
+        return slot;
+    }
+
+    void setSlot(ActiveTraces.Slot slot) {
+        this.slot = slot;
     }
 
     public void end(int status) {
@@ -43,15 +74,32 @@ public class Traces {
     }
 
     public void add(Trace trace) {
-        if (traces.size() > LIMIT) {
-            lastTraces.put(trace);
-        } else {
-            traces.add(trace);
+        if (capturing()) {
+            int index = size.getAndIncrement();
+            if (index < traces.length()) {
+                traces.lazySet(index, trace);
+            } else {
+                getLastTraces().put(trace);
+            }
         }
     }
 
     public void add(Object... objects) {
-        add(new SingleTrace(objects));
+        if (capturing()) {
+            add(new SingleTrace(objects));
+        }
+    }
+
+    private boolean capturing() {
+        if (sampled) {
+            return true;
+        }
+        if (System.currentTimeMillis() - start >= captureMillis) {
+            sampled = true;
+            add("not sampled, capturing after " + captureMillis + " millis");
+            return true;
+        }
+        return false;
     }
 
     public void add(String string, SortedSet sortedSet) {
@@ -70,7 +118,13 @@ public class Traces {
         return start;
     }
 
-    public String getId() {
+    /**
+     * The id is created when it is first needed, as UUID.randomUUID() is synchronized.
+     */
+    public synchronized String getId() {
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+        }
         return id;
     }
 
@@ -93,14 +147,14 @@ public class Traces {
             outputTraces((trace) -> builder.append(trace).append("\n\t"));
             return builder.toString();
         } catch (Exception e) {
-            logger.warn("unable to log {} traces {}", traces);
+            logger.warn("unable to log traces {}", getId(), e);
             return "unable to output";
         }
     }
 
     public void output(ObjectNode root) {
         root.put("first", traces.get(0).context());
-        root.put("id", id);
+        root.put("id", getId());
         root.put("start", new DateTime(this.start).toString());
         root.put("millis", getTime());
         ArrayNode traceRoot = root.putArray("trace");
@@ -108,18 +162,37 @@ public class Traces {
     }
 
     void outputTraces(Consumer<String> consumer) {
-        synchronized (traces) {
-            for (Trace trace : traces) {
+        for (int i = 0; i < traces.length(); i++) {
+            Trace trace = traces.get(i);
+            if (trace != null) {
                 consumer.accept(trace.toString());
             }
-            if (lastTraces.getTotalSize() > LIMIT) {
-                consumer.accept("   ...cut " + (lastTraces.getTotalSize() - LIMIT) + " lines...");
-            }
-            List<Trace> lastItems = lastTraces.getItems();
-            for (Trace trace : lastItems) {
-                consumer.accept(trace.toString());
+        }
+        ObjectRing<Trace> lastTraces = this.lastTraces;
+        if (lastTraces == null) {
+            return;
+        }
+        if (lastTraces.getTotalSize() > LIMIT) {
+            consumer.accept("   ...cut " + (lastTraces.getTotalSize() - LIMIT) + " lines...");
+        }
+        List<Trace> lastItems = lastTraces.getItems();
+        for (Trace trace : lastItems) {
+            consumer.accept(trace.toString());
+        }
+    }
+
+    /**
+     * Most requests have fewer than traces.limit traces, so the ring is only created when needed.
+     */
+    private ObjectRing<Trace> getLastTraces() {
+        if (lastTraces == null) {
+            synchronized (this) {
+                if (lastTraces == null) {
+                    lastTraces = new ObjectRing<>(LIMIT);
+                }
             }
         }
+        return lastTraces;
     }
 
 
@@ -3,6 +3,7 @@ package com.flightstats.hub.model;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.ContentCodec;
 import com.flightstats.hub.exception.InvalidRequestException;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.gson.Gson;
@@ -49,10 +50,11 @@ public class ChannelConfig implements Serializable, NamedType {
     boolean protect;
     DateTime mutableTime;
     boolean allowZeroBytes;
+    String codec;
 
     private ChannelConfig(String name, String owner, Date creationDate, long ttlDays, long maxItems, String description,
                           Set<String> tags, String replicationSource, String storage, GlobalConfig global,
-                          boolean protect, DateTime mutableTime, boolean allowZeroBytes) {
+                          boolean protect, DateTime mutableTime, boolean allowZeroBytes, String codec) {
         this.name = StringUtils.trim(name);
         this.owner = StringUtils.trim(owner);
         this.creationDate = creationDate;
@@ -75,6 +77,12 @@ public class ChannelConfig implements Serializable, NamedType {
             this.storage = StringUtils.upperCase(storage);
         }
 
+        if (isBlank(codec)) {
+            this.codec = "";
+        } else {
+            this.codec = StringUtils.upperCase(StringUtils.trim(codec));
+        }
+
         if (global != null) {
             this.global = global.cleanup();
         } else {
@@ -137,6 +145,7 @@ public class ChannelConfig implements Serializable, NamedType {
             builder.mutableTime(HubDateTimeTypeAdapter.deserialize(rootNode.get("mutableTime").asText()));
         }
         if (rootNode.has("allowZeroBytes")) builder.allowZeroBytes(rootNode.get("allowZeroBytes").asBoolean());
+        if (rootNode.has("codec")) builder.codec(getString(rootNode.get("codec")));
         return builder.build();
     }
 
@@ -214,6 +223,17 @@ public class ChannelConfig implements Serializable, NamedType {
         return mutableTime != null;
     }
 
+    public boolean isValidCodec() {
+        return ContentCodec.isValid(codec);
+    }
+
+    /**
+     * @return the codec for new items, which is content.codec when the channel does not set one.
+     */
+    public ContentCodec getContentCodec() {
+        return ContentCodec.parse(codec);
+    }
+
     public String getName() {
         return this.name;
     }
@@ -266,6 +286,10 @@ public class ChannelConfig implements Serializable, NamedType {
         return this.allowZeroBytes;
     }
 
+    public String getCodec() {
+        return this.codec;
+    }
+
     public boolean equals(Object o) {
         if (o == this) return true;
         if (!(o instanceof ChannelConfig)) return false;
@@ -305,6 +329,9 @@ public class ChannelConfig implements Serializable, NamedType {
         if (this$mutableTime == null ? other$mutableTime != null : !this$mutableTime.equals(other$mutableTime))
             return false;
         if (this.isAllowZeroBytes() != other.isAllowZeroBytes()) return false;
+        final Object this$codec = this.getCodec();
+        final Object other$codec = other.getCodec();
+        if (this$codec == null ? other$codec != null : !this$codec.equals(other$codec)) return false;
         return true;
     }
 
@@ -335,11 +362,13 @@ public class ChannelConfig implements Serializable, NamedType {
         final Object $mutableTime = this.getMutableTime();
         result = result * PRIME + ($mutableTime == null ? 43 : $mutableTime.hashCode());
         result = result * PRIME + (this.isAllowZeroBytes() ? 79 : 97);
+        final Object $codec = this.getCodec();
+        result = result * PRIME + ($codec == null ? 43 : $codec.hashCode());
         return result;
     }
 
     public String toString() {
-        return "com.flightstats.hub.model.ChannelConfig(name=" + this.getName() + ", owner=" + this.getOwner() + ", creationDate=" + this.getCreationDate() + ", ttlDays=" + this.getTtlDays() + ", maxItems=" + this.getMaxItems() + ", description=" + this.getDescription() + ", tags=" + this.getTags() + ", replicationSource=" + this.getReplicationSource() + ", storage=" + this.getStorage() + ", global=" + this.getGlobal() + ", protect=" + this.isProtect() + ", mutableTime=" + this.getMutableTime() + ", allowZeroBytes=" + this.isAllowZeroBytes() + ")";
+        return "com.flightstats.hub.model.ChannelConfig(name=" + this.getName() + ", owner=" + this.getOwner() + ", creationDate=" + this.getCreationDate() + ", ttlDays=" + this.getTtlDays() + ", maxItems=" + this.getMaxItems() + ", description=" + this.getDescription() + ", tags=" + this.getTags() + ", replicationSource=" + this.getReplicationSource() + ", storage=" + this.getStorage() + ", global=" + this.getGlobal() + ", protect=" + this.isProtect() + ", mutableTime=" + this.getMutableTime() + ", allowZeroBytes=" + this.isAllowZeroBytes() + ", codec=" + this.getCodec() + ")";
     }
 
     public ChannelConfigBuilder toBuilder() {
@@ -361,6 +390,7 @@ public class ChannelConfig implements Serializable, NamedType {
         private long maxItems;
         private GlobalConfig global;
         private DateTime mutableTime;
+        private String codec = "";
 
         ChannelConfigBuilder() {
         }
@@ -379,6 +409,7 @@ public class ChannelConfig implements Serializable, NamedType {
             maxItems(config.getMaxItems());
             global(config.getGlobal());
             mutableTime(config.getMutableTime());
+            codec(config.getCodec());
         }
 
         public ChannelConfigBuilder tags(List<String> tagList) {
@@ -453,12 +484,17 @@ public class ChannelConfig implements Serializable, NamedType {
             return this;
         }
 
+        public ChannelConfigBuilder codec(String codec) {
+            this.codec = codec;
+            return this;
+        }
+
         public ChannelConfig build() {
-            return new ChannelConfig(name, owner, creationDate, ttlDays, maxItems, description, tags, replicationSource, storage, global, protect, mutableTime, allowZeroBytes);
+            return new ChannelConfig(name, owner, creationDate, ttlDays, maxItems, description, tags, replicationSource, storage, global, protect, mutableTime, allowZeroBytes, codec);
         }
 
         public String toString() {
-            return "com.flightstats.hub.model.ChannelConfig.ChannelConfigBuilder(owner=" + this.owner + ", creationDate=" + this.creationDate + ", description=" + this.description + ", tags=" + this.tags + ", replicationSource=" + this.replicationSource + ", storage=" + this.storage + ", protect=" + this.protect + ", allowZeroBytes=" + this.allowZeroBytes + ", name=" + this.name + ", ttlDays=" + this.ttlDays + ", maxItems=" + this.maxItems + ", global=" + this.global + ", mutableTime=" + this.mutableTime + ")";
+            return "com.flightstats.hub.model.ChannelConfig.ChannelConfigBuilder(owner=" + this.owner + ", creationDate=" + this.creationDate + ", description=" + this.description + ", tags=" + this.tags + ", replicationSource=" + this.replicationSource + ", storage=" + this.storage + ", protect=" + this.protect + ", allowZeroBytes=" + this.allowZeroBytes + ", name=" + this.name + ", ttlDays=" + this.ttlDays + ", maxItems=" + this.maxItems + ", global=" + this.global + ", mutableTime=" + this.mutableTime + ", codec=" + this.codec + ")";
         }
     }
 }
@@ -1,6 +1,7 @@
 package com.flightstats.hub.model;
 
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.ContentCodec;
 import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.google.common.base.Optional;
@@ -26,6 +27,7 @@ public class Content implements Serializable {
     private transient boolean isLarge;
     private transient int threads;
     private transient boolean isHistorical;
+    private transient boolean isPackaged;
 
     private Content(Builder builder) {
         contentKey = builder.contentKey;
@@ -67,6 +69,10 @@ public class Content implements Serializable {
         this.contentLength = contentLength;
     }
 
+    public void setLarge(boolean isLarge) {
+        this.isLarge = isLarge;
+    }
+
     public void setHistorical(boolean isHistorical) {
         this.isHistorical = isHistorical;
     }
@@ -85,9 +91,20 @@ public class Content implements Serializable {
     }
 
     public void packageStream() throws IOException {
+        packageStream(ContentCodec.getDefault());
+    }
+
+    /**
+     * Marshal the stream with the codec.  Content is only packaged once, later calls do nothing.
+     */
+    public void packageStream(ContentCodec codec) throws IOException {
+        if (isPackaged) {
+            return;
+        }
         if (contentLength < HubProperties.getLargePayload()) {
-            data = ContentMarshaller.toBytes(this);
+            data = ContentMarshaller.toBytes(this, codec);
             stream = null;
+            isPackaged = true;
         } else {
             isLarge = true;
         }
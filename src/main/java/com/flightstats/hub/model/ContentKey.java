@@ -11,14 +11,20 @@ import org.joda.time.format.DateTimeFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.DecimalFormat;
-
+/**
+ * ContentKey stores the time as epoch millis, and parses and formats urls by hand,
+ * since keys are created and formatted for every item in queries, webhooks and listings.
+ */
 public class ContentKey implements ContentPath {
     public static final ContentKey NONE = new ContentKey(TimeUtil.BIG_BANG, "none");
     private final static Logger logger = LoggerFactory.getLogger(ContentKey.class);
-    private static final DecimalFormat format = new DecimalFormat("000000");
-    private final DateTime time;
+    private static final int URL_TIME_LENGTH = 24;
+    private static final int BULK_HASH_LENGTH = 6;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private final long millis;
     private final String hash;
+    //created on demand, DateTime is immutable, so a racy assignment is safe
+    private DateTime time;
 
     public ContentKey() {
         this(TimeUtil.now());
@@ -29,7 +35,13 @@ public class ContentKey implements ContentPath {
     }
 
     public ContentKey(DateTime time, String hash) {
+        this.millis = time.getMillis();
+        this.hash = hash;
         this.time = time;
+    }
+
+    public ContentKey(long millis, String hash) {
+        this.millis = millis;
         this.hash = hash;
     }
 
@@ -56,42 +68,112 @@ public class ContentKey implements ContentPath {
         }
     }
 
+    /**
+     * Parses yyyy/MM/dd/HH/mm/ss/SSS/hash
+     */
     public static Optional<ContentKey> fromUrl(String key) {
-        try {
-            int year = Integer.parseInt(key.substring(0, 4));
-            int month = Integer.parseInt(key.substring(5, 7));
-            int day = Integer.parseInt(key.substring(8, 10));
-            int hour = Integer.parseInt(key.substring(11, 13));
-            int minute = Integer.parseInt(key.substring(14, 16));
-            int second = Integer.parseInt(key.substring(17, 19));
-            int millis = Integer.parseInt(key.substring(20, 23));
-            String hash = key.substring(24);
-            DateTime dateTime = new DateTime(year, month, day, hour, minute, second, millis, DateTimeZone.UTC);
-            return Optional.of(new ContentKey(dateTime, hash));
-        } catch (Exception e) {
-            logger.trace("unable to parse {} {} ", key, e.getMessage());
+        if (key == null || key.length() < URL_TIME_LENGTH) {
+            logger.trace("unable to parse {}", key);
             return Optional.absent();
         }
+        int year = digits(key, 0, 4);
+        int month = digits(key, 5, 2);
+        int day = digits(key, 8, 2);
+        int hour = digits(key, 11, 2);
+        int minute = digits(key, 14, 2);
+        int second = digits(key, 17, 2);
+        int millis = digits(key, 20, 3);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            logger.trace("unable to parse {}", key);
+            return Optional.absent();
+        }
+        long epochMillis = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000L + millis;
+        return Optional.of(new ContentKey(epochMillis, key.substring(URL_TIME_LENGTH)));
     }
 
-    private synchronized static String bulkHash(int number) {
-        return format.format(number);
+    public static ContentKey bulkKey(ContentKey master, int index) {
+        return new ContentKey(master.millis, master.getHash() + bulkHash(index));
     }
 
-    public static ContentKey bulkKey(ContentKey master, int index) {
-        return new ContentKey(master.getTime(), master.getHash() + ContentKey.bulkHash(index));
+    private static String bulkHash(int number) {
+        return StringUtils.leftPad(Integer.toString(number), BULK_HASH_LENGTH, '0');
     }
 
     public String toUrl() {
-        return TimeUtil.millis(time) + hash;
+        char[] chars = new char[URL_TIME_LENGTH + hash.length()];
+        long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+        //days to year, month and day, from http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        long shifted = days + 719468;
+        long era = Math.floorDiv(shifted, 146097);
+        int dayOfEra = (int) (shifted - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        write(chars, 0, year, 4);
+        write(chars, 5, month, 2);
+        write(chars, 8, day, 2);
+        write(chars, 11, millisOfDay / 3_600_000, 2);
+        write(chars, 14, millisOfDay / 60_000 % 60, 2);
+        write(chars, 17, millisOfDay / 1000 % 60, 2);
+        write(chars, 20, millisOfDay % 1000, 3);
+        hash.getChars(0, hash.length(), chars, URL_TIME_LENGTH);
+        return new String(chars);
     }
 
     public long getMillis() {
-        return time.getMillis();
+        return millis;
+    }
+
+    /**
+     * @return the number in the digits, or -1 if any are not 0-9
+     */
+    private static int digits(String key, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            int digit = key.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void write(char[] chars, int start, int value, int length) {
+        for (int i = start + length - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        chars[start + length] = '/';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * From http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        int era = Math.floorDiv(year, 400);
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
     }
 
     public String toString(DateTimeFormatter pathFormatter) {
-        return time.toString(pathFormatter) + hash;
+        return getTime().toString(pathFormatter) + hash;
     }
 
     @Override
@@ -106,7 +188,7 @@ public class ContentKey implements ContentPath {
         }
         if (other instanceof ContentKey) {
             ContentKey key = (ContentKey) other;
-            int diff = time.compareTo(key.getTime());
+            int diff = Long.compare(millis, key.millis);
             if (diff == 0) {
                 diff = hash.compareTo(key.hash);
             }
@@ -114,8 +196,7 @@ public class ContentKey implements ContentPath {
         }
         if (other instanceof SecondPath) {
             SecondPath secondPath = (SecondPath) other;
-            DateTime endTime = secondPath.getTime().plusSeconds(1);
-            int diff = time.compareTo(endTime);
+            int diff = Long.compare(millis, secondPath.getTime().getMillis() + 1000);
             if (diff == 0) {
                 return 1;
             }
@@ -123,8 +204,7 @@ public class ContentKey implements ContentPath {
 
         } else {
             MinutePath minutePath = (MinutePath) other;
-            DateTime endTime = minutePath.getTime().plusMinutes(1);
-            int diff = time.compareTo(endTime);
+            int diff = Long.compare(millis, minutePath.getTime().getMillis() + 60 * 1000);
             if (diff == 0) {
                 return 1;
             }
@@ -137,16 +217,21 @@ public class ContentKey implements ContentPath {
     }
 
     public String toZk() {
-        return time.getMillis() + ":" + hash;
+        return millis + ":" + hash;
     }
 
     public ContentKey fromZk(String value) {
         String[] split = value.split(":");
-        return new ContentKey(new DateTime(Long.parseLong(split[0]), DateTimeZone.UTC), split[1]);
+        return new ContentKey(Long.parseLong(split[0]), split[1]);
     }
 
     public DateTime getTime() {
-        return this.time;
+        DateTime dateTime = time;
+        if (dateTime == null) {
+            dateTime = new DateTime(millis, DateTimeZone.UTC);
+            time = dateTime;
+        }
+        return dateTime;
     }
 
     public String getHash() {
@@ -158,9 +243,7 @@ public class ContentKey implements ContentPath {
         if (!(o instanceof ContentKey)) return false;
         final ContentKey other = (ContentKey) o;
         if (!other.canEqual((Object) this)) return false;
-        final Object this$time = this.getTime();
-        final Object other$time = other.getTime();
-        if (this$time == null ? other$time != null : !this$time.equals(other$time)) return false;
+        if (this.millis != other.millis) return false;
         final Object this$hash = this.getHash();
         final Object other$hash = other.getHash();
         if (this$hash == null ? other$hash != null : !this$hash.equals(other$hash)) return false;
@@ -170,8 +253,7 @@ public class ContentKey implements ContentPath {
     public int hashCode() {
         final int PRIME = 59;
         int result = 1;
-        final Object $time = this.getTime();
-        result = result * PRIME + ($time == null ? 43 : $time.hashCode());
+        result = result * PRIME + (int) (millis >>> 32 ^ millis);
         final Object $hash = this.getHash();
         result = result * PRIME + ($hash == null ? 43 : $hash.hashCode());
         return result;
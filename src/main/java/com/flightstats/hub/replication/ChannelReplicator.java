@@ -2,21 +2,77 @@ package com.flightstats.hub.replication;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubProvider;
-import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.cluster.CuratorLeader;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.Leader;
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.dao.LocalChannelService;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.model.*;
+import com.flightstats.hub.rest.RestClient;
 import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.util.Sleeper;
+import com.flightstats.hub.util.TimeUtil;
 import com.flightstats.hub.webhook.Webhook;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-class ChannelReplicator implements Replicator {
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ChannelReplicator pulls a continuous stream of items from the replication source.
+ * One hub in the cluster holds the stream, inserts the items in batches while it reads the next ones,
+ * and writes the replicated progress to ZooKeeper every replication.stream.ackMillis.
+ * Large items are read from the source channel one at a time, and streamed into the large payload store.
+ * Sources without the stream endpoint are replicated with a webhook, as before.
+ */
+class ChannelReplicator implements Replicator, Leader {
+
+    private final static Logger logger = LoggerFactory.getLogger(ChannelReplicator.class);
 
     private static final HubUtils hubUtils = HubProvider.getInstance(HubUtils.class);
+    private static final LocalChannelService localChannelService = HubProvider.getInstance(LocalChannelService.class);
+    private static final LastContentPath lastReplicated = HubProvider.getInstance(LastContentPath.class);
+    private static final Client client = RestClient.createClient(30, 60, true, false);
+    private static final boolean streaming = HubProperties.getProperty("replication.stream.enabled", true);
+    private static final long ackMillis = HubProperties.getProperty("replication.stream.ackMillis", 1000);
+    private static final int batchItems = HubProperties.getProperty("replication.stream.batchItems", 500);
+    private static final long batchBytes = 16 * 1024 * 1024;
+    private static final long fallbackMillis = TimeUnit.MINUTES.toMillis(HubProperties.getProperty("replication.stream.fallbackMinutes", 10));
+    private static final String largeThreads = HubProperties.getProperty("s3.large.threads", "3");
 
     private ChannelConfig channel;
+    private CuratorLeader curatorLeader;
+    private volatile ContentPath progress;
 
     ChannelReplicator(ChannelConfig channel) {
         this.channel = channel;
     }
 
-    public void start() {
+    public synchronized void start() {
+        if (!streaming) {
+            startWebhook();
+            return;
+        }
+        if (curatorLeader == null) {
+            curatorLeader = new CuratorLeader("/ReplicationStream/" + channel.getName(), this);
+        }
+        curatorLeader.start();
+    }
+
+    private void startWebhook() {
         Webhook.WebhookBuilder builder = Webhook.builder()
                 .name(getGroupName())
                 .callbackUrl(getCallbackUrl())
@@ -38,8 +94,215 @@ class ChannelReplicator implements Replicator {
         return channel;
     }
 
-    public void stop() {
+    public synchronized void stop() {
+        if (curatorLeader != null) {
+            curatorLeader.close();
+            curatorLeader = null;
+        }
         hubUtils.stopGroupCallback(getGroupName(), channel.getReplicationSource());
     }
 
+    @Override
+    public void takeLeadership(Leadership leadership) {
+        String name = channel.getName();
+        logger.info("taking leadership of replication {} from {}", name, channel.getReplicationSource());
+        progress = lastReplicated.getOrNull(name, LocalChannelService.REPLICATED_LAST_UPDATED);
+        boolean webhookStopped = false;
+        while (leadership.hasLeadership()) {
+            ClientResponse response = null;
+            try {
+                String url = ReplicationFrames.getStreamUrl(channel.getReplicationSource(), getStartKey());
+                logger.info("connecting to {}", url);
+                response = client.resource(url).get(ClientResponse.class);
+                if (response.getStatus() == 404 || response.getStatus() == 405) {
+                    logger.info("{} does not stream {}, replicating with a webhook", url, response.getStatus());
+                    startWebhook();
+                    webhookStopped = false;
+                    sleep(leadership, fallbackMillis);
+                } else if (response.getStatus() != 200) {
+                    logger.warn("unexpected response {} {}", url, response);
+                    Sleeper.sleep(5000);
+                } else {
+                    if (!webhookStopped) {
+                        hubUtils.stopGroupCallback(getGroupName(), channel.getReplicationSource());
+                        webhookStopped = true;
+                    }
+                    consume(response.getEntityInputStream(), leadership);
+                }
+            } catch (Exception e) {
+                logger.warn("unable to replicate " + name, e);
+                Sleeper.sleepQuietly(5000);
+            } finally {
+                HubUtils.close(response);
+            }
+        }
+        logger.info("lost leadership of replication {}", name);
+    }
+
+    private void sleep(Leadership leadership, long millis) {
+        long end = System.currentTimeMillis() + millis;
+        while (leadership.hasLeadership() && System.currentTimeMillis() < end) {
+            Sleeper.sleep(Math.min(1000, end - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * The progress is inclusive, so the stream starts with the items after the progress second.
+     */
+    private ContentKey getStartKey() {
+        if (progress == null) {
+            return new ContentKey(TimeUtil.stable());
+        }
+        return ContentKey.lastKey(progress.getTime().plusSeconds(1).minusMillis(1));
+    }
+
+    private void consume(InputStream stream, Leadership leadership) throws Exception {
+        Inserter inserter = new Inserter();
+        try {
+            ReplicationFrames.Reader reader = new ReplicationFrames.Reader(stream);
+            List<Content> items = new ArrayList<>();
+            long bytes = 0;
+            while (leadership.hasLeadership() && reader.next()) {
+                if (reader.isProgress()) {
+                    inserter.submit(items, SecondPath.fromUrl(reader.getKey()).get());
+                    items = new ArrayList<>();
+                    bytes = 0;
+                } else if (reader.isLarge()) {
+                    inserter.submit(items, null);
+                    items = new ArrayList<>();
+                    bytes = 0;
+                    inserter.submitLarge(ContentKey.fromUrl(reader.getKey()).get(), reader.getContentType());
+                } else {
+                    Content.Builder builder = Content.builder()
+                            .withContentKey(ContentKey.fromUrl(reader.getKey()).get())
+                            .withData(reader.getData());
+                    if (reader.getContentType() != null) {
+                        builder.withContentType(reader.getContentType());
+                    }
+                    items.add(builder.build());
+                    bytes += reader.getData().length;
+                    if (items.size() >= batchItems || bytes >= batchBytes) {
+                        inserter.submit(items, null);
+                        items = new ArrayList<>();
+                        bytes = 0;
+                    }
+                }
+            }
+            logger.info("replication stream ended for {} at {}", channel.getName(), progress);
+        } finally {
+            inserter.close();
+        }
+    }
+
+    /**
+     * Inserts the batches for one connection in order, on its own thread, while the next batches are read.
+     * The progress only advances after the items before it are inserted.
+     */
+    private class Inserter {
+
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ReplicationInserter-" + channel.getName()).build());
+        private final Semaphore permits = new Semaphore(2);
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private long lastAck = System.currentTimeMillis();
+
+        void submit(List<Content> items, ContentPath path) throws Exception {
+            execute(() -> {
+                insert(items);
+                if (path != null) {
+                    progress = path;
+                    ack(false);
+                }
+            });
+        }
+
+        void submitLarge(ContentKey key, String contentType) throws Exception {
+            execute(() -> insertLarge(key, contentType));
+        }
+
+        private void execute(Task task) throws Exception {
+            Exception exception = failure.get();
+            if (exception != null) {
+                throw exception;
+            }
+            permits.acquire();
+            executor.submit(() -> {
+                try {
+                    if (failure.get() == null) {
+                        task.run();
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        private void insert(List<Content> items) throws Exception {
+            if (items.isEmpty()) {
+                return;
+            }
+            ActiveTraces.start("ChannelReplicator.insert", channel.getName(), items.size());
+            try {
+                BulkContent bulkContent = BulkContent.builder()
+                        .channel(channel.getName())
+                        .isNew(false)
+                        .build();
+                bulkContent.getItems().addAll(items);
+                localChannelService.insert(bulkContent);
+            } finally {
+                ActiveTraces.end();
+            }
+        }
+
+        private void insertLarge(ContentKey key, String contentType) throws Exception {
+            String url = StringUtils.removeEnd(channel.getReplicationSource(), "/") + "/" + key.toUrl();
+            ActiveTraces.start("ChannelReplicator.insertLarge", channel.getName(), key);
+            ClientResponse response = null;
+            try {
+                response = client.resource(url).get(ClientResponse.class);
+                if (response.getStatus() == 404) {
+                    logger.warn("unable to read large item {}, skipping it", url);
+                    return;
+                }
+                if (response.getStatus() != 200) {
+                    throw new IOException("unable to read large item " + url + " " + response.getStatus());
+                }
+                Content content = Content.builder()
+                        .withContentKey(key)
+                        .withContentType(contentType)
+                        .withContentLength(Math.max(response.getLength(), HubProperties.getLargePayload()))
+                        .withStream(response.getEntityInputStream())
+                        .withThreads(largeThreads)
+                        .build();
+                localChannelService.insert(channel.getName(), content);
+            } finally {
+                HubUtils.close(response);
+                ActiveTraces.end();
+            }
+        }
+
+        private void ack(boolean force) {
+            long now = System.currentTimeMillis();
+            if (progress != null && (force || now - lastAck >= ackMillis)) {
+                lastReplicated.updateIncrease(progress, channel.getName(), LocalChannelService.REPLICATED_LAST_UPDATED);
+                lastAck = now;
+            }
+        }
+
+        void close() throws Exception {
+            executor.submit(() -> ack(true));
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            Exception exception = failure.get();
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
 }
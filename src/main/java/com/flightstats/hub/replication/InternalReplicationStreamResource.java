@@ -0,0 +1,109 @@
+package com.flightstats.hub.replication;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.Request;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.Sleeper;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The source side of streaming replication.
+ * The stream writes the stable items after startKey in order, and a progress frame every second,
+ * until it has been open for replication.stream.minutes and the replicator reconnects.
+ * Items which can not be read are logged and skipped, as the batch callbacks did.
+ */
+@Path("/internal/repls/{channel}/stream")
+public class InternalReplicationStreamResource {
+
+    static final String CONTENT_TYPE = "application/x-hub-replication";
+
+    private final static Logger logger = LoggerFactory.getLogger(InternalReplicationStreamResource.class);
+
+    private static final ChannelService channelService = HubProvider.getInstance(ChannelService.class);
+    private static final long streamMillis = TimeUnit.MINUTES.toMillis(HubProperties.getProperty("replication.stream.minutes", 10));
+    private static final int queryCount = 1000;
+
+    @GET
+    public Response stream(@PathParam("channel") String channel, @QueryParam("startKey") String startKey) {
+        if (!channelService.channelExists(channel)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        Optional<ContentKey> start = ContentKey.fromUrl(startKey == null ? "" : startKey);
+        if (!start.isPresent()) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("startKey is required").build();
+        }
+        logger.info("starting replication stream for {} after {}", channel, start.get());
+        return Response.ok((StreamingOutput) os -> write(channel, start.get(), os), CONTENT_TYPE).build();
+    }
+
+    private void write(String channel, ContentKey startKey, OutputStream os) throws IOException {
+        ContentKey cursor = startKey;
+        long end = System.currentTimeMillis() + streamMillis;
+        try (ReplicationFrames.Writer writer = new ReplicationFrames.Writer(os)) {
+            while (System.currentTimeMillis() < end) {
+                ActiveTraces.start("InternalReplicationStreamResource", channel);
+                try {
+                    DateTime stable = channelService.getLastUpdated(channel, new SecondPath(TimeUtil.stable())).getTime();
+                    SortedSet<ContentKey> keys = query(channel, cursor);
+                    while (!keys.isEmpty()) {
+                        for (ContentKey key : keys) {
+                            writeItem(channel, key, writer);
+                            cursor = key;
+                        }
+                        writer.flush();
+                        keys = query(channel, cursor);
+                    }
+                    writer.writeProgress(new SecondPath(stable.minusSeconds(1)).toUrl());
+                    writer.flush();
+                } finally {
+                    ActiveTraces.end();
+                }
+                Sleeper.sleep(1000 - TimeUtil.now().getMillisOfSecond());
+            }
+        } catch (IOException e) {
+            logger.info("replication stream for {} closed at {} {}", channel, cursor, e.getMessage());
+            return;
+        }
+        logger.info("completed replication stream for {} at {}", channel, cursor);
+    }
+
+    private void writeItem(String channel, ContentKey key, ReplicationFrames.Writer writer) throws IOException {
+        Request request = Request.builder()
+                .channel(channel)
+                .key(key)
+                .build();
+        if (!writer.writeContent(key, channelService.get(request))) {
+            logger.warn("unable to read {} {}, skipping it", channel, key);
+        }
+    }
+
+    private SortedSet<ContentKey> query(String channel, ContentKey cursor) {
+        DirectionQuery query = DirectionQuery.builder()
+                .channelName(channel)
+                .startKey(cursor)
+                .next(true)
+                .count(queryCount)
+                .stable(true)
+                .epoch(Epoch.IMMUTABLE)
+                .build();
+        return channelService.query(query);
+    }
+}
@@ -0,0 +1,203 @@
+package com.flightstats.hub.replication;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.base.Optional;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ReplicationFrames is the wire format for the replication stream from a source channel.
+ * <p>
+ * A header of magic and version is followed by frames, each starting with a type byte.
+ * An item frame has the key, the content type and the data, each as a length and bytes.
+ * A large frame has the key and the content type of an item which is too large for a frame,
+ * the replicator reads it from the source channel instead.
+ * A progress frame has a second path, every item up to the end of that second has been sent.
+ * A type of zero ends the stream.
+ * The stream is gzipped, and flush() sync flushes, so the reader sees each frame as it is flushed.
+ */
+class ReplicationFrames {
+
+    static final int MAGIC = 0x52504C46;
+    static final byte VERSION = 1;
+    static final byte END = 0;
+    static final byte ITEM = 1;
+    static final byte PROGRESS = 2;
+    static final byte LARGE = 3;
+    private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024;
+
+    /**
+     * @param replicationSource the url of the source channel, http://host/channel/name
+     * @return the url of the source's InternalReplicationStreamResource.
+     */
+    static String getStreamUrl(String replicationSource, ContentKey startKey) {
+        String host = StringUtils.substringBefore(replicationSource, "/channel/");
+        String channel = StringUtils.removeEnd(StringUtils.substringAfter(replicationSource, "/channel/"), "/");
+        return host + "/internal/repls/" + channel + "/stream?startKey=" + startKey.toUrl();
+    }
+
+    static class Writer implements Closeable {
+
+        private final DataOutputStream output;
+
+        Writer(OutputStream output) throws IOException {
+            this.output = new DataOutputStream(new GZIPOutputStream(output, 64 * 1024, true));
+            this.output.writeInt(MAGIC);
+            this.output.writeByte(VERSION);
+        }
+
+        void writeItem(String key, String contentType, byte[] data) throws IOException {
+            output.writeByte(ITEM);
+            writeBytes(key.getBytes(StandardCharsets.UTF_8));
+            writeBytes(contentType == null ? new byte[0] : contentType.getBytes(StandardCharsets.UTF_8));
+            writeBytes(data);
+        }
+
+        void writeLarge(String key, String contentType) throws IOException {
+            output.writeByte(LARGE);
+            writeBytes(key.getBytes(StandardCharsets.UTF_8));
+            writeBytes(contentType == null ? new byte[0] : contentType.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Writes the item, or a large frame if it is a large payload or too big for a frame.
+         *
+         * @return false if the item could not be read, and was skipped.
+         */
+        boolean writeContent(ContentKey key, Optional<Content> optional) throws IOException {
+            if (!optional.isPresent()) {
+                return false;
+            }
+            Content content = optional.get();
+            String contentType = content.getContentType().orNull();
+            if (content.isLarge()) {
+                content.close();
+                writeLarge(key.toUrl(), contentType);
+                return true;
+            }
+            byte[] data = content.getData();
+            if (data == null) {
+                return false;
+            }
+            if (data.length > maxBytes) {
+                writeLarge(key.toUrl(), contentType);
+            } else {
+                writeItem(key.toUrl(), contentType, data);
+            }
+            return true;
+        }
+
+        void writeProgress(String secondPath) throws IOException {
+            output.writeByte(PROGRESS);
+            writeBytes(secondPath.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void flush() throws IOException {
+            output.flush();
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.writeByte(END);
+            output.close();
+        }
+    }
+
+    /**
+     * Reader iterates the frames in a stream.
+     */
+    static class Reader {
+
+        private final DataInputStream input;
+        private byte type;
+        private String key;
+        private String contentType;
+        private byte[] data;
+
+        Reader(InputStream stream) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream, 64 * 1024)));
+            int magic = input.readInt();
+            byte version = input.readByte();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException("unexpected replication header " + Integer.toHexString(magic) + " version " + version);
+            }
+        }
+
+        /**
+         * @return false at the end of the stream.
+         * @throws EOFException if the stream is closed before the end.
+         */
+        boolean next() throws IOException {
+            type = input.readByte();
+            switch (type) {
+                case END:
+                    return false;
+                case ITEM:
+                    key = readString();
+                    contentType = readString();
+                    data = readBytes();
+                    return true;
+                case LARGE:
+                    key = readString();
+                    contentType = readString();
+                    data = null;
+                    return true;
+                case PROGRESS:
+                    key = readString();
+                    contentType = null;
+                    data = null;
+                    return true;
+                default:
+                    throw new IOException("unexpected replication frame " + type);
+            }
+        }
+
+        boolean isProgress() {
+            return type == PROGRESS;
+        }
+
+        boolean isLarge() {
+            return type == LARGE;
+        }
+
+        /**
+         * @return the item key, or the second path for progress frames.
+         */
+        String getKey() {
+            return key;
+        }
+
+        String getContentType() {
+            return contentType.isEmpty() ? null : contentType;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        private String readString() throws IOException {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        private byte[] readBytes() throws IOException {
+            int length = input.readInt();
+            if (length < 0 || length > maxBytes) {
+                throw new IOException("invalid replication frame length " + length);
+            }
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return bytes;
+        }
+    }
+}
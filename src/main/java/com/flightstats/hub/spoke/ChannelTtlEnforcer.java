@@ -2,10 +2,12 @@ package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.app.InFlightService;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.TtlEnforcer;
+import com.flightstats.hub.dao.TtlReaper;
+import com.flightstats.hub.metrics.MetricsService;
 import com.flightstats.hub.model.ChannelConfig;
-import com.flightstats.hub.util.Commander;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.inject.Inject;
@@ -23,6 +25,10 @@ public class ChannelTtlEnforcer {
     private final String storagePath = HubProperties.getSpokePath();
     @Inject
     private ChannelService channelService;
+    @Inject
+    private InFlightService inFlightService;
+    @Inject
+    private MetricsService metricsService;
 
     @Inject
     public ChannelTtlEnforcer() {
@@ -31,13 +37,13 @@ public class ChannelTtlEnforcer {
         }
     }
 
-    private Consumer<ChannelConfig> handleCleanup() {
+    private Consumer<ChannelConfig> handleCleanup(TtlReaper reaper) {
         return channel -> {
             if (channel.getTtlDays() > 0) {
                 String channelPath = storagePath + "/" + channel.getName();
                 DateTime channelTTL = TimeUtil.stable().minusDays((int) channel.getTtlDays());
                 for (int i = 0; i < 3; i++) {
-                    Commander.run(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.days(channelTTL.minusDays(i))}, 1);
+                    reaper.delete(channelPath + "/" + TimeUtil.days(channelTTL.minusDays(i)));
                 }
             }
         };
@@ -49,7 +55,9 @@ public class ChannelTtlEnforcer {
             try {
                 long start = System.currentTimeMillis();
                 logger.info("running channel cleanup");
-                TtlEnforcer.enforce(storagePath, channelService, handleCleanup());
+                TtlReaper reaper = new TtlReaper("channel", inFlightService, metricsService);
+                TtlEnforcer.enforce(storagePath, channelService, handleCleanup(reaper), reaper);
+                reaper.report();
                 logger.info("completed channel cleanup {}", (System.currentTimeMillis() - start));
             } catch (Exception e) {
                 logger.info("issue cleaning up channels in spoke", e);
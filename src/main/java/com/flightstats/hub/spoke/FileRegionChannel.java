@@ -0,0 +1,15 @@
+package com.flightstats.hub.spoke;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An output which sends regions of a file itself, rather than having them staged through
+ * FileChannel.transferTo's temporary buffer.
+ * A ClosedChannelException from the input is thrown before any of the region is written, so the read can be retried.
+ */
+interface FileRegionChannel extends WritableByteChannel {
+
+    void transferFrom(FileChannel input, long position, long count) throws IOException;
+}
@@ -15,24 +15,38 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.NotFoundException;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collection;
 
 /**
  * Direct interactions with the file system
  */
-public class FileSpokeStore {
+public class FileSpokeStore implements SpokeStore {
 
     private final static Logger logger = LoggerFactory.getLogger(FileSpokeStore.class);
     private final String storagePath;
+    private final SpokeKeyIndex keyIndex;
+    private final Object deleteLock = new Object();
 
     public FileSpokeStore() {
-        this(HubProperties.getSpokePath());
+        this(HubProperties.getSpokePath(), HubProperties.getProperty("spoke.keyIndex", true));
     }
 
     public FileSpokeStore(String storagePath) {
+        this(storagePath, false);
+    }
+
+    /**
+     * @param useKeyIndex answer time, latest and next queries from memory, instead of listing directories.
+     */
+    public FileSpokeStore(String storagePath, boolean useKeyIndex) {
         this.storagePath = StringUtils.appendIfMissing(storagePath, "/");
         logger.info("starting with storage path " + this.storagePath);
+        keyIndex = useKeyIndex ? new SpokeKeyIndex() : null;
         if (!insert("hub-startup/" + new ContentKey().toUrl(), ("" + System.currentTimeMillis()).getBytes())) {
             throw new RuntimeException("unable to create startup file");
         }
@@ -40,12 +54,39 @@ public class FileSpokeStore {
         if (file.canExecute()) {
             logger.warn("**** Spoke file permissions may allow incomplete reads ****");
         }
+        if (keyIndex != null) {
+            new Thread(this::rebuildIndex, "FileSpokeStore-index").start();
+        }
+    }
+
+    private void rebuildIndex() {
+        long start = System.currentTimeMillis();
+        File[] channels = new File(storagePath).listFiles(File::isDirectory);
+        if (channels != null) {
+            for (File channel : channels) {
+                //hold the lock so a concurrent delete can not be undone by a stale listing
+                synchronized (deleteLock) {
+                    try {
+                        for (File file : FileUtils.listFiles(channel, null, true)) {
+                            if (file.canExecute()) {
+                                keyIndex.add(spokeKeyFromPath(file.getPath()), file.lastModified());
+                            }
+                        }
+                    } catch (Exception e) {
+                        logger.info("unable to index " + channel, e);
+                    }
+                }
+            }
+        }
+        keyIndex.setReady();
+        logger.info("rebuilt key index in {} ms", System.currentTimeMillis() - start);
     }
 
-    public boolean insert(String path, byte[] payload) {
-        return insert(path, new ByteArrayInputStream(payload));
+    private boolean useKeyIndex() {
+        return keyIndex != null && keyIndex.isReady();
     }
 
+    @Override
     public boolean insert(String path, InputStream input) {
         File file = spokeFilePathPart(path);
         logger.trace("insert {} {} {}", file, file.getParentFile().mkdirs(), file.canExecute());
@@ -53,6 +94,9 @@ public class FileSpokeStore {
             long copy = ByteStreams.copy(input, output);
             boolean setExecutable = file.setExecutable(true);
             logger.trace("copied {} {} {}", file, copy, setExecutable);
+            if (keyIndex != null) {
+                keyIndex.add(path, System.currentTimeMillis());
+            }
             return true;
         } catch (IOException e) {
             logger.info("unable to write to " + path, e);
@@ -60,13 +104,29 @@ public class FileSpokeStore {
         }
     }
 
-    public byte[] read(String path) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        read(path, baos);
-        return baos.toByteArray();
+    @Override
+    public void read(String path, OutputStream output) {
+        File file = readableFile(path);
+        try (FileInputStream input = new FileInputStream(file)) {
+            ByteStreams.copy(input, output);
+        } catch (FileNotFoundException e) {
+            logger.debug("file not found {}", path);
+        } catch (IOException e) {
+            logger.info("unable to read from " + path, e);
+        }
     }
 
-    public void read(String path, OutputStream output) {
+    @Override
+    public void read(String path, WritableByteChannel output) throws IOException {
+        File file = readableFile(path);
+        try (FileChannel input = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            transferTo(input, 0, input.size(), output);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            logger.debug("file not found {}", path);
+        }
+    }
+
+    private File readableFile(String path) {
         File file = spokeFilePathPart(path);
         logger.trace("reading {}", file);
         if (!file.exists()) {
@@ -76,27 +136,49 @@ public class FileSpokeStore {
             logger.warn("incomplete file {}", path);
             throw new NotFoundException("incomplete file " + path);
         }
-        try (FileInputStream input = new FileInputStream(file)) {
-            ByteStreams.copy(input, output);
-        } catch (FileNotFoundException e) {
-            logger.debug("file not found {}", path);
-        } catch (IOException e) {
-            logger.info("unable to read from " + path, e);
-        }
+        return file;
     }
 
-    public String readKeysInBucket(String path) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        keysInBucket(path, baos);
-        return baos.toString();
+    /**
+     * Transfer the region of the file to the output.  For socket and file outputs, the kernel moves the bytes directly,
+     * a FileRegionChannel sends the region itself, otherwise they are staged through a cached direct buffer.
+     */
+    static void transferTo(FileChannel input, long position, long count, WritableByteChannel output) throws IOException {
+        if (output instanceof FileRegionChannel) {
+            ((FileRegionChannel) output).transferFrom(input, position, count);
+            return;
+        }
+        long end = position + count;
+        while (position < end) {
+            long transferred = input.transferTo(position, end - position, output);
+            if (transferred <= 0) {
+                throw new EOFException("unable to transfer " + (end - position) + " bytes at " + position);
+            }
+            position += transferred;
+        }
     }
 
-    void readKeysInBucket(String path, OutputStream output) {
+    @Override
+    public void readKeysInBucket(String path, OutputStream output) {
+        if (useKeyIndex()) {
+            try {
+                keyIndex.writeKeysInBucket(path, output);
+            } catch (IOException e) {
+                logger.info("error with " + path, e);
+            }
+            return;
+        }
         keysInBucket(path, output);
     }
 
+    @Override
     public boolean delete(String path) throws Exception {
-        FileUtils.deleteDirectory(new File(storagePath + path));
+        synchronized (deleteLock) {
+            FileUtils.deleteDirectory(new File(storagePath + path));
+            if (keyIndex != null) {
+                keyIndex.remove(path);
+            }
+        }
         return true;
     }
 
@@ -181,9 +263,13 @@ public class FileSpokeStore {
         return Arrays.asList(split);
     }
 
+    @Override
     public String getLatest(String channel, String limitPath) {
         logger.trace("latest {} {}", channel, limitPath);
         ContentKey limitKey = ContentKey.fromUrl(limitPath).get();
+        if (useKeyIndex()) {
+            return keyIndex.getLatest(channel, limitKey);
+        }
         return getLatest(channel, limitPath, limitKey.getTime());
     }
 
@@ -219,14 +305,16 @@ public class FileSpokeStore {
         return getLatest(channel, limitPath, previous);
     }
 
-    /**
-     * This may return more than the request count, as this does not do any sorting.
-     */
+    @Override
     public void getNext(String channel, String startKey, int count, OutputStream output) throws IOException {
         DateTime now = TimeUtil.now();
         String channelPath = storagePath + channel + "/";
         logger.trace("next {} {} {}", channel, startKey, now);
         ContentKey start = ContentKey.fromUrl(startKey).get();
+        if (useKeyIndex()) {
+            keyIndex.writeNext(channel, start, count, output);
+            return;
+        }
         int found = 0;
         MinutePath minutePath = new MinutePath(start.getTime());
         boolean firstMinute = true;
@@ -256,12 +344,24 @@ public class FileSpokeStore {
         } while (found < count && minutePath.getTime().isBefore(now));
     }
 
+    @Override
+    public void pruneIndex(DateTime writtenBefore) {
+        if (keyIndex != null) {
+            keyIndex.prune(writtenBefore, channel -> new File(storagePath + channel).exists());
+        }
+    }
+
     void enforceTtl(String channel, DateTime dateTime) {
         String limitPath = TimeUtil.minutes(dateTime);
         logger.debug("enforceTtl {} {}", channel, limitPath);
         String[] split = StringUtils.split(limitPath, "/");
         split = new String[]{split[0], split[1], split[2], split[3], split[4]};
-        recurseDelete(channel, split, 0, channel);
+        synchronized (deleteLock) {
+            recurseDelete(channel, split, 0, channel);
+            if (keyIndex != null) {
+                keyIndex.removeThrough(channel, dateTime);
+            }
+        }
     }
 
     private void recurseDelete(String path, String[] limitPath, int count, String channel) {
@@ -1,6 +1,5 @@
 package com.flightstats.hub.spoke;
 
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.flightstats.hub.app.HubHost;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.cluster.Cluster;
@@ -14,15 +13,10 @@ import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.TimeQuery;
-import com.flightstats.hub.rest.RestClient;
-import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.spoke.SpokeClient.SpokeResponse;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientHandlerException;
-import com.sun.jersey.api.client.ClientResponse;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
@@ -31,63 +25,49 @@ import org.slf4j.LoggerFactory;
 
 import java.net.ConnectException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-@SuppressWarnings({"Convert2streamapi", "Convert2Lambda"})
+/**
+ * RemoteSpokeStore makes the calls to the spoke servers for a channel.
+ * Calls to all of the servers are sent concurrently with SpokeClient, and the calling thread waits
+ * for a quorum of writes, or for all of the query responses.
+ */
 public class RemoteSpokeStore {
 
     private final static Logger logger = LoggerFactory.getLogger(RemoteSpokeStore.class);
 
-    private final static Client write_client = RestClient.createClient(1, 5, true, false);
-    private final static Client query_client = RestClient.createClient(5, 15, true, true);
+    private static final int WRITE_TIMEOUT_SECONDS = 6;
+    private static final int QUERY_TIMEOUT_SECONDS = 20;
 
     private final Cluster cluster;
     private final MetricsService metricsService;
-    private final ExecutorService executorService;
+    private final SpokeClient spokeClient;
     private final int stableSeconds = HubProperties.getProperty("app.stable_seconds", 5);
 
     @Inject
-    public RemoteSpokeStore(DynamicSpokeCluster cluster, MetricsService metricsService) {
+    public RemoteSpokeStore(DynamicSpokeCluster cluster, MetricsService metricsService, SpokeClient spokeClient) {
         this.cluster = cluster;
         this.metricsService = metricsService;
-        executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("RemoteSpokeStore-%d").build());
+        this.spokeClient = spokeClient;
     }
 
     void testOne(Collection<String> server) throws InterruptedException {
         String path = "Internal-Spoke-Health-Hook/";
         Traces traces = new Traces(path);
         int calls = 10;
-        ExecutorService threadPool = Executors.newFixedThreadPool(2);
-        CountDownLatch quorumLatch = new CountDownLatch(calls);
         for (int i = 0; i < calls; i++) {
-            threadPool.submit(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        ContentKey key = new ContentKey();
-                        if (insert(path + key.toUrl(), key.toUrl().getBytes(), server, traces, "payload", path)) {
-                            quorumLatch.countDown();
-                        } else {
-                            traces.log(logger);
-                        }
-                    } catch (Exception e) {
-                        logger.warn("unexpected exception " + server, e);
-                    }
-                }
-            });
-        }
-        if (quorumLatch.await(5, TimeUnit.SECONDS)) {
-            threadPool.shutdown();
-            logger.info("completed warmup calls to Spoke {}", server);
-        } else {
-            threadPool.shutdown();
-            throw new RuntimeException("unable to properly connect to Spoke " + server);
+            ContentKey key = new ContentKey();
+            if (!insert(path + key.toUrl(), wrap(key.toUrl().getBytes()), server, traces, "payload", path)) {
+                traces.log(logger);
+                throw new RuntimeException("unable to properly connect to Spoke " + server);
+            }
         }
+        logger.info("completed warmup calls to Spoke {}", server);
     }
 
     boolean testAll() throws UnknownHostException {
@@ -100,8 +80,8 @@ public class RemoteSpokeStore {
         for (String server : servers) {
             try {
                 logger.info("calling server {} path {}", server, path);
-                ClientResponse response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/test/" + path)
-                        .get(ClientResponse.class);
+                SpokeResponse response = spokeClient.get(HubHost.getScheme() + server + "/internal/spoke/test/" + path,
+                        QUERY_TIMEOUT_SECONDS).get();
                 if (response.getStatus() == 200) {
                     logger.info("success calling {}", response);
                 } else if (response.getStatus() == 404) {
@@ -120,42 +100,40 @@ public class RemoteSpokeStore {
     }
 
     public boolean insert(String path, byte[] payload, String spokeApi, String channel) throws InterruptedException {
+        return insert(path, wrap(payload), spokeApi, channel);
+    }
+
+    private static ByteBuffer[] wrap(byte[] payload) {
+        return new ByteBuffer[]{ByteBuffer.wrap(payload)};
+    }
+
+    public boolean insert(String path, ByteBuffer[] payload, String spokeApi, String channel) throws InterruptedException {
         return insert(path, payload, cluster.getServers(channel), ActiveTraces.getLocal(), spokeApi, channel);
     }
 
-    private boolean insert(String path, byte[] payload, Collection<String> servers, Traces traces,
+    private boolean insert(String path, ByteBuffer[] payload, Collection<String> servers, Traces traces,
                            String spokeApi, String channel) throws InterruptedException {
         int quorum = getQuorum(servers.size());
         CountDownLatch quorumLatch = new CountDownLatch(quorum);
         AtomicBoolean firstComplete = new AtomicBoolean();
         for (final String server : servers) {
-            executorService.submit(new Runnable() {
-                @Override
-                public void run() {
-                    setThread(path);
-                    String uri = HubHost.getScheme() + server + "/internal/spoke/" + spokeApi + "/" + path;
-                    traces.add(uri);
-                    ClientResponse response = null;
-                    try {
-                        response = write_client.resource(uri).put(ClientResponse.class, payload);
-                        traces.add(server, response.getEntity(String.class));
-                        if (response.getStatus() == 201) {
-                            if (firstComplete.compareAndSet(false, true)) {
-                                metricsService.time(channel, "heisenberg", traces.getStart());
-                            }
-                            quorumLatch.countDown();
-                            logger.trace("server {} path {} response {}", server, path, response);
-                        } else {
-                            logger.info("write failed: server {} path {} response {}", server, path, response);
-                        }
-                    } catch (Exception e) {
-                        traces.add(server, e.getMessage());
-                        logger.warn("write failed: " + server + " " + path, e);
-                    } finally {
-                        HubUtils.close(response);
-                        resetThread();
+            String uri = HubHost.getScheme() + server + "/internal/spoke/" + spokeApi + "/" + path;
+            traces.add(uri);
+            spokeClient.put(uri, payload, WRITE_TIMEOUT_SECONDS).whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    traces.add(server, throwable.getMessage());
+                    logger.warn("write failed: " + server + " " + path, throwable);
+                    return;
+                }
+                traces.add(server, response.getContentAsString());
+                if (response.getStatus() == 201) {
+                    if (firstComplete.compareAndSet(false, true)) {
+                        metricsService.time(channel, "heisenberg", traces.getStart());
                     }
-
+                    quorumLatch.countDown();
+                    logger.trace("server {} path {} response {}", server, path, response);
+                } else {
+                    logger.info("write failed: server {} path {} response {}", server, path, response);
                 }
             });
         }
@@ -164,63 +142,71 @@ public class RemoteSpokeStore {
         return quorumLatch.getCount() != quorum;
     }
 
-    private void setThread(String name) {
-        Thread thread = Thread.currentThread();
-        thread.setName(thread.getName() + "|" + name);
-    }
-
-    private void resetThread() {
-        Thread thread = Thread.currentThread();
-        thread.setName(StringUtils.substringBefore(thread.getName(), "|"));
-    }
-
     static int getQuorum(int size) {
         return (int) Math.max(1, Math.ceil(size / 2.0));
     }
 
     public Content get(String channelName, String path, ContentKey key) {
-        Collection<String> servers = cluster.randomize(cluster.getServers(channelName, key.getTime()));
+        long start = System.currentTimeMillis();
+        try {
+            return get(channelName, path, key, cluster.randomize(cluster.getServers(channelName, key.getTime())));
+        } finally {
+            metricsService.time(channelName, "spoke.get", start);
+        }
+    }
+
+    private Content get(String channelName, String path, ContentKey key, Collection<String> servers) {
         for (String server : servers) {
-            ClientResponse response = null;
             try {
-                setThread(path);
-                response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/payload/" + path)
-                        .get(ClientResponse.class);
+                SpokeResponse response = spokeClient.get(HubHost.getScheme() + server + "/internal/spoke/payload/" + path,
+                        QUERY_TIMEOUT_SECONDS).get();
                 logger.trace("server {} path {} response {}", server, path, response);
                 if (response.getStatus() == 200) {
-                    byte[] entity = response.getEntity(byte[].class);
+                    byte[] entity = response.getContent();
                     if (entity.length > 0) {
                         return ContentMarshaller.toContent(entity, key);
                     }
                 }
-            } catch (JsonMappingException e) {
-                logger.info("JsonMappingException for " + path);
-            } catch (ClientHandlerException e) {
-                if (e.getCause() != null && e.getCause() instanceof ConnectException) {
-                    logger.warn("connection exception " + server);
-                } else {
-                    logger.warn("unable to get content " + server + " " + path, e);
-                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                logFailure("unable to get content " + server + " " + path, server, e.getCause());
             } catch (Exception e) {
                 logger.warn("unable to get content " + path, e);
-            } finally {
-                HubUtils.close(response);
-                resetThread();
             }
         }
         return null;
     }
 
+    private void logFailure(String message, String server, Throwable throwable) {
+        if (throwable instanceof ConnectException) {
+            logger.warn("connection exception " + server);
+        } else {
+            logger.warn(message, throwable);
+        }
+    }
+
     QueryResult readTimeBucket(TimeQuery query) throws InterruptedException {
         DateTime endTime = query.getStartTime().plus(query.getUnit().getDuration());
         Set<String> servers = cluster.getServers(query.getChannelName(), query.getStartTime(), endTime);
         String timePath = query.getUnit().format(query.getStartTime());
-        return getKeys("/internal/spoke/time/" + query.getChannelName() + "/" + timePath, servers);
+        long start = System.currentTimeMillis();
+        try {
+            return getKeys("/internal/spoke/time/" + query.getChannelName() + "/" + timePath, servers);
+        } finally {
+            metricsService.time(query.getChannelName(), "spoke.query", start, "type:time");
+        }
     }
 
     SortedSet<ContentKey> getNext(String channel, int count, ContentKey startKey) throws InterruptedException {
         Set<String> servers = cluster.getServers(channel, startKey.getTime(), TimeUtil.now());
-        return getKeys("/internal/spoke/next/" + channel + "/" + count + "/" + startKey.toUrl(), servers).getContentKeys();
+        long start = System.currentTimeMillis();
+        try {
+            return getKeys("/internal/spoke/next/" + channel + "/" + count + "/" + startKey.toUrl(), servers).getContentKeys();
+        } finally {
+            metricsService.time(channel, "spoke.query", start, "type:next");
+        }
     }
 
     private QueryResult getKeys(final String path, Collection<String> servers) throws InterruptedException {
@@ -229,85 +215,66 @@ public class RemoteSpokeStore {
         CountDownLatch countDownLatch = new CountDownLatch(servers.size());
         QueryResult queryResult = new QueryResult(servers.size());
         for (final String server : servers) {
-            executorService.submit(new Runnable() {
-                @Override
-                public void run() {
-                    ClientResponse response = null;
-                    try {
-                        setThread(path);
-                        traces.add("spoke calling", server, path);
-                        response = query_client.resource(HubHost.getScheme() + server + path).get(ClientResponse.class);
-                        traces.add("spoke server response", server, response);
-                        if (response.getStatus() == 200) {
-                            SortedSet<ContentKey> keySet = new TreeSet<>();
-                            String keysString = response.getEntity(String.class);
-                            ContentKeyUtil.convertKeyStrings(keysString, keySet);
-                            traces.add(server, keySet);
-                            queryResult.addKeys(keySet);
-                        }
-                    } catch (ClientHandlerException e) {
-                        if (e.getCause() != null && e.getCause() instanceof ConnectException) {
-                            logger.warn("connection exception " + server);
-                        } else {
-                            logger.warn("unable to get content " + path, e);
-                        }
-                        traces.add("ClientHandlerException", e.getMessage(), server);
-                    } catch (Exception e) {
-                        logger.warn("unable to handle " + server + " " + path, e);
-                        traces.add("unable to handle ", server, path, e);
-                    } finally {
-                        HubUtils.close(response);
-                        resetThread();
-                        countDownLatch.countDown();
+            traces.add("spoke calling", server, path);
+            spokeClient.get(HubHost.getScheme() + server + path, QUERY_TIMEOUT_SECONDS).whenComplete((response, throwable) -> {
+                try {
+                    if (throwable != null) {
+                        logFailure("unable to get content " + path, server, throwable);
+                        traces.add("unable to handle ", server, path, throwable.getMessage());
+                        return;
                     }
+                    traces.add("spoke server response", server, response);
+                    if (response.getStatus() == 200) {
+                        SortedSet<ContentKey> keySet = new TreeSet<>();
+                        ContentKeyUtil.convertKeyStrings(response.getContentAsString(), keySet);
+                        traces.add(server, keySet);
+                        queryResult.addKeys(keySet);
+                    }
+                } catch (Exception e) {
+                    logger.warn("unable to handle " + server + " " + path, e);
+                    traces.add("unable to handle ", server, path, e);
+                } finally {
+                    countDownLatch.countDown();
                 }
             });
         }
-        countDownLatch.await(20, TimeUnit.SECONDS);
+        countDownLatch.await(QUERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         return queryResult;
     }
 
     public Optional<ContentKey> getLatest(String channel, String path, Traces traces) throws InterruptedException {
+        long start = System.currentTimeMillis();
         Collection<String> servers = getAllSpokeServers(channel);
         CountDownLatch countDownLatch = new CountDownLatch(servers.size());
         SortedSet<ContentKey> orderedKeys = Collections.synchronizedSortedSet(new TreeSet<>());
         for (final String server : servers) {
-            executorService.submit(new Runnable() {
-                @Override
-                public void run() {
-                    ClientResponse response = null;
-                    try {
-                        setThread(path);
-                        traces.add("spoke calling", server, channel);
-                        response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/latest/" + path)
-                                .get(ClientResponse.class);
-                        traces.add("spoke server response", server, response);
-                        if (response.getStatus() == 200) {
-                            String key = response.getEntity(String.class);
-                            if (StringUtils.isNotEmpty(key)) {
-                                orderedKeys.add(ContentKeyUtil.convertKey(key).get());
+            traces.add("spoke calling", server, channel);
+            spokeClient.get(HubHost.getScheme() + server + "/internal/spoke/latest/" + path, QUERY_TIMEOUT_SECONDS)
+                    .whenComplete((response, throwable) -> {
+                        try {
+                            if (throwable != null) {
+                                logFailure("unable to get content " + path, server, throwable);
+                                traces.add("unable to handle ", server, channel, throwable.getMessage());
+                                return;
                             }
-                            traces.add(server, key);
-                        }
-                    } catch (ClientHandlerException e) {
-                        if (e.getCause() != null && e.getCause() instanceof ConnectException) {
-                            logger.warn("connection exception " + server);
-                        } else {
-                            logger.warn("unable to get content " + path, e);
+                            traces.add("spoke server response", server, response);
+                            if (response.getStatus() == 200) {
+                                String key = response.getContentAsString();
+                                if (StringUtils.isNotEmpty(key)) {
+                                    orderedKeys.add(ContentKeyUtil.convertKey(key).get());
+                                }
+                                traces.add(server, key);
+                            }
+                        } catch (Exception e) {
+                            logger.warn("unable to handle " + server + " " + channel, e);
+                            traces.add("unable to handle ", server, channel, e);
+                        } finally {
+                            countDownLatch.countDown();
                         }
-                        traces.add("ClientHandlerException", e.getMessage(), server);
-                    } catch (Exception e) {
-                        logger.warn("unable to handle " + server + " " + channel, e);
-                        traces.add("unable to handle ", server, channel, e);
-                    } finally {
-                        HubUtils.close(response);
-                        resetThread();
-                        countDownLatch.countDown();
-                    }
-                }
-            });
+                    });
         }
         countDownLatch.await(5, TimeUnit.SECONDS);
+        metricsService.time(channel, "spoke.latest", start);
         if (orderedKeys.isEmpty()) {
             return Optional.absent();
         }
@@ -319,28 +286,16 @@ public class RemoteSpokeStore {
         int quorum = servers.size();
         CountDownLatch countDownLatch = new CountDownLatch(quorum);
         for (final String server : servers) {
-            executorService.submit(new Runnable() {
-                @Override
-                public void run() {
-                    ClientResponse response = null;
-                    try {
-                        setThread(channel);
-                        response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/payload/" + channel)
-                                .delete(ClientResponse.class);
-                        if (response.getStatus() < 400) {
+            spokeClient.delete(HubHost.getScheme() + server + "/internal/spoke/payload/" + channel, 60)
+                    .whenComplete((response, throwable) -> {
+                        if (throwable != null) {
+                            logger.warn("unable to delete " + channel, throwable);
+                        } else if (response.getStatus() < 400) {
                             countDownLatch.countDown();
                         }
                         logger.trace("server {} path {} response {}", server, channel, response);
-                    } catch (Exception e) {
-                        logger.warn("unable to delete " + channel, e);
-                    } finally {
-                        HubUtils.close(response);
-                        resetThread();
-                    }
-                }
-            });
+                    });
         }
-
         return countDownLatch.await(60, TimeUnit.SECONDS);
     }
 
@@ -351,4 +306,4 @@ public class RemoteSpokeStore {
     }
 
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,468 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.Striped;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.NameFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.NotFoundException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * SegmentSpokeStore writes all of the items for a channel minute into a single append-only SpokeSegment,
+ * in the directory channel/yyyy/MM/dd/HH/mm/
+ * This avoids the open, write, chmod and close per item, and the inode per item, of FileSpokeStore.
+ * Use spoke.storeType=segment to enable it.
+ */
+public class SegmentSpokeStore implements SpokeStore {
+
+    private final static Logger logger = LoggerFactory.getLogger(SegmentSpokeStore.class);
+    private final String storagePath;
+    private final Map<String, SpokeSegment> segments = new ConcurrentHashMap<>();
+    private final Striped<Lock> minuteLocks = Striped.lock(64);
+    private final SpokeKeyIndex keyIndex;
+    private final Object deleteLock = new Object();
+
+    public SegmentSpokeStore() {
+        this(HubProperties.getSpokePath(), HubProperties.getProperty("spoke.keyIndex", true));
+        HubServices.register(new SegmentSpokeStoreService());
+    }
+
+    public SegmentSpokeStore(String storagePath, boolean useKeyIndex) {
+        this.storagePath = StringUtils.appendIfMissing(storagePath, "/");
+        logger.info("starting with storage path " + this.storagePath);
+        keyIndex = useKeyIndex ? new SpokeKeyIndex() : null;
+        if (!insert("hub-startup/" + new ContentKey().toUrl(), ("" + System.currentTimeMillis()).getBytes())) {
+            throw new RuntimeException("unable to create startup segment");
+        }
+        if (keyIndex != null) {
+            new Thread(this::rebuildIndex, "SegmentSpokeStore-index").start();
+        }
+    }
+
+    private void rebuildIndex() {
+        long start = System.currentTimeMillis();
+        File[] channels = new File(storagePath).listFiles(File::isDirectory);
+        if (channels != null) {
+            for (File channel : channels) {
+                //hold the lock so a concurrent delete can not be undone by a stale listing
+                synchronized (deleteLock) {
+                    try {
+                        for (File file : FileUtils.listFiles(channel, new NameFileFilter(SpokeSegment.SEGMENT), TrueFileFilter.INSTANCE)) {
+                            String minutePath = new File(storagePath).toPath().relativize(file.getParentFile().toPath()).toString();
+                            SpokeSegment segment = getSegment(minutePath, false);
+                            if (segment != null) {
+                                for (String key : segment.keys()) {
+                                    keyIndex.add(channel.getName(), key, file.lastModified());
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        logger.info("unable to index " + channel, e);
+                    }
+                }
+            }
+        }
+        keyIndex.setReady();
+        logger.info("rebuilt key index in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private boolean useKeyIndex() {
+        return keyIndex != null && keyIndex.isReady();
+    }
+
+    @Override
+    public boolean insert(String path, InputStream input) {
+        String[] split = StringUtils.split(path, "/");
+        if (split.length < 9) {
+            logger.info("invalid insert path {}", path);
+            return false;
+        }
+        try {
+            byte[] data = ByteStreams.toByteArray(input);
+            String minutePath = minutePath(split);
+            String key = key(split);
+            for (int i = 0; i < 3; i++) {
+                try {
+                    boolean appended = getSegment(minutePath, true).append(key, data);
+                    if (appended && keyIndex != null) {
+                        keyIndex.add(split[0], key, System.currentTimeMillis());
+                    }
+                    return appended;
+                } catch (ClosedChannelException e) {
+                    logger.debug("segment closed, retrying {}", path);
+                }
+            }
+            logger.info("unable to write to closed segment {}", path);
+        } catch (IOException | UncheckedIOException e) {
+            logger.info("unable to write to " + path, e);
+        }
+        return false;
+    }
+
+    @Override
+    public void read(String path, OutputStream output) {
+        CountingOutputStream counting = new CountingOutputStream(output);
+        try {
+            read(path, (segment, key) -> segment.read(key, counting), counting::getCount);
+        } catch (IOException e) {
+            logger.info("unable to read from " + path, e);
+            throw new UncheckedIOException(e);
+        } catch (UncheckedIOException e) {
+            logger.info("unable to read from " + path, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void read(String path, WritableByteChannel output) throws IOException {
+        CountingChannel counting = output instanceof FileRegionChannel
+                ? new CountingRegionChannel((FileRegionChannel) output) : new CountingChannel(output);
+        try {
+            read(path, (segment, key) -> segment.read(key, counting), counting::getCount);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A segment which is closed while it is read is loaded again, as long as nothing has been written to the output.
+     */
+    private void read(String path, SegmentReader reader, LongSupplier written) throws IOException {
+        String[] split = StringUtils.split(path, "/");
+        if (split.length < 9) {
+            throw new NotFoundException("not found " + path);
+        }
+        String minutePath = minutePath(split);
+        String key = key(split);
+        for (int i = 0; i < 3; i++) {
+            SpokeSegment segment = getSegment(minutePath, false);
+            if (segment == null) {
+                throw new NotFoundException("not found " + path);
+            }
+            try {
+                if (!reader.read(segment, key)) {
+                    throw new NotFoundException("not found " + path);
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (written.getAsLong() > 0) {
+                    throw new IOException("segment closed after writing " + written.getAsLong() + " bytes of " + path, e);
+                }
+                logger.debug("segment closed, retrying {}", path);
+            }
+        }
+        throw new IOException("unable to read from closed segment " + path);
+    }
+
+    @Override
+    public void readKeysInBucket(String path, OutputStream output) {
+        String[] split = StringUtils.split(path, "/");
+        String channel = split[0];
+        try {
+            if (useKeyIndex()) {
+                keyIndex.writeKeysInBucket(path, output);
+            } else if (split.length >= 6) {
+                String prefix = "";
+                if (split.length >= 7) {
+                    prefix = StringUtils.join(split, "/", 1, 7) + "/";
+                }
+                writeKeys(output, channel, getSegment(minutePath(split), false), prefix);
+            } else {
+                String bucketPath = StringUtils.join(split, "/");
+                File directory = new File(storagePath + bucketPath);
+                if (!directory.exists()) {
+                    return;
+                }
+                Collection<File> files = FileUtils.listFiles(directory,
+                        new NameFileFilter(SpokeSegment.SEGMENT), TrueFileFilter.INSTANCE);
+                for (File file : files) {
+                    String minutePath = bucketPath + "/" + directory.toPath().relativize(file.getParentFile().toPath());
+                    writeKeys(output, channel, getSegment(minutePath, false), "");
+                }
+            }
+        } catch (Exception e) {
+            logger.info("error with " + path, e);
+        }
+    }
+
+    private void writeKeys(OutputStream output, String channel, SpokeSegment segment, String prefix) throws IOException {
+        if (segment == null) {
+            return;
+        }
+        NavigableSet<String> keys = segment.keys();
+        if (!prefix.isEmpty()) {
+            keys = keys.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+        }
+        for (String key : keys) {
+            writeKey(output, channel + "/" + key);
+        }
+    }
+
+    private void writeKey(OutputStream output, String key) throws IOException {
+        output.write(key.getBytes());
+        output.write(",".getBytes());
+    }
+
+    @Override
+    public boolean delete(String path) throws Exception {
+        String prefix = StringUtils.appendIfMissing(path, "/");
+        synchronized (deleteLock) {
+            for (Map.Entry<String, SpokeSegment> entry : segments.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    remove(entry.getKey(), entry.getValue(), SpokeSegment::discard);
+                }
+            }
+            FileUtils.deleteDirectory(new File(storagePath + path));
+            if (keyIndex != null) {
+                keyIndex.remove(path);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getLatest(String channel, String limitPath) {
+        logger.trace("latest {} {}", channel, limitPath);
+        ContentKey limitKey = ContentKey.fromUrl(limitPath).get();
+        if (useKeyIndex()) {
+            return keyIndex.getLatest(channel, limitKey);
+        }
+        String limitUrl = limitKey.toUrl();
+        DateTime ttlTime = TimeUtil.now().minusMinutes(HubProperties.getSpokeTtlMinutes());
+        DateTime hourToSearch = limitKey.getTime();
+        while (true) {
+            String hoursPath = channel + "/" + TimeUtil.hours(hourToSearch);
+            String[] minutes = new File(storagePath + hoursPath).list();
+            if (minutes != null) {
+                Arrays.sort(minutes);
+                for (int i = minutes.length - 1; i >= 0; i--) {
+                    SpokeSegment segment = getSegment(hoursPath + "/" + minutes[i], false);
+                    if (segment != null) {
+                        String lower = segment.keys().lower(limitUrl);
+                        if (lower != null) {
+                            return channel + "/" + lower;
+                        }
+                    }
+                }
+            }
+            DateTime previous = hourToSearch.minusHours(1).withMinuteOfHour(59).withSecondOfMinute(59).withMillisOfSecond(999);
+            if (previous.isBefore(ttlTime)) {
+                logger.debug("no latest found for {} {} ", channel, limitPath);
+                return null;
+            }
+            hourToSearch = previous;
+        }
+    }
+
+    @Override
+    public void getNext(String channel, String startKey, int count, OutputStream output) throws IOException {
+        DateTime now = TimeUtil.now();
+        logger.trace("next {} {} {}", channel, startKey, now);
+        ContentKey start = ContentKey.fromUrl(startKey).get();
+        if (useKeyIndex()) {
+            keyIndex.writeNext(channel, start, count, output);
+            return;
+        }
+        String startUrl = start.toUrl();
+        int found = 0;
+        MinutePath minutePath = new MinutePath(start.getTime());
+        do {
+            SpokeSegment segment = getSegment(channel + "/" + minutePath.toUrl(), false);
+            if (segment != null) {
+                for (String key : segment.keys().tailSet(startUrl, false)) {
+                    found++;
+                    writeKey(output, channel + "/" + key);
+                }
+            }
+            minutePath = new MinutePath(minutePath.getTime().plusMinutes(1));
+        } while (found < count && minutePath.getTime().isBefore(now));
+    }
+
+    @Override
+    public void pruneIndex(DateTime writtenBefore) {
+        if (keyIndex != null) {
+            keyIndex.prune(writtenBefore, channel -> new File(storagePath + channel).exists());
+        }
+    }
+
+    /**
+     * A segment is only loaded while holding the minute's lock, after any previous instance for the minute
+     * has been closed, so a new instance never recovers a file which another instance is still appending to.
+     */
+    private SpokeSegment getSegment(String minutePath, boolean create) {
+        SpokeSegment segment = segments.get(minutePath);
+        if (segment != null && !segment.isClosed()) {
+            return segment;
+        }
+        File directory = new File(storagePath + minutePath);
+        if (!create && !new File(directory, SpokeSegment.SEGMENT).exists()) {
+            return null;
+        }
+        Lock lock = minuteLocks.get(minutePath);
+        lock.lock();
+        try {
+            segment = segments.get(minutePath);
+            if (segment == null || segment.isClosed()) {
+                segment = new SpokeSegment(directory);
+                segments.put(minutePath, segment);
+            }
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close segments which have not been accessed recently, persisting their indexes,
+     * and drop any segments which have been removed from disk.
+     * Segments are closed before they are removed, so appends in progress complete first.
+     */
+    @VisibleForTesting
+    void closeIdle(long idleMillis) {
+        for (Map.Entry<String, SpokeSegment> entry : segments.entrySet()) {
+            SpokeSegment segment = entry.getValue();
+            if (!segment.exists()) {
+                remove(entry.getKey(), segment, SpokeSegment::discard);
+            } else if (segment.isIdle(idleMillis)) {
+                remove(entry.getKey(), segment, SpokeSegment::close);
+            }
+        }
+    }
+
+    private void remove(String minutePath, SpokeSegment segment, Consumer<SpokeSegment> closer) {
+        Lock lock = minuteLocks.get(minutePath);
+        lock.lock();
+        try {
+            if (segments.get(minutePath) == segment) {
+                closer.accept(segment);
+                segments.remove(minutePath, segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String minutePath(String[] split) {
+        return StringUtils.join(split, "/", 0, 6);
+    }
+
+    private static String key(String[] split) {
+        return StringUtils.join(split, "/", 1, split.length);
+    }
+
+    private interface SegmentReader {
+        boolean read(SpokeSegment segment, String key) throws IOException;
+    }
+
+    private static class CountingChannel implements WritableByteChannel {
+
+        private final WritableByteChannel output;
+        private long count;
+
+        private CountingChannel(WritableByteChannel output) {
+            this.output = output;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int written = output.write(source);
+            add(written);
+            return written;
+        }
+
+        void add(long written) {
+            count += written;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return output.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+    /**
+     * Regions are counted once they are sent, as a FileRegionChannel only fails on a closed input before writing.
+     */
+    private static class CountingRegionChannel extends CountingChannel implements FileRegionChannel {
+
+        private final FileRegionChannel output;
+
+        private CountingRegionChannel(FileRegionChannel output) {
+            super(output);
+            this.output = output;
+        }
+
+        @Override
+        public void transferFrom(FileChannel input, long position, long count) throws IOException {
+            output.transferFrom(input, position, count);
+            add(count);
+        }
+    }
+
+    private class SegmentSpokeStoreService extends AbstractScheduledService {
+
+        private final long idleMillis = TimeUnit.SECONDS.toMillis(HubProperties.getProperty("spoke.segment.idleSeconds", 120));
+
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                closeIdle(idleMillis);
+            } catch (Exception e) {
+                logger.info("issue closing idle segments", e);
+            }
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            logger.info("closing all segments");
+            closeIdle(0);
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            return Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * SpokeBulkFrames is the wire format for bulk writes between spoke servers.
+ * <p>
+ * A header of magic, version and flags is followed by frames of
+ * keyLength, key, dataLength, data and an optional crc32 of the key and data,
+ * and a keyLength of zero ends the stream.
+ * Both sides stream the frames, so the receiver can insert each item as it is read.
+ * The Reader also accepts the older ObjectOutputStream format, for rolling deploys.
+ */
+class SpokeBulkFrames {
+
+    static final int MAGIC = 0x53424B46;
+    static final byte VERSION = 1;
+    static final byte CHECKSUM = 1;
+    private static final int OBJECT_STREAM_MAGIC = 0xACED;
+    private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024;
+
+    static class Writer implements Closeable {
+
+        private final DataOutputStream output;
+        private final boolean checksum;
+        private final CRC32 crc32 = new CRC32();
+
+        Writer(OutputStream output, boolean checksum) throws IOException {
+            this.output = new DataOutputStream(output);
+            this.checksum = checksum;
+            this.output.writeInt(MAGIC);
+            this.output.writeByte(VERSION);
+            this.output.writeByte(checksum ? CHECKSUM : 0);
+        }
+
+        void write(String key, byte[] data) throws IOException {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(keyBytes.length);
+            output.write(keyBytes);
+            output.writeInt(data.length);
+            output.write(data);
+            if (checksum) {
+                crc32.reset();
+                crc32.update(keyBytes);
+                crc32.update(data);
+                output.writeInt((int) crc32.getValue());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.writeInt(0);
+            output.flush();
+        }
+    }
+
+    /**
+     * Buffers holds the same stream as Writer, with each item's data wrapped rather than copied,
+     * so a bulk write can be sent to every spoke server without building the stream in memory.
+     */
+    static class Buffers {
+
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private final boolean checksum;
+        private final CRC32 crc32 = new CRC32();
+
+        Buffers(boolean checksum) {
+            this.checksum = checksum;
+            ByteBuffer header = ByteBuffer.allocate(6);
+            header.putInt(MAGIC).put(VERSION).put(checksum ? CHECKSUM : 0);
+            add(header);
+        }
+
+        void write(String key, byte[] data) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer frame = ByteBuffer.allocate(8 + keyBytes.length);
+            frame.putInt(keyBytes.length).put(keyBytes).putInt(data.length);
+            add(frame);
+            buffers.add(ByteBuffer.wrap(data));
+            if (checksum) {
+                crc32.reset();
+                crc32.update(keyBytes);
+                crc32.update(data);
+                ByteBuffer crc = ByteBuffer.allocate(4);
+                crc.putInt((int) crc32.getValue());
+                add(crc);
+            }
+        }
+
+        ByteBuffer[] close() {
+            ByteBuffer end = ByteBuffer.allocate(4);
+            end.putInt(0);
+            add(end);
+            return buffers.toArray(new ByteBuffer[buffers.size()]);
+        }
+
+        private void add(ByteBuffer buffer) {
+            buffer.flip();
+            buffers.add(buffer);
+        }
+    }
+
+    /**
+     * Reader iterates the frames in a stream.  The data for each item is only valid until the next call to next().
+     */
+    static class Reader {
+
+        private final DataInputStream input;
+        private final boolean legacy;
+        private final boolean checksum;
+        private final CRC32 crc32 = new CRC32();
+        private int remaining;
+        private byte[] buffer = new byte[8 * 1024];
+        private int length;
+        private String key;
+
+        Reader(InputStream stream) throws IOException {
+            BufferedInputStream buffered = new BufferedInputStream(stream);
+            buffered.mark(2);
+            int first = buffered.read();
+            int second = buffered.read();
+            buffered.reset();
+            legacy = ((first << 8) | second) == OBJECT_STREAM_MAGIC;
+            if (legacy) {
+                input = new DataInputStream(new ObjectInputStream(buffered));
+                checksum = false;
+                remaining = input.readInt();
+            } else {
+                input = new DataInputStream(buffered);
+                int magic = input.readInt();
+                byte version = input.readByte();
+                if (magic != MAGIC || version != VERSION) {
+                    throw new IOException("unexpected bulk header " + Integer.toHexString(magic) + " version " + version);
+                }
+                checksum = (input.readByte() & CHECKSUM) != 0;
+            }
+        }
+
+        boolean next() throws IOException {
+            if (legacy) {
+                if (remaining-- <= 0) {
+                    return false;
+                }
+            }
+            int keyLength = readLength();
+            if (keyLength == 0) {
+                return false;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            input.readFully(keyBytes);
+            key = new String(keyBytes, StandardCharsets.UTF_8);
+            length = readLength();
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            input.readFully(buffer, 0, length);
+            if (checksum) {
+                crc32.reset();
+                crc32.update(keyBytes);
+                crc32.update(buffer, 0, length);
+                if ((int) crc32.getValue() != input.readInt()) {
+                    throw new IOException("checksum mismatch for " + key);
+                }
+            }
+            return true;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        InputStream getData() {
+            return new ByteArrayInputStream(buffer, 0, length);
+        }
+
+        private int readLength() throws IOException {
+            int value = input.readInt();
+            if (value < 0 || value > maxBytes) {
+                throw new IOException("invalid bulk frame length " + value);
+            }
+            return value;
+        }
+    }
+}
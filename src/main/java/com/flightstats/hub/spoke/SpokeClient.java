@@ -0,0 +1,115 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.google.inject.Singleton;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.ByteBufferContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpokeClient makes the calls between spoke servers with a non-blocking Jetty HttpClient.
+ * Each peer has a bounded pool of keep-alive connections, and results are delivered as CompletableFutures,
+ * so callers do not need to park a thread per replica.
+ * Callbacks run on the client's selector threads, and must not block.
+ */
+@Singleton
+class SpokeClient {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeClient.class);
+    private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024;
+
+    private final HttpClient httpClient;
+
+    SpokeClient() {
+        //the spoke servers use internal certificates, like RestClient this trusts all of them
+        httpClient = new HttpClient(new SslContextFactory(true));
+        QueuedThreadPool threadPool = new QueuedThreadPool(HubProperties.getProperty("spoke.client.threads", 32));
+        threadPool.setName("SpokeClient");
+        threadPool.setDaemon(true);
+        httpClient.setExecutor(threadPool);
+        httpClient.setMaxConnectionsPerDestination(HubProperties.getProperty("spoke.client.maxConnections", 64));
+        httpClient.setMaxRequestsQueuedPerDestination(HubProperties.getProperty("spoke.client.maxQueued", 4096));
+        httpClient.setConnectTimeout(TimeUnit.SECONDS.toMillis(HubProperties.getProperty("spoke.client.connectSeconds", 5)));
+        httpClient.setIdleTimeout(TimeUnit.SECONDS.toMillis(HubProperties.getProperty("spoke.client.idleSeconds", 60)));
+        httpClient.setFollowRedirects(false);
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new RuntimeException("unable to start spoke client", e);
+        }
+    }
+
+    CompletableFuture<SpokeResponse> get(String uri, int timeoutSeconds) {
+        return send(httpClient.newRequest(uri).method(HttpMethod.GET), timeoutSeconds);
+    }
+
+    /**
+     * Each request reads its own view of the buffers, so the same buffers can be sent to every server.
+     */
+    CompletableFuture<SpokeResponse> put(String uri, ByteBuffer[] payload, int timeoutSeconds) {
+        Request request = httpClient.newRequest(uri)
+                .method(HttpMethod.PUT)
+                .content(new ByteBufferContentProvider(payload), "application/octet-stream");
+        return send(request, timeoutSeconds);
+    }
+
+    CompletableFuture<SpokeResponse> delete(String uri, int timeoutSeconds) {
+        return send(httpClient.newRequest(uri).method(HttpMethod.DELETE), timeoutSeconds);
+    }
+
+    private CompletableFuture<SpokeResponse> send(Request request, int timeoutSeconds) {
+        CompletableFuture<SpokeResponse> future = new CompletableFuture<>();
+        request.timeout(timeoutSeconds, TimeUnit.SECONDS)
+                .send(new BufferingResponseListener(maxBytes) {
+                    @Override
+                    public void onComplete(Result result) {
+                        if (result.isFailed()) {
+                            logger.trace("failed {} {}", request.getURI(), result.getFailure().getMessage());
+                            future.completeExceptionally(result.getFailure());
+                        } else {
+                            future.complete(new SpokeResponse(result.getResponse().getStatus(), getContent()));
+                        }
+                    }
+                });
+        return future;
+    }
+
+    static class SpokeResponse {
+        private final int status;
+        private final byte[] content;
+
+        SpokeResponse(int status, byte[] content) {
+            this.status = status;
+            this.content = content;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        byte[] getContent() {
+            return content;
+        }
+
+        String getContentAsString() {
+            return new String(content, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            return "SpokeResponse{status=" + status + ", bytes=" + content.length + "}";
+        }
+    }
+}
@@ -18,7 +18,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -30,6 +32,15 @@ import java.util.*;
 public class SpokeContentDao implements ContentDao {
 
     private final static Logger logger = LoggerFactory.getLogger(SpokeContentDao.class);
+    //lengths and a key path, which sizes the ObjectOutputStream buffer to avoid copies as it grows
+    private static final int FRAME_OVERHEAD = 64;
+    private static final boolean bulkChecksum = HubProperties.getProperty("spoke.bulk.checksum", true);
+    /*
+     * Older spoke servers only read the ObjectOutputStream format, while every server with SpokeBulkFrames reads both.
+     * Once a release with SpokeBulkFrames is on every server in a cluster, set spoke.bulk.frames=true there,
+     * and the following release changes the default to true.
+     */
+    private static final boolean bulkFrames = HubProperties.getProperty("spoke.bulk.frames", false);
 
     @Inject
     private RemoteSpokeStore spokeStore;
@@ -52,24 +63,25 @@ public class SpokeContentDao implements ContentDao {
         try {
             SortedSet<ContentKey> keys = new TreeSet<>();
             List<Content> items = bulkContent.getItems();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream stream = new ObjectOutputStream(baos);
-            stream.writeInt(items.size());
             logger.debug("writing {} items to master {}", items.size(), bulkContent.getMasterKey());
             for (Content content : items) {
                 content.packageStream();
-                String itemKey = content.getContentKey().get().toUrl();
-                stream.writeInt(itemKey.length());
-                stream.write(itemKey.getBytes());
-                stream.writeInt(content.getData().length);
-                stream.write(content.getData());
-                keys.add(content.getContentKey().get());
             }
-            stream.flush();
+            ByteBuffer[] payload;
+            if (bulkFrames) {
+                SpokeBulkFrames.Buffers buffers = new SpokeBulkFrames.Buffers(bulkChecksum);
+                for (Content content : items) {
+                    buffers.write(content.getContentKey().get().toUrl(), content.getData());
+                    keys.add(content.getContentKey().get());
+                }
+                payload = buffers.close();
+            } else {
+                payload = new ByteBuffer[]{ByteBuffer.wrap(writeObjectStream(items, keys))};
+            }
             traces.add("SpokeContentDao.writeBulk marshalled");
 
             logger.trace("writing items {} to channel {}", items.size(), channelName);
-            if (!spokeStore.insert(channelName, baos.toByteArray(), "bulkKey", channelName)) {
+            if (!spokeStore.insert(channelName, payload, "bulkKey", channelName)) {
                 throw new FailedWriteException("unable to write bulk to spoke " + channelName);
             }
             traces.add("SpokeContentDao.writeBulk completed", keys);
@@ -84,6 +96,26 @@ public class SpokeContentDao implements ContentDao {
         }
     }
 
+    private byte[] writeObjectStream(List<Content> items, SortedSet<ContentKey> keys) throws IOException {
+        int size = 0;
+        for (Content content : items) {
+            size += content.getData().length + FRAME_OVERHEAD;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+        ObjectOutputStream stream = new ObjectOutputStream(baos);
+        stream.writeInt(items.size());
+        for (Content content : items) {
+            String itemKey = content.getContentKey().get().toUrl();
+            stream.writeInt(itemKey.length());
+            stream.write(itemKey.getBytes());
+            stream.writeInt(content.getData().length);
+            stream.write(content.getData());
+            keys.add(content.getContentKey().get());
+        }
+        stream.flush();
+        return baos.toByteArray();
+    }
+
     private String getPath(String channelName, ContentKey key) {
         return channelName + "/" + key.toUrl();
     }
@@ -3,7 +3,6 @@ package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProvider;
 import com.flightstats.hub.model.SingleTrace;
-import com.google.common.io.ByteStreams;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,7 +20,7 @@ import java.util.Arrays;
 public class SpokeInternalResource {
 
     private final static Logger logger = LoggerFactory.getLogger(SpokeInternalResource.class);
-    private static final FileSpokeStore spokeStore = HubProvider.getInstance(FileSpokeStore.class);
+    private static final SpokeStore spokeStore = HubProvider.getInstance(SpokeStore.class);
     private static final RemoteSpokeStore remoteSpokeStore = HubProvider.getInstance(RemoteSpokeStore.class);
     @Context
     private UriInfo uriInfo;
@@ -74,13 +73,10 @@ public class SpokeInternalResource {
     public Response putBulk(@PathParam("channel") String channel, InputStream input) {
         try {
             long start = System.currentTimeMillis();
-            ObjectInputStream stream = new ObjectInputStream(input);
-            int items = stream.readInt();
-            for (int i = 0; i < items; i++) {
-                String keyPath = new String(readByesFully(stream));
-                byte[] data = readByesFully(stream);
-                String itemPath = channel + "/" + keyPath;
-                if (!spokeStore.insert(itemPath, new ByteArrayInputStream(data))) {
+            SpokeBulkFrames.Reader reader = new SpokeBulkFrames.Reader(input);
+            while (reader.next()) {
+                String itemPath = channel + "/" + reader.getKey();
+                if (!spokeStore.insert(itemPath, reader.getData())) {
                     logger.warn("what happened?!?! {}", channel);
                     return Response
                             .status(Response.Status.INTERNAL_SERVER_ERROR)
@@ -102,13 +98,6 @@ public class SpokeInternalResource {
         }
     }
 
-    private byte[] readByesFully(ObjectInputStream stream) throws IOException {
-        int size = stream.readInt();
-        byte[] data = new byte[size];
-        ByteStreams.readFully(stream, data);
-        return data;
-    }
-
     private Response getResponse(String path) {
         logger.trace("time {}", path);
         try {
@@ -0,0 +1,200 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * SpokeKeyIndex holds the keys for each channel in memory, so time bucket, latest and next queries
+ * can be answered without listing directories.
+ * Keys are in the form yyyy/MM/dd/HH/mm/ss/SSS/hash, which sort in time order, and map to the time they were written.
+ * The index is rebuilt from disk at startup, and should not be used until isReady() is true.
+ */
+class SpokeKeyIndex {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeKeyIndex.class);
+    private static final int MINUTE_LENGTH = "yyyy/MM/dd/HH/mm".length();
+
+    private final Map<String, ConcurrentSkipListMap<String, Long>> channels = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    boolean isReady() {
+        return ready;
+    }
+
+    void setReady() {
+        ready = true;
+    }
+
+    /**
+     * @param path channel/yyyy/MM/dd/HH/mm/ss/SSS/hash
+     */
+    void add(String path, long written) {
+        String[] split = StringUtils.split(path, "/");
+        if (split.length < 9) {
+            return;
+        }
+        add(split[0], StringUtils.join(split, "/", 1, split.length), written);
+    }
+
+    void add(String channel, String key, long written) {
+        channels.computeIfAbsent(channel, name -> new ConcurrentSkipListMap<>()).put(key, written);
+    }
+
+    /**
+     * Remove either an entire channel, or the keys under a time path within the channel.
+     */
+    void remove(String path) {
+        String[] split = StringUtils.split(path, "/");
+        if (split.length == 0) {
+            return;
+        }
+        if (split.length == 1) {
+            channels.remove(split[0]);
+        } else {
+            ConcurrentSkipListMap<String, Long> keys = channels.get(split[0]);
+            if (keys != null) {
+                String prefix = StringUtils.join(split, "/", 1, split.length);
+                keys.subMap(prefix, true, prefix + Character.MAX_VALUE, false).clear();
+            }
+        }
+    }
+
+    /**
+     * Remove all of the keys for the channel up to, and including, the minute.
+     */
+    void removeThrough(String channel, DateTime minute) {
+        ConcurrentSkipListMap<String, Long> keys = channels.get(channel);
+        if (keys != null) {
+            keys.headMap(TimeUtil.minutes(minute) + "/" + Character.MAX_VALUE).clear();
+        }
+    }
+
+    /**
+     * @param path channel/yyyy[/MM[/dd[/HH[/mm[/ss]]]]]
+     */
+    List<String> keysInBucket(String path) {
+        String[] split = StringUtils.split(path, "/");
+        ConcurrentSkipListMap<String, Long> keys = channels.get(split[0]);
+        if (keys == null || split.length < 2) {
+            return Collections.emptyList();
+        }
+        String prefix = StringUtils.join(split, "/", 1, split.length) + "/";
+        return new ArrayList<>(keys.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet());
+    }
+
+    /**
+     * @return the greatest key less than the limitKey, and not before the earliest key, or null
+     */
+    String getLatest(String channel, String limitKey, String earliestKey) {
+        ConcurrentSkipListMap<String, Long> keys = channels.get(channel);
+        if (keys == null) {
+            return null;
+        }
+        String lower = keys.lowerKey(limitKey);
+        if (lower == null || lower.compareTo(earliestKey) < 0) {
+            return null;
+        }
+        return lower;
+    }
+
+    /**
+     * Returns keys after the startKey and before the endKey.  To match the behavior of FileSpokeStore,
+     * once count is reached, the remainder of that minute is also included.
+     */
+    List<String> getNext(String channel, String startKey, String endKey, int count) {
+        ConcurrentSkipListMap<String, Long> keys = channels.get(channel);
+        List<String> found = new ArrayList<>();
+        if (keys == null || startKey.compareTo(endKey) >= 0) {
+            return found;
+        }
+        String lastMinute = null;
+        for (String key : keys.subMap(startKey, false, endKey, false).keySet()) {
+            String minute = key.substring(0, MINUTE_LENGTH);
+            if (found.size() >= count && !minute.equals(lastMinute)) {
+                break;
+            }
+            found.add(key);
+            lastMinute = minute;
+        }
+        return found;
+    }
+
+    /**
+     * Remove keys written before writtenBefore, and channels which no longer exist.
+     */
+    void prune(DateTime writtenBefore, Predicate<String> channelExists) {
+        long limit = writtenBefore.getMillis();
+        int removed = 0;
+        for (Map.Entry<String, ConcurrentSkipListMap<String, Long>> entry : channels.entrySet()) {
+            if (!channelExists.test(entry.getKey())) {
+                removed += entry.getValue().size();
+                channels.remove(entry.getKey(), entry.getValue());
+                continue;
+            }
+            NavigableMap<String, Long> keys = entry.getValue();
+            for (Map.Entry<String, Long> key : keys.entrySet()) {
+                if (key.getValue() < limit && keys.remove(key.getKey(), key.getValue())) {
+                    removed++;
+                }
+            }
+        }
+        logger.debug("pruned {} keys written before {}", removed, writtenBefore);
+    }
+
+    void writeKeysInBucket(String path, OutputStream output) throws IOException {
+        String channel = StringUtils.split(path, "/")[0];
+        for (String key : keysInBucket(path)) {
+            writeKey(output, channel + "/" + key);
+        }
+    }
+
+    /**
+     * This searches back to the start of the hour containing the spoke ttl, like FileSpokeStore.
+     *
+     * @return channel/key of the latest key before the limitKey, or null
+     */
+    String getLatest(String channel, ContentKey limitKey) {
+        DateTime earliest = TimeUtil.now().minusMinutes(HubProperties.getSpokeTtlMinutes());
+        if (limitKey.getTime().isBefore(earliest)) {
+            earliest = limitKey.getTime();
+        }
+        String latest = getLatest(channel, limitKey.toUrl(), TimeUtil.hours(earliest));
+        if (latest == null) {
+            return null;
+        }
+        return channel + "/" + latest;
+    }
+
+    void writeNext(String channel, ContentKey startKey, int count, OutputStream output) throws IOException {
+        DateTime end = TimeUtil.Unit.MINUTES.round(TimeUtil.now()).plusMinutes(1);
+        DateTime startMinute = TimeUtil.Unit.MINUTES.round(startKey.getTime());
+        if (!startMinute.isBefore(end)) {
+            end = startMinute.plusMinutes(1);
+        }
+        for (String key : getNext(channel, startKey.toUrl(), TimeUtil.millis(end), count)) {
+            writeKey(output, channel + "/" + key);
+        }
+    }
+
+    private void writeKey(OutputStream output, String key) throws IOException {
+        output.write(key.getBytes());
+        output.write(",".getBytes());
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.MetricsService;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.BufferUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.NotFoundException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * SpokePayloadHandler serves GET /internal/spoke/payload/{path} ahead of Jersey, writing the stored bytes
+ * from the SpokeStore straight to Jetty's output, rather than copying them through heap buffers in a StreamingOutput.
+ * Payloads of at least a buffer are sent as a mapped region of the file, smaller ones are read into a pooled direct buffer.
+ * The payloads are already compressed by ContentMarshaller, so they are sent without content encoding.
+ * Jersey's filters are skipped, so the request is timed and traced here.
+ * The response matches SpokeInternalResource.getPayload, which is still used if spoke.zeroCopyReads=false.
+ */
+public class SpokePayloadHandler extends AbstractHandler {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokePayloadHandler.class);
+    private static final String PAYLOAD = "/internal/spoke/payload/";
+    private static final String METHOD = "method:GET";
+    private static final String CALL = "call:GET/internal/spoke/payload/_path__";
+
+    private final SpokeStore spokeStore;
+    private final MetricsService metricsService;
+
+    public SpokePayloadHandler(SpokeStore spokeStore, MetricsService metricsService) {
+        this.spokeStore = spokeStore;
+        this.metricsService = metricsService;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if (!HttpMethod.GET.is(request.getMethod()) || !target.startsWith(PAYLOAD)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        baseRequest.setHandled(true);
+        String path = target.substring(PAYLOAD.length());
+        boolean trace = Boolean.valueOf(request.getParameter("trace"));
+        ActiveTraces.start(request.getRequestURI(), request.getMethod(), request.getHeader("X-Forwarded-For"));
+        if (trace) {
+            ActiveTraces.captureAll();
+        }
+        int status = HttpServletResponse.SC_OK;
+        response.setStatus(status);
+        response.setContentType("application/octet-stream");
+        OutputChannel output = new OutputChannel(baseRequest);
+        try {
+            try {
+                spokeStore.read(path, output);
+            } catch (NotFoundException e) {
+                logger.debug("not found {}", e.getMessage());
+            }
+            output.close();
+        } catch (IOException | RuntimeException e) {
+            //an empty 200 means not found, so failures go to Jetty, which sends a 500 or aborts the response
+            logger.info("unable to send " + path, e);
+            status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            throw e;
+        } finally {
+            output.release();
+            ActiveTraces.end(trace, status);
+            metricsService.time("request", start, METHOD, CALL);
+            if (status != HttpServletResponse.SC_OK) {
+                metricsService.count("errors", 1, "errorCode:" + status, CALL);
+            }
+        }
+    }
+
+    /**
+     * Collects written bytes and small file regions in a pooled direct buffer, so the socket is written in full buffers.
+     * Larger regions are mapped, and written by Jetty directly from the page cache.
+     */
+    private static class OutputChannel implements FileRegionChannel {
+
+        private final HttpOutput output;
+        private final ByteBufferPool pool;
+        private ByteBuffer buffer;
+
+        private OutputChannel(Request request) {
+            output = request.getResponse().getHttpOutput();
+            pool = request.getHttpChannel().getByteBufferPool();
+            buffer = pool.acquire(output.getBufferSize(), true);
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int remaining = source.remaining();
+            while (source.hasRemaining()) {
+                BufferUtil.append(buffer, source);
+                if (BufferUtil.isFull(buffer)) {
+                    flush();
+                }
+            }
+            return remaining;
+        }
+
+        /**
+         * Small regions are read whole before any of them is flushed, and large ones are mapped before writing,
+         * so a closed input fails before the region is written.
+         */
+        @Override
+        public void transferFrom(FileChannel input, long position, long count) throws IOException {
+            if (count < buffer.capacity()) {
+                read(input, position, count);
+                return;
+            }
+            ByteBuffer region = input.map(FileChannel.MapMode.READ_ONLY, position, count);
+            if (BufferUtil.hasContent(buffer)) {
+                flush();
+            }
+            output.write(region);
+        }
+
+        private void read(FileChannel input, long position, long count) throws IOException {
+            if (BufferUtil.space(buffer) < count) {
+                flush();
+            }
+            long end = position + count;
+            int flip = BufferUtil.flipToFill(buffer);
+            try {
+                buffer.limit(buffer.position() + (int) count);
+                while (position < end) {
+                    int read = input.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("unable to read " + (end - position) + " bytes at " + position);
+                    }
+                    position += read;
+                }
+            } finally {
+                BufferUtil.flipToFlush(buffer, flip);
+            }
+        }
+
+        private void flush() throws IOException {
+            output.write(buffer);
+            BufferUtil.clear(buffer);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !output.isClosed();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (BufferUtil.hasContent(buffer)) {
+                flush();
+            }
+            output.close();
+        }
+
+        private void release() {
+            if (buffer != null) {
+                pool.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.flightstats.hub.spoke;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * A SpokeSegment is the append-only file holding every item for a single channel minute.
+ * Each record is framed as crc, keyLength, dataLength, key, data.
+ * Items are only visible to readers once the full record has been written and added to the offset index,
+ * which replaces the executable bit used by FileSpokeStore.
+ * The index is written next to the segment when it is closed, anything appended after that is recovered
+ * by scanning, and a torn tail left by a crash is truncated.
+ */
+class SpokeSegment {
+
+    static final String SEGMENT = "segment";
+    static final String INDEX = "index";
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeSegment.class);
+    private static final int HEADER = 12;
+    private static final int MAX_KEY = 1024;
+    private static final int BUFFER = 64 * 1024;
+
+    private final File directory;
+    private final File segmentFile;
+    private final File indexFile;
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private FileChannel channel;
+    private long size;
+    private boolean dirty;
+    private volatile boolean closed;
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    SpokeSegment(File directory) throws IOException {
+        this.directory = directory;
+        this.segmentFile = new File(directory, SEGMENT);
+        this.indexFile = new File(directory, INDEX);
+        load();
+    }
+
+    private synchronized void load() throws IOException {
+        if (!segmentFile.exists()) {
+            return;
+        }
+        long indexed = readIndex();
+        channel = open();
+        long fileSize = channel.size();
+        if (indexed > fileSize) {
+            logger.warn("index is beyond segment {} {} {}", segmentFile, indexed, fileSize);
+            entries.clear();
+            indexed = 0;
+        }
+        size = recover(indexed, fileSize);
+        if (size < fileSize) {
+            logger.warn("truncating torn segment {} from {} to {}", segmentFile, fileSize, size);
+            channel.truncate(size);
+        }
+        channel.position(size);
+        dirty = size > indexed;
+    }
+
+    private long readIndex() {
+        if (!indexFile.exists()) {
+            return 0;
+        }
+        long end = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = input.readUTF();
+                Entry entry = new Entry(input.readLong(), input.readInt(), input.readInt());
+                entries.put(key, entry);
+                end = Math.max(end, entry.end());
+            }
+            return end;
+        } catch (IOException e) {
+            logger.warn("unable to read index, scanning " + segmentFile, e);
+            entries.clear();
+            return 0;
+        }
+    }
+
+    /**
+     * Scan forward from the position, adding each complete record with a valid crc to the index.
+     *
+     * @return the end of the last valid record
+     */
+    private long recover(long position, long fileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (position + HEADER <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int crc = header.getInt();
+            int keyLength = header.getInt();
+            int length = header.getInt();
+            Entry entry = new Entry(position, keyLength, length);
+            if (keyLength <= 0 || keyLength > MAX_KEY || length < 0 || entry.end() > fileSize) {
+                break;
+            }
+            ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+            readFully(keyBuffer, position + HEADER);
+            CRC32 check = new CRC32();
+            check.update(keyBuffer.array());
+            updateCrc(check, entry.dataPosition(), length);
+            if ((int) check.getValue() != crc) {
+                break;
+            }
+            entries.put(new String(keyBuffer.array(), StandardCharsets.UTF_8), entry);
+            position = entry.end();
+        }
+        return position;
+    }
+
+    private void updateCrc(CRC32 check, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(BUFFER, Math.max(length, 1)));
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            readFully(buffer, position);
+            check.update(buffer.array(), 0, buffer.limit());
+            position += buffer.limit();
+            remaining -= buffer.limit();
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of " + segmentFile);
+            }
+            position += read;
+        }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (channel == null || !channel.isOpen()) {
+            if (size > 0 && !exists()) {
+                throw new FileNotFoundException("segment was removed " + segmentFile);
+            }
+            channel = open();
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+            channel.position(size);
+        }
+        return channel;
+    }
+
+    private FileChannel open() throws IOException {
+        directory.mkdirs();
+        return FileChannel.open(segmentFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    synchronized boolean append(String key, byte[] data) throws IOException {
+        lastAccess = System.currentTimeMillis();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(data);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt((int) crc.getValue()).putInt(keyBytes.length).putInt(data.length);
+        header.flip();
+        ByteBuffer[] buffers = {header, ByteBuffer.wrap(keyBytes), ByteBuffer.wrap(data)};
+        FileChannel channel = channel();
+        Entry entry = new Entry(size, keyBytes.length, data.length);
+        long total = entry.end() - size;
+        long written = 0;
+        try {
+            while (written < total) {
+                written += channel.write(buffers);
+            }
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            channel.truncate(size);
+            channel.position(size);
+            throw e;
+        }
+        entries.put(key, entry);
+        size = entry.end();
+        dirty = true;
+        return true;
+    }
+
+    boolean read(String key, OutputStream output) throws IOException {
+        lastAccess = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        FileChannel channel = channel();
+        byte[] bytes = new byte[Math.min(BUFFER, Math.max(entry.length, 1))];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = entry.dataPosition();
+        long remaining = entry.length;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(bytes.length, remaining));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of " + segmentFile);
+            }
+            output.write(bytes, 0, read);
+            position += read;
+            remaining -= read;
+        }
+        return true;
+    }
+
+    boolean read(String key, WritableByteChannel output) throws IOException {
+        lastAccess = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        FileSpokeStore.transferTo(channel(), entry.dataPosition(), entry.length, output);
+        return true;
+    }
+
+    /**
+     * The keys in this segment, in the form yyyy/MM/dd/HH/mm/ss/SSS/hash
+     */
+    NavigableSet<String> keys() {
+        lastAccess = System.currentTimeMillis();
+        return entries.keySet();
+    }
+
+    boolean exists() {
+        return segmentFile.exists();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isIdle(long idleMillis) {
+        return System.currentTimeMillis() - lastAccess >= idleMillis;
+    }
+
+    /**
+     * Close the file handle and persist the offset index.
+     * Once closed, a segment can not be reused, callers need to load a new instance.
+     */
+    synchronized void close() {
+        if (dirty && exists()) {
+            writeIndex();
+        }
+        discard();
+    }
+
+    /**
+     * Close the file handle without persisting the index.
+     */
+    synchronized void discard() {
+        closed = true;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.info("unable to close " + segmentFile, e);
+        }
+    }
+
+    private void writeIndex() {
+        File temp = null;
+        try {
+            temp = File.createTempFile(INDEX, ".tmp", directory);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                output.writeInt(entries.size());
+                for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    output.writeUTF(mapEntry.getKey());
+                    output.writeLong(entry.offset);
+                    output.writeInt(entry.keyLength);
+                    output.writeInt(entry.length);
+                }
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            logger.info("unable to write index " + indexFile, e);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final long offset;
+        private final int keyLength;
+        private final int length;
+
+        private Entry(long offset, int keyLength, int length) {
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.length = length;
+        }
+
+        private long dataPosition() {
+            return offset + HEADER + keyLength;
+        }
+
+        private long end() {
+            return dataPosition() + length;
+        }
+    }
+}
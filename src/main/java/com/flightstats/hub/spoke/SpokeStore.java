@@ -0,0 +1,66 @@
+package com.flightstats.hub.spoke;
+
+import org.joda.time.DateTime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The local storage used by a Spoke server.
+ * Paths are in the form channel/yyyy/MM/dd/HH/mm/ss/SSS/hash.
+ * The implementation is selected with the spoke.storeType property.
+ */
+public interface SpokeStore {
+
+    default boolean insert(String path, byte[] payload) {
+        return insert(path, new ByteArrayInputStream(payload));
+    }
+
+    boolean insert(String path, InputStream input);
+
+    default byte[] read(String path) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        read(path, baos);
+        return baos.toByteArray();
+    }
+
+    void read(String path, OutputStream output);
+
+    /**
+     * Write the payload to the channel.  File based implementations override this to transfer
+     * directly from the file, without copying through heap buffers.
+     */
+    default void read(String path, WritableByteChannel output) throws IOException {
+        read(path, Channels.newOutputStream(output));
+    }
+
+    default String readKeysInBucket(String path) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        readKeysInBucket(path, baos);
+        return baos.toString();
+    }
+
+    void readKeysInBucket(String path, OutputStream output);
+
+    boolean delete(String path) throws Exception;
+
+    String getLatest(String channel, String limitPath);
+
+    /**
+     * This may return more than the request count, as this does not do any sorting.
+     */
+    void getNext(String channel, String startKey, int count, OutputStream output) throws IOException;
+
+    /**
+     * Remove in-memory references to items written before writtenBefore, after TTL enforcement has removed them,
+     * along with any channels which no longer exist on disk.
+     */
+    default void pruneIndex(DateTime writtenBefore) {
+    }
+
+}
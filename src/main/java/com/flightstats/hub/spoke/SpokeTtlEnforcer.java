@@ -2,10 +2,12 @@ package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.app.InFlightService;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.TtlEnforcer;
+import com.flightstats.hub.dao.TtlReaper;
+import com.flightstats.hub.metrics.MetricsService;
 import com.flightstats.hub.model.ChannelConfig;
-import com.flightstats.hub.util.Commander;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.inject.Inject;
@@ -24,6 +26,12 @@ public class SpokeTtlEnforcer {
     private final int ttlMinutes = HubProperties.getSpokeTtlMinutes() + 1;
     @Inject
     private ChannelService channelService;
+    @Inject
+    private SpokeStore spokeStore;
+    @Inject
+    private InFlightService inFlightService;
+    @Inject
+    private MetricsService metricsService;
 
     @Inject
     public SpokeTtlEnforcer() {
@@ -32,17 +40,17 @@ public class SpokeTtlEnforcer {
         }
     }
 
-    private Consumer<ChannelConfig> handleCleanup() {
+    private Consumer<ChannelConfig> handleCleanup(TtlReaper reaper) {
         return channel -> {
             String channelPath = storagePath + "/" + channel.getName();
             if (channel.isLive()) {
                 DateTime ttlDateTime = TimeUtil.stable().minusMinutes(ttlMinutes + 1);
                 for (int i = 0; i < 2; i++) {
-                    Commander.run(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.minutes(ttlDateTime.minusMinutes(i))}, 1);
-                    Commander.run(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.hours(ttlDateTime.minusHours(i + 1))}, 5);
+                    reaper.delete(channelPath + "/" + TimeUtil.minutes(ttlDateTime.minusMinutes(i)));
+                    reaper.delete(channelPath + "/" + TimeUtil.hours(ttlDateTime.minusHours(i + 1)));
                 }
             } else {
-                Commander.run(new String[]{"find", channelPath, "-mmin", "+" + ttlMinutes, "-delete"}, 1);
+                reaper.deleteModifiedBefore(channelPath, TimeUtil.now().minusMinutes(ttlMinutes).getMillis());
             }
         };
     }
@@ -53,7 +61,10 @@ public class SpokeTtlEnforcer {
             try {
                 long start = System.currentTimeMillis();
                 logger.info("running ttl cleanup");
-                TtlEnforcer.enforce(storagePath, channelService, handleCleanup());
+                TtlReaper reaper = new TtlReaper("spoke", inFlightService, metricsService);
+                TtlEnforcer.enforce(storagePath, channelService, handleCleanup(reaper), reaper);
+                reaper.report();
+                spokeStore.pruneIndex(TimeUtil.now().minusMinutes(ttlMinutes + 1));
                 logger.info("completed ttl cleanup {}", (System.currentTimeMillis() - start));
             } catch (Exception e) {
                 logger.info("issue cleaning up spoke", e);
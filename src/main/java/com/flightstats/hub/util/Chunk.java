@@ -1,5 +1,8 @@
 package com.flightstats.hub.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
 public class Chunk {
 
     private int count;
@@ -8,9 +11,13 @@ public class Chunk {
     private int index = 0;
 
     Chunk(int count, int chunkSize) {
+        this(count, new byte[chunkSize]);
+    }
+
+    Chunk(int count, byte[] bytes) {
         this.count = count;
-        this.chunkSize = chunkSize;
-        bytes = new byte[chunkSize];
+        this.chunkSize = bytes.length;
+        this.bytes = bytes;
     }
 
     /**
@@ -26,6 +33,16 @@ public class Chunk {
         return true;
     }
 
+    /**
+     * @return the number of bytes added, which is less than length when the chunk fills.
+     */
+    int add(byte[] source, int offset, int length) {
+        int added = Math.min(length, chunkSize - index);
+        System.arraycopy(source, offset, bytes, index, added);
+        index += added;
+        return added;
+    }
+
     boolean isFull() {
         return index >= chunkSize;
     }
@@ -43,7 +60,22 @@ public class Chunk {
         return partial;
     }
 
+    /**
+     * Reads the added bytes without copying them.
+     */
+    public InputStream getStream() {
+        return new ByteArrayInputStream(bytes, 0, index);
+    }
+
+    public int getLength() {
+        return index;
+    }
+
+    byte[] getBuffer() {
+        return bytes;
+    }
+
     public int getCount() {
         return count;
     }
-}
\ No newline at end of file
+}
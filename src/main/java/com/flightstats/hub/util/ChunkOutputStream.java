@@ -1,9 +1,11 @@
 package com.flightstats.hub.util;
 
+import com.flightstats.hub.app.HubProperties;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,40 +15,97 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.function.Function;
 
+/**
+ * ChunkOutputStream copies into pooled chunk buffers, and sends each full chunk to the chunkFunction on a shared pool.
+ * Each stream has at most threads chunks waiting or in flight, so a fast writer blocks rather than filling the heap.
+ */
 public class ChunkOutputStream extends OutputStream {
     private static final Logger logger = LoggerFactory.getLogger(ChunkOutputStream.class);
 
-    private ListeningExecutorService service;
+    private static final ListeningExecutorService service = MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(HubProperties.getProperty("s3.large.poolThreads", 20),
+                    new ThreadFactoryBuilder().setNameFormat("ChunkOutputStream-%d").setDaemon(true).build()));
+
+    private final Semaphore inFlight;
     private List<ListenableFuture<String>> futures = new ArrayList<>();
     private int count = 1;
-    private Chunk chunk = new Chunk(count, ChunkStrategy.getSize(count));
+    private Chunk chunk = ChunkPool.take(count, ChunkStrategy.getSize(count));
     private Function<Chunk, String> chunkFunction;
 
     public ChunkOutputStream(int threads, Function<Chunk, String> chunkFunction) {
         this.chunkFunction = chunkFunction;
-        service = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+        inFlight = new Semaphore(Math.max(1, threads));
         logger.info("creating ChunkOutputStream with {} threads", threads);
     }
 
     public void write(int b) throws IOException {
         if (!chunk.add(b)) {
-            sendChunk(chunk);
-            count++;
-            chunk = new Chunk(count, ChunkStrategy.getSize(count));
+            nextChunk();
             chunk.add(b);
         }
     }
 
-    private void sendChunk(Chunk chunk) {
-        futures.add(service.submit(() -> chunkFunction.apply(chunk)));
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (chunk.isFull()) {
+                nextChunk();
+            }
+            int added = chunk.add(bytes, offset, length);
+            offset += added;
+            length -= added;
+        }
+    }
+
+    private void nextChunk() throws IOException {
+        sendChunk(chunk);
+        count++;
+        chunk = ChunkPool.take(count, ChunkStrategy.getSize(count));
+    }
+
+    private void sendChunk(Chunk chunk) throws IOException {
+        checkFailed();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        }
+        futures.add(service.submit(() -> {
+            try {
+                return chunkFunction.apply(chunk);
+            } finally {
+                ChunkPool.give(chunk);
+                inFlight.release();
+            }
+        }));
+    }
+
+    /**
+     * Stop reading the source once a chunk has failed, since the upload can not complete.
+     */
+    private void checkFailed() throws IOException {
+        for (ListenableFuture<String> future : futures) {
+            if (future.isDone()) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    throw new RuntimeInterruptedException(e);
+                } catch (ExecutionException e) {
+                    throw new IOException("unable to send chunk", e.getCause());
+                }
+            }
+        }
     }
 
     @Override
     public void close() throws IOException {
         if (chunk.hasData()) {
             sendChunk(chunk);
+        } else {
+            ChunkPool.give(chunk);
         }
         ListenableFuture<String> allFutures = Futures.whenAllSucceed(futures).call(() -> "ok");
         try {
@@ -55,8 +114,6 @@ public class ChunkOutputStream extends OutputStream {
             throw new RuntimeInterruptedException(e);
         } catch (ExecutionException e) {
             throw new RuntimeException(e);
-        } finally {
-            service.shutdown();
         }
     }
 }
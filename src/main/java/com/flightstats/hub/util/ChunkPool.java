@@ -0,0 +1,50 @@
+package com.flightstats.hub.util;
+
+import com.flightstats.hub.app.HubProperties;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ChunkPool keeps the buffers of finished chunks, so the next large item can reuse them.
+ * Chunk sizes come from ChunkStrategy, so buffers are pooled by their exact size, up to s3.chunkPoolMB in total.
+ */
+class ChunkPool {
+
+    private static final long maxBytes = HubProperties.getProperty("s3.chunkPoolMB", 160) * 1024L * 1024L;
+    private static final Map<Integer, Deque<byte[]>> buffers = new HashMap<>();
+    private static long pooledBytes;
+
+    static Chunk take(int count, int size) {
+        byte[] buffer = null;
+        synchronized (buffers) {
+            Deque<byte[]> deque = buffers.get(size);
+            if (deque != null && !deque.isEmpty()) {
+                buffer = deque.pop();
+                pooledBytes -= size;
+            }
+        }
+        if (buffer == null) {
+            buffer = new byte[size];
+        }
+        return new Chunk(count, buffer);
+    }
+
+    static void give(Chunk chunk) {
+        byte[] buffer = chunk.getBuffer();
+        synchronized (buffers) {
+            if (pooledBytes + buffer.length <= maxBytes) {
+                buffers.computeIfAbsent(buffer.length, size -> new ArrayDeque<>()).push(buffer);
+                pooledBytes += buffer.length;
+            }
+        }
+    }
+
+    static long getPooledBytes() {
+        synchronized (buffers) {
+            return pooledBytes;
+        }
+    }
+}
@@ -2,43 +2,40 @@ package com.flightstats.hub.util;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * ObjectRing keeps the latest items without locking.
+ * Writers claim a slot with a counter, so getItems can miss an item which is being written.
+ */
 public class ObjectRing<T> {
 
-    private T[] items;
-    private int position = 0;
-    private int totalSize = 0;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicInteger totalSize = new AtomicInteger();
 
     public ObjectRing(int size) {
-        items = (T[]) new Object[size];
+        items = new AtomicReferenceArray<>(size);
     }
 
-    public synchronized void put(T item) {
-        if (position == items.length) {
-            position = 0;
-        }
-        items[position] = item;
-        position++;
-        totalSize++;
+    public void put(T item) {
+        int index = totalSize.getAndIncrement();
+        items.lazySet(Math.floorMod(index, items.length()), item);
     }
 
     public List<T> getItems() {
         List<T> list = new ArrayList<>();
-        int start = position;
-        for (int i = start; i < items.length; i++) {
-            if (null != items[i]) {
-                list.add(items[i]);
-            }
-        }
-        for (int i = 0; i < start; i++) {
-            if (null != items[i]) {
-                list.add(items[i]);
+        int start = Math.floorMod(totalSize.get(), items.length());
+        for (int i = 0; i < items.length(); i++) {
+            T item = items.get((start + i) % items.length());
+            if (null != item) {
+                list.add(item);
             }
         }
         return list;
     }
 
     public int getTotalSize() {
-        return totalSize;
+        return totalSize.get();
     }
 }
@@ -3,44 +3,65 @@ package com.flightstats.hub.webhook;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.cluster.ContentNotifier;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.exception.NoSuchChannelException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.util.RuntimeInterruptedException;
-import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.SortedSet;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+/**
+ * SingleWebhookStrategy steps through a channel a second at a time.
+ * Seconds near real time without a ContentNotifier notification are skipped without a query, and the skipped
+ * seconds are reconciled with one query before any later item is sent, or after webhook.reconcileSeconds.
+ */
 class SingleWebhookStrategy implements WebhookStrategy {
 
     private final static Logger logger = LoggerFactory.getLogger(SingleWebhookStrategy.class);
     private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+    private static final long reconcileMillis = TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.reconcileSeconds", 60));
+    private static final int reconcileCount = 1000;
+    private static final int stepsPerRun = 100;
     private final Webhook webhook;
     private final LastContentPath lastContentPath;
     private final ChannelService channelService;
+    private final ContentNotifier contentNotifier;
+    private final ConcurrentSkipListSet<Long> notifiedSeconds = new ConcurrentSkipListSet<>();
+    private final Consumer<ContentKey> subscriber = key -> notifiedSeconds.add(key.getTime().withMillisOfSecond(0).getMillis());
+    private DateTime subscribed;
     private AtomicBoolean shouldExit = new AtomicBoolean(false);
     private AtomicBoolean error = new AtomicBoolean(false);
     private BlockingQueue<ContentPath> queue;
     private String channel;
     private QueryGenerator queryGenerator;
-    private ExecutorService executorService;
+    private final WebhookScheduler webhookScheduler;
+    private volatile Future<?> future;
 
 
-    SingleWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    SingleWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                          ContentNotifier contentNotifier, WebhookScheduler webhookScheduler) {
         this.webhook = webhook;
         this.lastContentPath = lastContentPath;
         this.channelService = channelService;
+        this.contentNotifier = contentNotifier;
+        this.webhookScheduler = webhookScheduler;
         this.queue = new ArrayBlockingQueue<>(webhook.getParallelCalls() * 2);
     }
 
@@ -94,22 +115,25 @@ class SingleWebhookStrategy implements WebhookStrategy {
     public void start(Webhook webhook, ContentPath startingPath) {
         channel = webhook.getChannelName();
         queryGenerator = new QueryGenerator(startingPath.getTime(), channel);
-        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("single-webhook-" + webhook.getName() + "-%s").build();
-        executorService = Executors.newSingleThreadExecutor(factory);
-        executorService.submit(new Runnable() {
+        if (contentNotifier.isEnabled()) {
+            contentNotifier.subscribe(channel, subscriber);
+            subscribed = TimeUtil.now();
+        }
+        future = webhookScheduler.schedule(new Runnable() {
 
             ContentPath lastAdded = startingPath;
             ChannelConfig channelConfig = channelService.getChannelConfig(channel, true);
+            DateTime skippedFrom;
+            long skippedAt;
+            Deque<ContentPath> pending = new ArrayDeque<>();
 
             @Override
             public void run() {
                 try {
-                    while (!shouldExit.get()) {
-                        if (!doWork()) {
-                            Sleeper.sleep(1000);
-                        }
+                    if (!shouldExit.get()) {
+                        reschedule(this, runSteps());
                     }
-                } catch (InterruptedException | RuntimeInterruptedException e) {
+                } catch (RuntimeInterruptedException e) {
                     error.set(true);
                     logger.info("InterruptedException with " + channel);
                 } catch (NoSuchChannelException e) {
@@ -121,7 +145,31 @@ class SingleWebhookStrategy implements WebhookStrategy {
                 }
             }
 
-            private boolean doWork() throws InterruptedException {
+            /**
+             * Keys are queued as the leader takes them, so a shared thread is never blocked on a full queue.
+             * @return the millis to wait before running again.
+             */
+            private long runSteps() {
+                for (int step = 0; step < stepsPerRun; step++) {
+                    drain();
+                    if (!pending.isEmpty()) {
+                        return 100;
+                    }
+                    if (!doWork()) {
+                        return 1000 - TimeUtil.now().getMillisOfSecond();
+                    }
+                }
+                drain();
+                return pending.isEmpty() ? 0 : 100;
+            }
+
+            private void drain() {
+                while (!pending.isEmpty() && queue.offer(pending.peek())) {
+                    pending.poll();
+                }
+            }
+
+            private boolean doWork() {
                 ActiveTraces.start("SingleWebhookStrategy", webhook);
                 try {
                     DateTime latestStableInChannel = TimeUtil.stable();
@@ -130,8 +178,15 @@ class SingleWebhookStrategy implements WebhookStrategy {
                     }
                     TimeQuery timeQuery = queryGenerator.getQuery(latestStableInChannel);
                     if (timeQuery != null) {
-                        addKeys(channelService.queryByTime(timeQuery));
+                        if (isQuiet(timeQuery)) {
+                            skip(timeQuery);
+                        } else {
+                            reconcile(timeQuery.getStartTime());
+                            addKeys(channelService.queryByTime(timeQuery));
+                        }
+                        notifiedSeconds.headSet(queryGenerator.getLastQueryTime().getMillis()).clear();
                         if (webhook.isHeartbeat() && queryGenerator.getLastQueryTime().getSecondOfMinute() == 0) {
+                            reconcile(queryGenerator.getLastQueryTime());
                             MinutePath minutePath = new MinutePath(queryGenerator.getLastQueryTime().minusMinutes(1));
                             logger.debug("sending heartbeat {}", minutePath);
                             addKey(minutePath);
@@ -144,7 +199,59 @@ class SingleWebhookStrategy implements WebhookStrategy {
                 }
             }
 
-            private void addKeys(Collection<ContentKey> keys) throws InterruptedException {
+            private boolean isQuiet(TimeQuery timeQuery) {
+                DateTime second = timeQuery.getStartTime().withMillisOfSecond(0);
+                return subscribed != null
+                        && channelConfig.isLive()
+                        && timeQuery.getUnit().equals(TimeUtil.Unit.SECONDS)
+                        && !second.isBefore(subscribed)
+                        && !notifiedSeconds.contains(second.getMillis());
+            }
+
+            private void skip(TimeQuery timeQuery) {
+                if (skippedFrom == null) {
+                    skippedFrom = timeQuery.getStartTime();
+                    skippedAt = System.currentTimeMillis();
+                } else if (System.currentTimeMillis() - skippedAt >= reconcileMillis) {
+                    reconcile(queryGenerator.getLastQueryTime());
+                }
+            }
+
+            /**
+             * Query the skipped seconds before the end time, in case a notification was lost.
+             */
+            private void reconcile(DateTime end) {
+                if (skippedFrom == null) {
+                    return;
+                }
+                ContentKey startKey = ContentKey.lastKey(skippedFrom.minusMillis(1));
+                skippedFrom = null;
+                while (true) {
+                    DirectionQuery query = DirectionQuery.builder()
+                            .channelName(channel)
+                            .startKey(startKey)
+                            .next(true)
+                            .count(reconcileCount)
+                            .stable(true)
+                            .location(Location.CACHE)
+                            .epoch(Epoch.IMMUTABLE)
+                            .build();
+                    SortedSet<ContentKey> keys = channelService.query(query);
+                    Collection<ContentKey> missed = keys.stream()
+                            .filter(key -> key.getTime().isBefore(end))
+                            .collect(Collectors.toList());
+                    if (!missed.isEmpty()) {
+                        logger.info("reconciled {} keys without notifications in {}", missed.size(), channel);
+                        addKeys(missed);
+                    }
+                    if (keys.size() < reconcileCount || missed.size() < keys.size()) {
+                        return;
+                    }
+                    startKey = keys.last();
+                }
+            }
+
+            private void addKeys(Collection<ContentKey> keys) {
                 logger.debug("channel {} keys {}", channel, keys);
                 if (logger.isTraceEnabled()) {
                     ActiveTraces.getLocal().log(logger);
@@ -154,20 +261,28 @@ class SingleWebhookStrategy implements WebhookStrategy {
                 }
             }
 
-            private void addKey(ContentPath key) throws InterruptedException {
+            private void addKey(ContentPath key) {
                 if (key.compareTo(lastAdded) > 0) {
-                    queue.put(key);
+                    pending.add(key);
                     lastAdded = key;
                 }
             }
 
-        });
+        }, 0);
+    }
 
+    private void reschedule(Runnable runnable, long delayMillis) {
+        if (!shouldExit.get()) {
+            future = webhookScheduler.schedule(runnable, delayMillis);
+        }
     }
 
 
     @Override
     public void close() {
-        WebhookStrategy.close(shouldExit, executorService, queue);
+        if (subscribed != null) {
+            contentNotifier.unsubscribe(channel, subscriber);
+        }
+        WebhookStrategy.close(shouldExit, future, queue);
     }
 }
@@ -11,7 +11,6 @@ import com.flightstats.hub.model.*;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.joda.time.Minutes;
@@ -39,7 +38,8 @@ class TimedWebhookStrategy implements WebhookStrategy {
     private AtomicBoolean error = new AtomicBoolean(false);
     private BlockingQueue<ContentPathKeys> queue;
     private String channel;
-    private ScheduledExecutorService executorService;
+    private final WebhookScheduler webhookScheduler;
+    private volatile Future<?> future;
 
     // time unit specific functions
     private TimeUtil.Unit unit;
@@ -52,11 +52,13 @@ class TimedWebhookStrategy implements WebhookStrategy {
     private Function<DateTime, DateTime> getNextTime;
     private Duration duration;
 
-    TimedWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    TimedWebhookStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                         WebhookScheduler webhookScheduler) {
         this.webhook = webhook;
         this.channel = webhook.getChannelName();
         this.lastContentPath = lastContentPath;
         this.channelService = channelService;
+        this.webhookScheduler = webhookScheduler;
         this.queue = new ArrayBlockingQueue<>(webhook.getParallelCalls() * 2);
         if (webhook.isSecond()) {
             secondConfig();
@@ -143,10 +145,8 @@ class TimedWebhookStrategy implements WebhookStrategy {
 
     @Override
     public void start(Webhook webhook, ContentPath startingPath) {
-        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(webhook.getBatch() + "-webhook-" + webhook.getName() + "-%s").build();
-        executorService = Executors.newSingleThreadScheduledExecutor(factory);
         logger.info("starting {} with starting path {}", webhook, startingPath);
-        executorService.scheduleAtFixedRate(new Runnable() {
+        future = webhookScheduler.schedule(new Runnable() {
 
             ContentPath lastAdded = startingPath;
             ChannelConfig channelConfig = channelService.getChannelConfig(channel, true);
@@ -155,9 +155,9 @@ class TimedWebhookStrategy implements WebhookStrategy {
             public void run() {
                 try {
                     if (!shouldExit.get()) {
-                        doWork();
+                        reschedule(this, doWork() ? 100 : getDelayMillis());
                     }
-                } catch (InterruptedException | RuntimeInterruptedException e) {
+                } catch (RuntimeInterruptedException e) {
                     error.set(true);
                     logger.info("InterruptedException with " + channel);
                 } catch (Exception e) {
@@ -166,7 +166,10 @@ class TimedWebhookStrategy implements WebhookStrategy {
                 }
             }
 
-            private void doWork() throws InterruptedException {
+            /**
+             * @return true when the queue is full, and the work should be retried shortly.
+             */
+            private boolean doWork() {
                 DateTime nextTime = getNextTime.apply(lastAdded.getTime());
                 if (lastAdded instanceof ContentKey) {
                     nextTime = lastAdded.getTime();
@@ -182,6 +185,9 @@ class TimedWebhookStrategy implements WebhookStrategy {
                 }
                 logger.debug("lastAdded {} nextTime {} stable {}", lastAdded, nextTime, stable);
                 while (nextTime.isBefore(stable)) {
+                    if (queue.remainingCapacity() == 0) {
+                        return true;
+                    }
                     try {
                         ActiveTraces.start("TimedWebhookStrategy.doWork", webhook);
                         Collection<ContentKey> keys = queryKeys(nextTime)
@@ -191,7 +197,7 @@ class TimedWebhookStrategy implements WebhookStrategy {
 
                         ContentPathKeys nextPath = newTime.apply(nextTime, keys);
                         logger.trace("results {} {} {}", channel, nextPath, nextPath.getKeys());
-                        queue.put(nextPath);
+                        queue.add(nextPath);
                         lastAdded = nextPath;
                         determineStrategy(lastAdded.getTime());
                         nextTime = getNextTime.apply(lastAdded.getTime());
@@ -199,9 +205,21 @@ class TimedWebhookStrategy implements WebhookStrategy {
                         ActiveTraces.end();
                     }
                 }
+                return false;
             }
 
-        }, getOffsetSeconds.get(), period, TimeUnit.SECONDS);
+        }, TimeUnit.SECONDS.toMillis(getOffsetSeconds.get()));
+    }
+
+    private long getDelayMillis() {
+        int offsetSeconds = getOffsetSeconds.get();
+        return TimeUnit.SECONDS.toMillis(offsetSeconds > 0 ? offsetSeconds : period);
+    }
+
+    private void reschedule(Runnable runnable, long delayMillis) {
+        if (!shouldExit.get()) {
+            future = webhookScheduler.schedule(runnable, delayMillis);
+        }
     }
 
     private Collection<ContentKey> queryKeys(DateTime time) {
@@ -257,6 +275,6 @@ class TimedWebhookStrategy implements WebhookStrategy {
 
     @Override
     public void close() throws Exception {
-        WebhookStrategy.close(shouldExit, executorService, queue);
+        WebhookStrategy.close(shouldExit, future, queue);
     }
 }
@@ -0,0 +1,64 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.google.inject.Singleton;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebhookClient posts the callbacks for every webhook with one non-blocking Jetty HttpClient.
+ * Each callback host has a pool of keep-alive connections, and no thread waits on a slow subscriber.
+ * The futures complete on the client's threads, and the callbacks must not block.
+ */
+@Singleton
+class WebhookClient {
+
+    private final HttpClient httpClient;
+
+    WebhookClient() {
+        //like RestClient, this trusts all certificates
+        httpClient = new HttpClient(new SslContextFactory(true));
+        QueuedThreadPool threadPool = new QueuedThreadPool(HubProperties.getProperty("webhook.client.threads", 32));
+        threadPool.setName("WebhookClient");
+        threadPool.setDaemon(true);
+        httpClient.setExecutor(threadPool);
+        httpClient.setMaxConnectionsPerDestination(HubProperties.getProperty("webhook.client.maxConnections", 256));
+        httpClient.setMaxRequestsQueuedPerDestination(HubProperties.getProperty("webhook.client.maxQueued", 4096));
+        httpClient.setConnectTimeout(TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.client.connectSeconds", 60)));
+        httpClient.setIdleTimeout(TimeUnit.SECONDS.toMillis(HubProperties.getProperty("webhook.client.idleSeconds", 60)));
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new RuntimeException("unable to start webhook client", e);
+        }
+    }
+
+    /**
+     * @return the response status, the response body is discarded.
+     */
+    CompletableFuture<Integer> post(String url, String json, int timeoutSeconds) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        try {
+            httpClient.newRequest(url)
+                    .method(HttpMethod.POST)
+                    .content(new StringContentProvider(json), "application/json")
+                    .timeout(timeoutSeconds, TimeUnit.SECONDS)
+                    .send(result -> {
+                        if (result.isFailed()) {
+                            future.completeExceptionally(result.getFailure());
+                        } else {
+                            future.complete(result.getResponse().getStatus());
+                        }
+                    });
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -2,19 +2,32 @@ package com.flightstats.hub.webhook;
 
 import com.flightstats.hub.model.ContentPath;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
+/**
+ * The items in flight for each webhook are kept in memory by the leader, and written to ZooKeeper
+ * as a single node with checkpoint().
+ * Older hubs wrote a child node for each item under /GroupInFlight, those are read by load() and
+ * removed after the next checkpoint.
+ */
+@Singleton
 class WebhookContentPathSet {
     private final static Logger logger = LoggerFactory.getLogger(WebhookContentPathSet.class);
 
     private final CuratorFramework curator;
+    private final Map<String, Set<ContentPath>> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<String>> legacy = new ConcurrentHashMap<>();
 
     @Inject
     public WebhookContentPathSet(CuratorFramework curator) {
@@ -22,55 +35,137 @@ class WebhookContentPathSet {
     }
 
     public void add(String webhookName, ContentPath key) {
-        String path = getPath(webhookName, key);
+        inFlight.computeIfAbsent(webhookName, name -> ConcurrentHashMap.newKeySet()).add(key);
+        dirty.add(webhookName);
+    }
+
+    public void remove(String webhookName, ContentPath key) {
+        Set<ContentPath> keys = inFlight.get(webhookName);
+        if (keys != null && keys.remove(key)) {
+            dirty.add(webhookName);
+        }
+    }
+
+    /**
+     * The leader calls load once when it starts, to continue with the items in flight at the last checkpoint.
+     */
+    Set<ContentPath> load(String webhookName, ContentPath type) {
+        Set<ContentPath> keys = ConcurrentHashMap.newKeySet();
+        keys.addAll(read(webhookName, type));
+        List<String> children = readLegacy(webhookName, type, keys);
+        if (!children.isEmpty()) {
+            legacy.put(webhookName, children);
+            dirty.add(webhookName);
+        }
+        inFlight.put(webhookName, keys);
+        return new HashSet<>(keys);
+    }
+
+    Set<ContentPath> getSet(String webhookName, ContentPath type) {
+        Set<ContentPath> keys = inFlight.get(webhookName);
+        if (keys != null) {
+            return new HashSet<>(keys);
+        }
+        Set<ContentPath> stored = read(webhookName, type);
+        readLegacy(webhookName, type, stored);
+        return stored;
+    }
+
+    /**
+     * Write the items in flight to ZooKeeper, if they have changed since the last checkpoint.
+     */
+    void checkpoint(String webhookName) {
+        Set<ContentPath> keys = inFlight.get(webhookName);
+        if (keys == null || !dirty.remove(webhookName)) {
+            return;
+        }
+        String path = getPath(webhookName);
+        byte[] bytes = keys.stream()
+                .map(ContentPath::toZk)
+                .collect(Collectors.joining("\n"))
+                .getBytes(StandardCharsets.UTF_8);
         try {
-            curator.create().creatingParentsIfNeeded().forPath(path);
-        } catch (KeeperException.NodeExistsException ignore) {
-            logger.info("node exists " + path);
+            try {
+                curator.setData().forPath(path, bytes);
+            } catch (KeeperException.NoNodeException e) {
+                curator.create().creatingParentsIfNeeded().forPath(path, bytes);
+            }
         } catch (Exception e) {
-            logger.warn("unable to create " + path, e);
+            dirty.add(webhookName);
+            logger.warn("unable to checkpoint " + path, e);
+            return;
+        }
+        List<String> children = legacy.remove(webhookName);
+        if (children != null) {
+            for (String child : children) {
+                try {
+                    curator.delete().inBackground().forPath(getLegacyPath(webhookName) + "/" + child);
+                } catch (Exception e) {
+                    logger.warn("unable to delete " + child, e);
+                }
+            }
         }
     }
 
-    public void remove(String webhookName, ContentPath key) {
-        String path = getPath(webhookName, key);
+    /**
+     * Drops the local state, after the final checkpoint when the leader stops.
+     */
+    void release(String webhookName) {
+        inFlight.remove(webhookName);
+        dirty.remove(webhookName);
+        legacy.remove(webhookName);
+    }
+
+    private Set<ContentPath> read(String webhookName, ContentPath type) {
+        Set<ContentPath> keys = new HashSet<>();
+        String path = getPath(webhookName);
         try {
-            curator.delete().forPath(path);
+            String data = new String(curator.getData().forPath(path), StandardCharsets.UTF_8);
+            for (String line : StringUtils.split(data, '\n')) {
+                keys.add(type.fromZk(line));
+            }
+        } catch (KeeperException.NoNodeException e) {
+            logger.debug("no node for {}", path);
         } catch (Exception e) {
-            logger.warn("unable to delete " + path, e);
+            logger.warn("unable to read " + path, e);
         }
+        return keys;
     }
 
-    Set<ContentPath> getSet(String webhookName, ContentPath type) {
-        String path = getPath(webhookName);
-        Set<ContentPath> keys = new HashSet<>();
+    private List<String> readLegacy(String webhookName, ContentPath type, Set<ContentPath> keys) {
+        String path = getLegacyPath(webhookName);
         try {
-            List<String> strings = curator.getChildren().forPath(path);
-            for (String string : strings) {
-                keys.add(type.fromZk(string));
+            List<String> children = curator.getChildren().forPath(path);
+            for (String child : children) {
+                keys.add(type.fromZk(child));
             }
+            return children;
         } catch (KeeperException.NoNodeException e) {
-            logger.info("no node for {}", path);
+            logger.debug("no node for {}", path);
         } catch (Exception e) {
             logger.warn("unable to get set " + path, e);
         }
-        return keys;
+        return Collections.emptyList();
     }
 
     private String getPath(String webhookName) {
-        return "/GroupInFlight/" + webhookName;
+        return "/WebhookInFlight/" + webhookName;
     }
 
-    private String getPath(String webhookName, ContentPath key) {
-        return getPath(webhookName) + "/" + key.toZk();
+    private String getLegacyPath(String webhookName) {
+        return "/GroupInFlight/" + webhookName;
     }
 
     public void delete(String webhookName) {
-        String path = getPath(webhookName);
-        try {
-            curator.delete().deletingChildrenIfNeeded().forPath(path);
-        } catch (Exception e) {
-            logger.warn("unable to delete {} {}", path, e.getMessage());
+        release(webhookName);
+        for (String path : Arrays.asList(getPath(webhookName), getLegacyPath(webhookName))) {
+            try {
+                curator.delete().deletingChildrenIfNeeded().forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                logger.debug("no node for {}", path);
+            } catch (Exception e) {
+                logger.warn("unable to delete {} {}", path, e.getMessage());
+            }
         }
     }
 }
@@ -3,7 +3,7 @@ package com.flightstats.hub.webhook;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
@@ -11,84 +11,190 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
+/**
+ * The recent errors for each webhook are kept in memory by the leader, and written to ZooKeeper
+ * as a single node with checkpoint().
+ * Older hubs wrote a child node for each error under /GroupError, those are read by load() and
+ * removed after the next checkpoint.
+ */
 @Singleton
 class WebhookError {
     private final static Logger logger = LoggerFactory.getLogger(WebhookError.class);
     private static final int MAX_SIZE = 10;
 
     private final CuratorFramework curator;
+    private final Map<String, Deque<Error>> errors = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Set<String> legacy = ConcurrentHashMap.newKeySet();
 
     @Inject
     public WebhookError(CuratorFramework curator) {
         this.curator = curator;
     }
 
+    /**
+     * Errors are only kept between load() and release(), calls which complete after the leader stops are ignored.
+     */
     public void add(String webhook, String error) {
-        String path = getErrorRoot(webhook) + "/" + TimeUtil.now().getMillis() + RandomStringUtils.randomAlphanumeric(6);
-        try {
-            curator.create().creatingParentsIfNeeded().forPath(path, error.getBytes());
-        } catch (Exception e) {
-            logger.warn("unable to create " + path, e);
+        Deque<Error> webhookErrors = errors.get(webhook);
+        if (webhookErrors == null) {
+            logger.debug("ignoring error for {} without a leader {}", webhook, error);
+            return;
         }
-        limitChildren(webhook);
+        synchronized (webhookErrors) {
+            webhookErrors.add(new Error(webhook, TimeUtil.now(), StringUtils.replaceChars(error, "\n\r", "  ")));
+            while (webhookErrors.size() > MAX_SIZE) {
+                webhookErrors.removeFirst();
+            }
+        }
+        dirty.add(webhook);
     }
 
-    private List<String> limitChildren(String webhook) {
-        String errorRoot = getErrorRoot(webhook);
-        List<String> results = new ArrayList<>();
-        SortedMap<String, Error> errors = new TreeMap<>();
-        try {
-            for (String child : curator.getChildren().forPath(errorRoot)) {
-                Stat stat = new Stat();
-                byte[] bytes = curator.getData().storingStatIn(stat).forPath(getChildPath(errorRoot, child));
-                errors.put(child, new Error(child, new DateTime(stat.getCtime()), new String(bytes)));
-            }
-            while (errors.size() > MAX_SIZE) {
-                String firstKey = errors.firstKey();
-                errors.remove(firstKey);
-                curator.delete().inBackground().forPath(getChildPath(errorRoot, firstKey));
+    /**
+     * The leader calls load once when it starts, to continue with the errors at the last checkpoint.
+     */
+    void load(String webhook) {
+        List<Error> stored = read(webhook);
+        List<Error> legacyErrors = readLegacy(webhook);
+        if (!legacyErrors.isEmpty()) {
+            stored.addAll(legacyErrors);
+            legacy.add(webhook);
+            dirty.add(webhook);
+        }
+        errors.put(webhook, limit(stored));
+    }
+
+    /**
+     * Write the errors to ZooKeeper, if they have changed since the last checkpoint.
+     */
+    void checkpoint(String webhook) {
+        Deque<Error> webhookErrors = errors.get(webhook);
+        if (webhookErrors == null || !dirty.remove(webhook)) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        synchronized (webhookErrors) {
+            for (Error error : webhookErrors) {
+                builder.append(error.getCreationTime().getMillis()).append("\t").append(error.getData()).append("\n");
             }
-            DateTime cutoffTime = TimeUtil.now().minusDays(1);
-            for (Error error : errors.values()) {
-                if (error.getCreationTime().isBefore(cutoffTime)) {
-                    curator.delete().inBackground().forPath(getChildPath(errorRoot, error.getName()));
-                } else {
-                    results.add(error.getData());
-                }
+        }
+        String path = getErrorRoot(webhook);
+        byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            try {
+                curator.setData().forPath(path, bytes);
+            } catch (KeeperException.NoNodeException e) {
+                curator.create().creatingParentsIfNeeded().forPath(path, bytes);
             }
         } catch (Exception e) {
-            logger.warn("unable to limit children " + errorRoot, e);
+            dirty.add(webhook);
+            logger.warn("unable to checkpoint " + path, e);
+            return;
         }
-        return results;
+        if (legacy.remove(webhook)) {
+            deletePath(getLegacyRoot(webhook));
+        }
+    }
+
+    /**
+     * Drops the local state, after the final checkpoint when the leader stops.
+     */
+    void release(String webhook) {
+        errors.remove(webhook);
+        dirty.remove(webhook);
+        legacy.remove(webhook);
     }
 
     public void delete(String webhook) {
-        String errorRoot = getErrorRoot(webhook);
-        logger.info("deleting " + errorRoot);
+        release(webhook);
+        logger.info("deleting errors for " + webhook);
+        deletePath(getErrorRoot(webhook));
+        deletePath(getLegacyRoot(webhook));
+    }
+
+    private void deletePath(String path) {
         try {
-            curator.delete().deletingChildrenIfNeeded().forPath(errorRoot);
+            curator.delete().deletingChildrenIfNeeded().forPath(path);
         } catch (KeeperException.NoNodeException e) {
-            logger.info("unable to delete missing node " + errorRoot);
+            logger.debug("unable to delete missing node " + path);
         } catch (Exception e) {
-            logger.warn("unable to delete " + errorRoot, e);
+            logger.warn("unable to delete " + path, e);
         }
     }
 
     private String getErrorRoot(String webhook) {
-        return "/GroupError/" + webhook;
+        return "/WebhookError/" + webhook;
     }
 
-    private String getChildPath(String errorRoot, String child) {
-        return errorRoot + "/" + child;
+    private String getLegacyRoot(String webhook) {
+        return "/GroupError/" + webhook;
     }
 
     public List<String> get(String webhook) {
-        return limitChildren(webhook);
+        List<Error> webhookErrors = new ArrayList<>();
+        Deque<Error> local = errors.get(webhook);
+        if (local != null) {
+            synchronized (local) {
+                webhookErrors.addAll(local);
+            }
+        } else {
+            List<Error> stored = read(webhook);
+            stored.addAll(readLegacy(webhook));
+            webhookErrors.addAll(limit(stored));
+        }
+        DateTime cutoffTime = TimeUtil.now().minusDays(1);
+        return webhookErrors.stream()
+                .filter(error -> !error.getCreationTime().isBefore(cutoffTime))
+                .map(Error::getData)
+                .collect(Collectors.toList());
+    }
+
+    private List<Error> read(String webhook) {
+        List<Error> stored = new ArrayList<>();
+        String path = getErrorRoot(webhook);
+        try {
+            String data = new String(curator.getData().forPath(path), StandardCharsets.UTF_8);
+            for (String line : StringUtils.split(data, '\n')) {
+                String millis = StringUtils.substringBefore(line, "\t");
+                stored.add(new Error(webhook, new DateTime(Long.parseLong(millis)), StringUtils.substringAfter(line, "\t")));
+            }
+        } catch (KeeperException.NoNodeException e) {
+            logger.debug("no errors for {}", path);
+        } catch (Exception e) {
+            logger.warn("unable to read " + path, e);
+        }
+        return stored;
+    }
+
+    private List<Error> readLegacy(String webhook) {
+        List<Error> stored = new ArrayList<>();
+        String root = getLegacyRoot(webhook);
+        try {
+            for (String child : curator.getChildren().forPath(root)) {
+                Stat stat = new Stat();
+                byte[] bytes = curator.getData().storingStatIn(stat).forPath(root + "/" + child);
+                stored.add(new Error(webhook, new DateTime(stat.getCtime()), new String(bytes, StandardCharsets.UTF_8)));
+            }
+        } catch (KeeperException.NoNodeException e) {
+            logger.debug("no legacy errors for {}", root);
+        } catch (Exception e) {
+            logger.warn("unable to read " + root, e);
+        }
+        return stored;
+    }
+
+    private Deque<Error> limit(List<Error> stored) {
+        stored.sort(Comparator.comparing(Error::getCreationTime));
+        Deque<Error> webhookErrors = new ArrayDeque<>(stored);
+        while (webhookErrors.size() > MAX_SIZE) {
+            webhookErrors.removeFirst();
+        }
+        return webhookErrors;
     }
 
     private static class Error {
@@ -1,6 +1,8 @@
 package com.flightstats.hub.webhook;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.ContentNotifier;
 import com.flightstats.hub.cluster.CuratorLeader;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.cluster.Leader;
@@ -12,17 +14,12 @@ import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.ChannelConfig;
 import com.flightstats.hub.model.ContentPath;
 import com.flightstats.hub.model.RecurringTrace;
-import com.flightstats.hub.rest.RestClient;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
-import com.github.rholder.retry.RetryException;
-import com.github.rholder.retry.Retryer;
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
 import com.newrelic.api.agent.Trace;
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientResponse;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.zookeeper.KeeperException;
@@ -30,7 +27,6 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.ws.rs.core.MediaType;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -38,9 +34,11 @@ import java.util.TreeSet;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 class WebhookLeader implements Leader {
     private final static Logger logger = LoggerFactory.getLogger(WebhookLeader.class);
+    private static final long CHECKPOINT_MILLIS = HubProperties.getProperty("webhook.checkpointMillis", 1000);
     static final String WEBHOOK_LAST_COMPLETED = "/GroupLastCompleted/";
 
     private final AtomicBoolean deleteOnExit = new AtomicBoolean();
@@ -59,17 +57,23 @@ class WebhookLeader implements Leader {
     private WebhookContentPathSet webhookInProcess;
     @Inject
     private WebhookError webhookError;
+    @Inject
+    private ContentNotifier contentNotifier;
+    @Inject
+    private WebhookScheduler webhookScheduler;
+    @Inject
+    private WebhookClient webhookClient;
 
     private Webhook webhook;
     private CuratorLeader curatorLeader;
-    private ExecutorService executorService;
-    private Semaphore semaphore;
+    private WebhookScheduler.Lane lane;
     private Leadership leadership;
-    private Retryer<ClientResponse> retryer;
-    private Client client;
+    private WebhookRetryer retryer;
 
     private WebhookStrategy webhookStrategy;
     private AtomicReference<ContentPath> lastUpdated = new AtomicReference<>();
+    private ContentPath lastCheckpoint;
+    private volatile Future<?> checkpointFuture;
     private String id = RandomStringUtils.randomAlphanumeric(4);
     private String channelName;
 
@@ -101,16 +105,17 @@ class WebhookLeader implements Leader {
         }
         this.webhook = foundWebhook.get();
         logger.info("taking leadership {} {}", webhook, leadership.hasLeadership());
-        client = RestClient.createClient(60, webhook.getCallbackTimeoutSeconds(), true, false);
-        executorService = Executors.newCachedThreadPool();
-        semaphore = new Semaphore(webhook.getParallelCalls());
-        retryer = WebhookRetryer.buildRetryer(webhook, webhookError, leadership);
-        webhookStrategy = WebhookStrategy.getStrategy(webhook, lastContentPath, channelService);
+        lane = webhookScheduler.createLane(webhook.getName(), webhook.getParallelCalls());
+        retryer = new WebhookRetryer(webhook, leadership, webhookScheduler);
+        webhookStrategy = WebhookStrategy.getStrategy(webhook, lastContentPath, channelService, contentNotifier, webhookScheduler);
         try {
             ContentPath lastCompletedPath = webhookStrategy.getStartingPath();
             lastUpdated.set(lastCompletedPath);
+            lastCheckpoint = lastCompletedPath;
             logger.info("last completed at {} {}", lastCompletedPath, webhook.getName());
             if (leadership.hasLeadership()) {
+                webhookError.load(webhook.getName());
+                scheduleCheckpoint();
                 sendInProcess(lastCompletedPath);
                 webhookStrategy.start(webhook, lastCompletedPath);
                 while (leadership.hasLeadership()) {
@@ -130,10 +135,10 @@ class WebhookLeader implements Leader {
                 delete();
             }
             stopExecutor();
+            stopCheckpoints();
             logger.info("stopped last completed at {} {}", webhookStrategy.getLastCompleted(), webhook.getName());
             webhookStrategy = null;
-            executorService = null;
-            client = null;
+            lane = null;
         }
     }
 
@@ -143,7 +148,7 @@ class WebhookLeader implements Leader {
     }
 
     private void sendInProcess(ContentPath lastCompletedPath) throws InterruptedException {
-        Set<ContentPath> inProcessSet = webhookInProcess.getSet(webhook.getName(), lastCompletedPath);
+        Set<ContentPath> inProcessSet = webhookInProcess.load(webhook.getName(), lastCompletedPath);
         logger.debug("sending in process {} to {}", inProcessSet, webhook.getName());
         for (ContentPath toSend : inProcessSet) {
             if (toSend.compareTo(lastCompletedPath) < 0) {
@@ -162,42 +167,52 @@ class WebhookLeader implements Leader {
     }
 
     private void send(ContentPath contentPath) throws InterruptedException {
-        semaphore.acquire();
         logger.trace("sending {} to {}", contentPath, webhook.getName());
-        String parentName = Thread.currentThread().getName();
-        executorService.submit(new Callable<Object>() {
+        webhookInProcess.add(webhook.getName(), contentPath);
+        lane.submitAsync(new Supplier<CompletableFuture<?>>() {
             @Trace(metricName = "WebhookCaller", dispatcher = true)
             @Override
-            public Object call() throws Exception {
-                String workerName = Thread.currentThread().getName();
-                Thread.currentThread().setName(workerName + "|" + parentName);
+            public CompletableFuture<?> get() {
                 ActiveTraces.start("WebhookLeader.send", webhook, contentPath);
-                webhookInProcess.add(webhook.getName(), contentPath);
+                Traces traces = ActiveTraces.getLocal();
                 try {
                     metricsService.time("webhook.delta", contentPath.getTime().getMillis(), "name:" + webhook.getName());
-                    makeTimedCall(contentPath, webhookStrategy.createResponse(contentPath));
-                    completeCall(contentPath);
-                    logger.trace("completed {} call to {} ", contentPath, webhook.getName());
-                } catch (RetryException e) {
-                    logger.info("exception sending {} to {} {} ", contentPath, webhook.getName(), e.getMessage());
-                } catch (ExecutionException e) {
-                    Throwable cause = e.getCause();
-                    if (cause instanceof ItemExpiredException) {
-                        logger.info("stopped trying {} to {} {} ", contentPath, webhook.getName(), cause.getMessage());
-                        completeCall(contentPath);
-                    }
+                    long start = System.currentTimeMillis();
+                    CompletableFuture<Boolean> future = makeCall(contentPath, webhookStrategy.createResponse(contentPath), traces)
+                            .whenComplete((sent, throwable) -> {
+                                ActiveTraces.setLocal(traces);
+                                metricsService.time("webhook", start, "name:" + webhook.getName());
+                                completed(contentPath, sent, throwable);
+                                ActiveTraces.end();
+                            });
+                    ActiveTraces.setLocal(null);
+                    return future;
                 } catch (Exception e) {
                     logger.warn("exception sending " + contentPath + " to " + webhook.getName(), e);
-                } finally {
-                    semaphore.release();
                     ActiveTraces.end();
-                    Thread.currentThread().setName(workerName);
+                    return CompletableFuture.completedFuture(false);
                 }
-                return null;
             }
         });
     }
 
+    private void completed(ContentPath contentPath, Boolean sent, Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        if (throwable instanceof ItemExpiredException) {
+            logger.info("stopped trying {} to {} {} ", contentPath, webhook.getName(), throwable.getMessage());
+            completeCall(contentPath);
+        } else if (throwable != null) {
+            logger.warn("exception sending " + contentPath + " to " + webhook.getName(), throwable);
+        } else if (sent) {
+            completeCall(contentPath);
+            logger.trace("completed {} call to {} ", contentPath, webhook.getName());
+        } else {
+            logger.info("stopped sending {} to {}", contentPath, webhook.getName());
+        }
+    }
+
     private boolean increaseLastUpdated(ContentPath newPath) {
         AtomicBoolean changed = new AtomicBoolean(false);
         lastUpdated.getAndUpdate(existingPath -> {
@@ -212,54 +227,83 @@ class WebhookLeader implements Leader {
     }
 
     private void completeCall(ContentPath contentPath) {
-        if (increaseLastUpdated(contentPath)) {
-            if (!deleteOnExit.get()) {
-                lastContentPath.updateIncrease(contentPath, webhook.getName(), WEBHOOK_LAST_COMPLETED);
+        increaseLastUpdated(contentPath);
+        webhookInProcess.remove(webhook.getName(), contentPath);
+    }
+
+    private void scheduleCheckpoint() {
+        checkpointFuture = webhookScheduler.schedule(() -> {
+            checkpoint();
+            if (leadership.hasLeadership()) {
+                webhookError.load(webhook.getName());
+                scheduleCheckpoint();
             }
+        }, CHECKPOINT_MILLIS);
+    }
+
+    /**
+     * Writes the items in flight before the last completed item, so that every item which has not completed
+     * is either in flight or after the last completed in ZooKeeper, and will be sent again by the next leader.
+     */
+    private synchronized void checkpoint() {
+        String name = webhook.getName();
+        try {
+            ContentPath completed = lastUpdated.get();
+            webhookInProcess.checkpoint(name);
+            if (!deleteOnExit.get() && completed.compareTo(lastCheckpoint) > 0) {
+                lastContentPath.updateIncrease(completed, name, WEBHOOK_LAST_COMPLETED);
+                lastCheckpoint = completed;
+            }
+            webhookError.checkpoint(name);
+        } catch (Exception e) {
+            logger.warn("unable to checkpoint " + name, e);
         }
-        webhookInProcess.remove(webhook.getName(), contentPath);
     }
 
-    private void makeTimedCall(ContentPath contentPath, ObjectNode body) throws Exception {
-        metricsService.time("webhook", webhook.getName(),
-                () -> {
-                    makeCall(contentPath, body);
-                    return null;
-                });
+    private void stopCheckpoints() {
+        Future<?> future = checkpointFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+        if (!deleteOnExit.get()) {
+            checkpoint();
+        }
+        webhookInProcess.release(webhook.getName());
+        webhookError.release(webhook.getName());
     }
 
-    private void makeCall(ContentPath contentPath, ObjectNode body) throws ExecutionException, RetryException {
-        Traces traces = ActiveTraces.getLocal();
+    private CompletableFuture<Boolean> makeCall(ContentPath contentPath, ObjectNode body, Traces traces) {
         traces.add("WebhookLeader.makeCall start");
         RecurringTrace recurringTrace = new RecurringTrace("WebhookLeader.makeCall start");
         traces.add(recurringTrace);
-        retryer.call(() -> getClientResponse(contentPath, body, traces, recurringTrace));
+        String entity = body.toString();
+        return retryer.call(() -> post(contentPath, entity, recurringTrace));
     }
 
-    private ClientResponse getClientResponse(ContentPath contentPath, ObjectNode body, Traces traces, RecurringTrace recurringTrace) {
+    private CompletableFuture<Integer> post(ContentPath contentPath, String entity, RecurringTrace recurringTrace) {
         try {
-            ActiveTraces.setLocal(traces);
             ChannelConfig channelConfig = channelService.getCachedChannelConfig(channelName);
             checkExpiration(contentPath, channelConfig, webhook);
             if (!leadership.hasLeadership()) {
                 logger.debug("not leader {} {} {}", webhook.getCallbackUrl(), webhook.getName(), contentPath);
-                return null;
+                return CompletableFuture.completedFuture(null);
             }
-            String entity = body.toString();
             logger.debug("calling {} {} {}", webhook.getCallbackUrl(), contentPath, entity);
-            ClientResponse clientResponse = client.resource(webhook.getCallbackUrl())
-                    .type(MediaType.APPLICATION_JSON_TYPE)
-                    .post(ClientResponse.class, entity);
-            if (clientResponse.getStatus() < 400) {
-                recurringTrace.update("WebhookLeader.makeCall completed", clientResponse);
-            } else {
-                webhookError.add(webhook.getName(), new DateTime() + " " + contentPath + " " + clientResponse);
-            }
-            return clientResponse;
         } catch (Exception e) {
             webhookError.add(webhook.getName(), new DateTime() + " " + contentPath + " " + e.getMessage());
             throw e;
         }
+        return webhookClient.post(webhook.getCallbackUrl(), entity, webhook.getCallbackTimeoutSeconds())
+                .whenComplete((status, throwable) -> {
+                    if (throwable != null) {
+                        webhookError.add(webhook.getName(), new DateTime() + " " + contentPath + " " + throwable.getMessage());
+                    } else if (status < 400) {
+                        recurringTrace.update("WebhookLeader.makeCall completed", status);
+                    } else {
+                        webhookError.add(webhook.getName(), new DateTime() + " " + contentPath + " POST "
+                                + webhook.getCallbackUrl() + " returned a response status of " + status);
+                    }
+                });
     }
 
     static void checkExpiration(ContentPath contentPath, ChannelConfig channelConfig, Webhook webhook) {
@@ -285,14 +329,14 @@ class WebhookLeader implements Leader {
     }
 
     private void stopExecutor() {
-        if (executorService == null) {
+        WebhookScheduler.Lane current = lane;
+        if (current == null) {
             return;
         }
         String name = webhook.getName();
         try {
-            executorService.shutdown();
             logger.debug("awating termination " + name);
-            executorService.awaitTermination(webhook.getCallbackTimeoutSeconds() + 10, TimeUnit.SECONDS);
+            current.awaitIdle(webhook.getCallbackTimeoutSeconds() + 10, TimeUnit.SECONDS);
             logger.debug("stopped Executor " + name);
         } catch (InterruptedException e) {
             logger.warn("unable to stop?" + name, e);
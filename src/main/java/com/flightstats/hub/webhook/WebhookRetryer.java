@@ -2,68 +2,86 @@ package com.flightstats.hub.webhook;
 
 import com.flightstats.hub.cluster.Leadership;
 import com.flightstats.hub.metrics.DataDog;
-import com.github.rholder.retry.Retryer;
-import com.github.rholder.retry.RetryerBuilder;
-import com.github.rholder.retry.WaitStrategies;
-import com.google.common.base.Predicate;
-import com.sun.jersey.api.client.ClientHandlerException;
-import com.sun.jersey.api.client.ClientResponse;
 import com.timgroup.statsd.StatsDClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+/**
+ * WebhookRetryer repeats a callback until it succeeds, with an exponential wait between attempts.
+ * It stops when the item expires, or when the leader loses leadership or the webhook is paused.
+ * The waits are scheduled, so no thread is held between attempts.
+ */
 class WebhookRetryer {
 
     private final static Logger logger = LoggerFactory.getLogger(WebhookRetryer.class);
     private final static StatsDClient statsd = DataDog.statsd;
 
-    static Retryer<ClientResponse> buildRetryer(Webhook webhook, WebhookError webhookError, final Leadership leadership) {
+    private final Webhook webhook;
+    private final Leadership leadership;
+    private final WebhookScheduler webhookScheduler;
+    private final long maxWaitMillis;
 
-        return RetryerBuilder.<ClientResponse>newBuilder()
-                .retryIfException(throwable -> {
-                    if (throwable != null) {
-                        if (throwable.getClass().isAssignableFrom(ClientHandlerException.class)) {
-                            logger.info("got ClientHandlerException trying to call client back " + throwable.getMessage());
-                        } else {
-                            logger.info("got throwable trying to call client back ", throwable);
-                        }
-                        if (throwable instanceof ItemExpiredException) {
-                            return false;
-                        }
-                    }
-                    emitErrorToDataDog(webhook.getName(), 500);
-                    return throwable != null;
-                })
-                .retryIfResult(new Predicate<ClientResponse>() {
-                    @Override
-                    public boolean apply(@Nullable ClientResponse response) {
-                        if (response == null) return true;
-                        try {
-                            boolean failure = response.getStatus() >= 400;
-                            if (failure) {
-                                emitErrorToDataDog(webhook.getName(), response.getStatus());
-                                logger.info("unable to send to " + response);
-                            }
-                            return failure;
-                        } finally {
-                            close(response);
-                        }
-                    }
+    WebhookRetryer(Webhook webhook, Leadership leadership, WebhookScheduler webhookScheduler) {
+        this.webhook = webhook;
+        this.leadership = leadership;
+        this.webhookScheduler = webhookScheduler;
+        this.maxWaitMillis = TimeUnit.MINUTES.toMillis(webhook.getMaxWaitMinutes());
+    }
+
+    /**
+     * @param attempt makes one call and supplies the response status, or null when the call was not made.
+     * @return completes with true when a call succeeds, false when the retryer stops,
+     * or exceptionally with the ItemExpiredException.
+     */
+    CompletableFuture<Boolean> call(Supplier<CompletableFuture<Integer>> attempt) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        attempt(attempt, 1, result);
+        return result;
+    }
+
+    private void attempt(Supplier<CompletableFuture<Integer>> attempt, int attemptNumber, CompletableFuture<Boolean> result) {
+        CompletableFuture<Integer> call;
+        try {
+            call = attempt.get();
+        } catch (Exception e) {
+            call = new CompletableFuture<>();
+            call.completeExceptionally(e);
+        }
+        call.whenComplete((status, throwable) -> {
+            if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                throwable = throwable.getCause();
+            }
+            if (throwable instanceof ItemExpiredException) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            if (throwable != null) {
+                logger.info("got throwable trying to call client back " + webhook.getName() + " " + throwable.getMessage());
+                emitErrorToDataDog(webhook.getName(), 500);
+            } else if (status != null) {
+                if (status < 400) {
+                    result.complete(true);
+                    return;
+                }
+                emitErrorToDataDog(webhook.getName(), status);
+                logger.info("unable to send to {} {}", webhook.getCallbackUrl(), status);
+            }
+            if (!leadership.hasLeadership() || webhook.isPaused()) {
+                result.complete(false);
+                return;
+            }
+            webhookScheduler.schedule(() -> attempt(attempt, attemptNumber + 1, result),
+                    getWaitMillis(attemptNumber, maxWaitMillis));
+        });
+    }
 
-                    private void close(ClientResponse response) {
-                        try {
-                            response.close();
-                        } catch (ClientHandlerException e) {
-                            logger.info("exception closing response", e);
-                        }
-                    }
-                })
-                .withWaitStrategy(WaitStrategies.exponentialWait(1000, webhook.getMaxWaitMinutes(), TimeUnit.MINUTES))
-                .withStopStrategy(failedAttempt -> !leadership.hasLeadership() || webhook.isPaused())
-                .build();
+    static long getWaitMillis(int attemptNumber, long maxWaitMillis) {
+        return Math.min(1000L << Math.min(attemptNumber, 30), maxWaitMillis);
     }
 
     private static void emitErrorToDataDog(String name, int status) {
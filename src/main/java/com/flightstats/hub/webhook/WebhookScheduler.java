@@ -0,0 +1,152 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubProperties;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * WebhookScheduler runs the work for every webhook on this hub with a fixed number of threads.
+ * Each webhook gets a Lane, which allows up to parallelCalls calls outstanding for the webhook.
+ * Lanes with queued calls take turns, one call at a time, so a busy webhook can not starve the others.
+ * Asynchronous calls keep their place in the lane until they complete, without holding a thread.
+ * The strategies share a scheduled pool to find the next items.
+ */
+@Singleton
+class WebhookScheduler {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookScheduler.class);
+
+    private final BlockingQueue<Lane> ready = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService strategyExecutor;
+
+    WebhookScheduler() {
+        this(HubProperties.getProperty("webhook.callThreads", 20),
+                HubProperties.getProperty("webhook.strategyThreads", 20));
+    }
+
+    WebhookScheduler(int callThreads, int strategyThreads) {
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("webhook-call-%d").setDaemon(true).build();
+        for (int i = 0; i < callThreads; i++) {
+            factory.newThread(this::work).start();
+        }
+        strategyExecutor = Executors.newScheduledThreadPool(strategyThreads,
+                new ThreadFactoryBuilder().setNameFormat("webhook-strategy-%d").setDaemon(true).build());
+    }
+
+    Lane createLane(String name, int parallelCalls) {
+        return new Lane(name, parallelCalls);
+    }
+
+    ScheduledFuture<?> schedule(Runnable runnable, long delayMillis) {
+        return strategyExecutor.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void work() {
+        while (true) {
+            try {
+                ready.take().runNext();
+            } catch (InterruptedException e) {
+                logger.info("interrupted");
+                return;
+            } catch (Exception e) {
+                logger.warn("unexpected issue running webhook call", e);
+            }
+        }
+    }
+
+    /**
+     * The calls for one webhook.
+     */
+    class Lane {
+
+        private final String name;
+        private final Semaphore permits;
+        private final int parallelCalls;
+        private final ConcurrentLinkedQueue<Runnable> calls = new ConcurrentLinkedQueue<>();
+        private boolean scheduled;
+        private int running;
+
+        private Lane(String name, int parallelCalls) {
+            this.name = name;
+            this.parallelCalls = parallelCalls;
+            this.permits = new Semaphore(parallelCalls);
+        }
+
+        /**
+         * Blocks until the webhook has fewer than parallelCalls calls outstanding.
+         */
+        void submit(Runnable call) throws InterruptedException {
+            submitAsync(() -> {
+                call.run();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        /**
+         * The call holds its place in the lane until the returned future completes, without holding a thread.
+         */
+        void submitAsync(Supplier<CompletableFuture<?>> call) throws InterruptedException {
+            permits.acquire();
+            calls.add(() -> {
+                CompletableFuture<?> future;
+                try {
+                    future = call.get();
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+                future.whenComplete((result, throwable) -> permits.release());
+            });
+            schedule();
+        }
+
+        private synchronized void schedule() {
+            if (!scheduled && running < parallelCalls && !calls.isEmpty()) {
+                scheduled = true;
+                ready.add(this);
+            }
+        }
+
+        private void runNext() {
+            Runnable call;
+            synchronized (this) {
+                scheduled = false;
+                call = calls.poll();
+                if (call == null) {
+                    return;
+                }
+                running++;
+            }
+            schedule();
+            Thread thread = Thread.currentThread();
+            String threadName = thread.getName();
+            thread.setName(threadName + "|" + name);
+            try {
+                call.run();
+            } finally {
+                thread.setName(threadName);
+                synchronized (this) {
+                    running--;
+                }
+                schedule();
+            }
+        }
+
+        /**
+         * Waits for the outstanding calls to complete.
+         */
+        boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+            if (permits.tryAcquire(parallelCalls, timeout, unit)) {
+                permits.release(parallelCalls);
+                return true;
+            }
+            return false;
+        }
+
+    }
+}
@@ -1,6 +1,7 @@
 package com.flightstats.hub.webhook;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.cluster.ContentNotifier;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.model.ContentKey;
@@ -11,7 +12,7 @@ import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 interface WebhookStrategy extends AutoCloseable {
@@ -38,19 +39,20 @@ interface WebhookStrategy extends AutoCloseable {
         return new ContentKey(TimeUtil.now(), "initial");
     }
 
-    static WebhookStrategy getStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService) {
+    static WebhookStrategy getStrategy(Webhook webhook, LastContentPath lastContentPath, ChannelService channelService,
+                                       ContentNotifier contentNotifier, WebhookScheduler webhookScheduler) {
         if (webhook.isMinute() || webhook.isSecond()) {
-            return new TimedWebhookStrategy(webhook, lastContentPath, channelService);
+            return new TimedWebhookStrategy(webhook, lastContentPath, channelService, webhookScheduler);
         }
-        return new SingleWebhookStrategy(webhook, lastContentPath, channelService);
+        return new SingleWebhookStrategy(webhook, lastContentPath, channelService, contentNotifier, webhookScheduler);
     }
 
-    static void close(AtomicBoolean shouldExit, ExecutorService executorService, BlockingQueue queue) {
+    static void close(AtomicBoolean shouldExit, Future<?> future, BlockingQueue queue) {
         if (!shouldExit.get()) {
             shouldExit.set(true);
         }
-        if (executorService != null) {
-            executorService.shutdownNow();
+        if (future != null) {
+            future.cancel(true);
         }
         if (queue != null) {
             queue.clear();
@@ -1,10 +1,11 @@
 package com.flightstats.hub.ws;
 
 import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.events.ChannelBroadcaster;
+import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
-import com.flightstats.hub.webhook.Webhook;
-import com.flightstats.hub.webhook.WebhookService;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -13,19 +14,20 @@ import org.slf4j.LoggerFactory;
 import javax.websocket.Session;
 import java.io.IOException;
 import java.net.URI;
-import java.net.UnknownHostException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 class WebSocketService {
 
     private final static Logger logger = LoggerFactory.getLogger(WebSocketService.class);
+    private static final long sendTimeoutMillis = HubProperties.getProperty("broadcast.sendTimeoutMillis", 10 * 1000);
     private static WebSocketService instance;
-    private final WebhookService webhookService;
-    private final Map<String, Session> sessionMap = new HashMap<>();
+    private final ChannelBroadcaster channelBroadcaster;
+    private final Map<String, ChannelBroadcaster.Subscription> subscriptionMap = new ConcurrentHashMap<>();
 
     private WebSocketService() {
-        webhookService = HubProvider.getInstance(WebhookService.class);
+        channelBroadcaster = HubProvider.getInstance(ChannelBroadcaster.class);
     }
 
     public static synchronized WebSocketService getInstance() {
@@ -35,20 +37,36 @@ class WebSocketService {
         return instance;
     }
 
-    void createCallback(Session session, String channel) throws UnknownHostException {
+    void createCallback(Session session, String channel) {
         ContentKey contentKey = new ContentKey();
         String id = setId(session, channel);
         URI uri = session.getRequestURI();
         logger.info("creating callback {} {} {}", channel, id, uri);
-        sessionMap.put(id, session);
-        Webhook webhook = Webhook.builder()
-                .channelUrl(getChannelUrl(uri))
-                .callbackUrl(getCallbackUrl(id))
-                .parallelCalls(1)
-                .name(id)
-                .startingKey(contentKey)
-                .build();
-        webhookService.upsert(webhook);
+        String channelUrl = getChannelUrl(uri);
+        ChannelBroadcaster.Subscription subscription = channelBroadcaster.subscribe(channel, contentKey, id,
+                new ChannelBroadcaster.Listener() {
+                    @Override
+                    public boolean needsContent() {
+                        return false;
+                    }
+
+                    @Override
+                    public void send(ContentKey key, Content content) throws Exception {
+                        session.getAsyncRemote().sendText(channelUrl + "/" + key.toUrl())
+                                .get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+                    }
+
+                    @Override
+                    public void close() {
+                        subscriptionMap.remove(id);
+                        try {
+                            session.close();
+                        } catch (IOException e) {
+                            logger.info("unable to close session {} {}", id, e.getMessage());
+                        }
+                    }
+                });
+        subscriptionMap.put(id, subscription);
     }
 
     private String getChannelUrl(URI uri) {
@@ -56,10 +74,6 @@ class WebSocketService {
         return StringUtils.removeEnd(channelUrl, "/ws");
     }
 
-    private String getCallbackUrl(String id) throws UnknownHostException {
-        return HubHost.getLocalHttpIpUri() + "/internal/ws/" + id;
-    }
-
     private String setId(Session session, String channel) {
         Map<String, Object> userProperties = session.getUserProperties();
         String id = "WS_" + channel + "_" + System.currentTimeMillis() + "_" + RandomStringUtils.randomAlphanumeric(6);
@@ -72,35 +86,11 @@ class WebSocketService {
         return (String) userProperties.get("id");
     }
 
-    public void call(String id, String uri) {
-        Session session = sessionMap.get(id);
-        if (session == null) {
-            logger.info("attempting to send to missing session {} {}", id, uri);
-            close(id);
-            return;
-        }
-        try {
-            session.getBasicRemote().sendText(uri);
-        } catch (IOException e) {
-            logger.warn("unable to send to session " + id + " uri " + uri + " " + e.getMessage());
-            close(id);
-        } catch (Exception e) {
-            logger.warn("unable to send to session " + id + " uri " + uri, e);
-            close(id);
-        }
-    }
-
     public void close(Session session) {
-        close(getId(session));
-    }
-
-    private void close(String id) {
-        try {
-            logger.info("deleting ws group {}", id);
-            webhookService.delete(id);
-            sessionMap.remove(id);
-        } catch (Exception e) {
-            logger.info("unable to close ws group " + id, e);
+        String id = getId(session);
+        ChannelBroadcaster.Subscription subscription = id == null ? null : subscriptionMap.remove(id);
+        if (subscription != null) {
+            subscription.close();
         }
     }
 }
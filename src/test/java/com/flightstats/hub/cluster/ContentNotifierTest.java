@@ -0,0 +1,48 @@
+package com.flightstats.hub.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.model.ContentKey;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentNotifierTest {
+
+    @Test
+    public void testPublish() {
+        ContentNotifier notifier = new ContentNotifier();
+        List<ContentKey> received = new ArrayList<>();
+        Consumer<ContentKey> subscriber = received::add;
+        notifier.subscribe("testPublish", subscriber);
+        ContentKey first = new ContentKey();
+        ContentKey second = new ContentKey();
+        notifier.publish("TestPublish", first);
+        notifier.publish("other", new ContentKey());
+        notifier.publish("testPublish", second);
+        assertEquals(Arrays.asList(first, second), received);
+
+        notifier.unsubscribe("testPublish", subscriber);
+        notifier.publish("testPublish", new ContentKey());
+        assertEquals(2, received.size());
+    }
+
+    @Test
+    public void testReceive() {
+        ContentNotifier notifier = new ContentNotifier();
+        List<ContentKey> received = new ArrayList<>();
+        notifier.subscribe("testReceive", received::add);
+        ContentKey key = new ContentKey();
+        ObjectNode channels = new ObjectMapper().createObjectNode();
+        channels.put("testreceive", key.toUrl());
+        channels.put("other", new ContentKey().toUrl());
+        notifier.receive(channels);
+        assertEquals(Collections.singletonList(key), received);
+    }
+}
@@ -3,14 +3,14 @@ package com.flightstats.hub.cluster;
 import com.flightstats.hub.test.Integration;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.data.Stat;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
-import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class WatchManagerTest {
 
@@ -67,4 +67,33 @@ public class WatchManagerTest {
         assertFalse(countDownLatch.await(1, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testData() throws Exception {
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        Watcher watcher = new Watcher() {
+            @Override
+            public void callback(CuratorEvent event) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public String getPath() {
+                return "/testData";
+            }
+        };
+        watchManager.register(watcher);
+
+        Stat stat = new Stat();
+        watchManager.getData(watcher.getPath(), stat);
+        int version = stat.getVersion();
+        watchManager.notifyWatcher(watcher.getPath(), "one".getBytes());
+        assertArrayEquals("one".getBytes(), watchManager.getData(watcher.getPath(), stat));
+        assertEquals(version + 1, stat.getVersion());
+        watchManager.notifyWatcher(watcher.getPath(), "two".getBytes());
+        assertTrue(countDownLatch.await(1, TimeUnit.SECONDS));
+        assertArrayEquals("two".getBytes(), watchManager.getData(watcher.getPath(), stat));
+        assertEquals(version + 2, stat.getVersion());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.cluster.WatchManager;
+import com.flightstats.hub.model.NamedType;
+import com.google.common.primitives.Longs;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class CachedDaoTest {
+
+    private static final String path = "/testCachedDao";
+
+    private Dao<Named> delegate;
+    private WatchManager watchManager;
+    private CachedDao<Named> cachedDao;
+    private int zkVersion;
+    private byte[] zkData;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        delegate = mock(Dao.class);
+        watchManager = mock(WatchManager.class);
+        when(watchManager.getData(eq(path), any(Stat.class))).thenAnswer(invocation -> {
+            ((Stat) invocation.getArguments()[1]).setVersion(zkVersion);
+            return zkData;
+        });
+        cachedDao = new CachedDao<>(delegate, watchManager, path);
+        zkVersion = 3;
+        zkData = Longs.toByteArray(System.currentTimeMillis());
+        when(delegate.getAll(false)).thenReturn(Collections.singletonList(new Named("a")));
+        cachedDao.reconcile();
+        assertNames("a");
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        change(4, "b");
+        when(delegate.get("b")).thenReturn(new Named("b"));
+        cachedDao.onChange();
+        assertNames("a", "b");
+
+        change(5, "a");
+        cachedDao.onChange();
+        assertNames("b");
+
+        cachedDao.onChange();
+        verify(delegate, times(1)).get("b");
+        verify(delegate, times(1)).get("a");
+        verify(delegate, times(1)).getAll(false);
+    }
+
+    @Test
+    public void testMissedVersion() throws Exception {
+        change(5, "b");
+        when(delegate.getAll(false)).thenReturn(Arrays.asList(new Named("b"), new Named("c")));
+        cachedDao.onChange();
+        assertNames("b", "c");
+        verify(delegate, times(2)).getAll(false);
+        verify(delegate, never()).get(anyString());
+    }
+
+    @Test
+    public void testUnknownData() throws Exception {
+        zkVersion = 4;
+        zkData = Longs.toByteArray(System.currentTimeMillis());
+        cachedDao.onChange();
+        verify(delegate, times(2)).getAll(false);
+        verify(delegate, never()).get(anyString());
+    }
+
+    @Test
+    public void testNotify() throws Exception {
+        cachedDao.upsert(new Named("d"));
+        verify(watchManager).notifyWatcher(path, "name:d".getBytes());
+        assertNames("a", "d");
+        cachedDao.delete("a");
+        verify(watchManager).notifyWatcher(path, "name:a".getBytes());
+        assertNames("d");
+    }
+
+    private void change(int version, String name) {
+        zkVersion = version;
+        zkData = ("name:" + name).getBytes();
+    }
+
+    private void assertNames(String... names) {
+        assertEquals(new HashSet<>(Arrays.asList(names)),
+                cachedDao.getAll(true).stream().map(Named::getName).collect(Collectors.toSet()));
+    }
+
+    private static class Named implements NamedType {
+
+        private final String name;
+
+        private Named(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
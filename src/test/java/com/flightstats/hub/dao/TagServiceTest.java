@@ -0,0 +1,61 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.ContentKey;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class TagServiceTest {
+
+    @Test
+    public void testMergeAscending() {
+        Map<String, SortedSet<ContentKey>> results = createResults();
+        SortedSet<ChannelContentKey> expected = all(results);
+        assertEquals(expected, TagService.merge(results, true, Integer.MAX_VALUE));
+
+        SortedSet<ChannelContentKey> first = TagService.merge(results, true, 7);
+        assertEquals(7, first.size());
+        assertEquals(expected.headSet(new ArrayList<>(expected).get(7)), first);
+    }
+
+    @Test
+    public void testMergeDescending() {
+        Map<String, SortedSet<ContentKey>> results = createResults();
+        List<ChannelContentKey> expected = new ArrayList<>(all(results));
+        SortedSet<ChannelContentKey> last = TagService.merge(results, false, 5);
+        assertEquals(new TreeSet<>(expected.subList(expected.size() - 5, expected.size())), last);
+    }
+
+    @Test
+    public void testMergeEmpty() {
+        Map<String, SortedSet<ContentKey>> results = new LinkedHashMap<>();
+        assertEquals(0, TagService.merge(results, true, 10).size());
+        results.put("empty", new TreeSet<>());
+        assertEquals(0, TagService.merge(results, false, 10).size());
+    }
+
+    private Map<String, SortedSet<ContentKey>> createResults() {
+        Map<String, SortedSet<ContentKey>> results = new LinkedHashMap<>();
+        Random random = new Random(1);
+        for (int channel = 0; channel < 4; channel++) {
+            SortedSet<ContentKey> keys = new TreeSet<>();
+            for (int i = 0; i < 10; i++) {
+                keys.add(new ContentKey(1000L * random.nextInt(50), "hash" + i));
+            }
+            results.put("channel" + channel, keys);
+        }
+        //the same key in two channels is ordered by channel name
+        results.get("channel0").add(new ContentKey(12345L, "same"));
+        results.get("channel1").add(new ContentKey(12345L, "same"));
+        return results;
+    }
+
+    private SortedSet<ChannelContentKey> all(Map<String, SortedSet<ContentKey>> results) {
+        SortedSet<ChannelContentKey> all = new TreeSet<>();
+        results.forEach((channel, keys) -> keys.forEach(key -> all.add(new ChannelContentKey(channel, key))));
+        return all;
+    }
+}
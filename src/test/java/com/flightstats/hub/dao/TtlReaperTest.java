@@ -0,0 +1,94 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.InFlightService;
+import com.flightstats.hub.metrics.MetricsService;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TtlReaperTest {
+
+    private File root;
+    private MetricsService metricsService;
+    private TtlReaper reaper;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDir();
+        metricsService = mock(MetricsService.class);
+        reaper = new TtlReaper("test", mock(InFlightService.class), metricsService);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        write("channel/2016/01/01/00/01/item1", 10);
+        write("channel/2016/01/01/00/01/item2", 20);
+        write("channel/2016/01/01/00/02/item3", 30);
+
+        reaper.delete(root + "/channel/2016/01/01/00/01");
+        assertFalse(new File(root, "channel/2016/01/01/00/01").exists());
+        assertTrue(new File(root, "channel/2016/01/01/00/02/item3").exists());
+        assertEquals(2, reaper.getItems());
+        assertEquals(30, reaper.getBytes());
+
+        reaper.delete(root + "/channel/2016/01/01/00/01");
+        assertEquals(2, reaper.getItems());
+
+        reaper.report();
+        verify(metricsService).count("ttl.items", 2, "name:test");
+        verify(metricsService).count("ttl.bytes", 30, "name:test");
+    }
+
+    @Test
+    public void testDeleteModifiedBefore() throws Exception {
+        long now = System.currentTimeMillis();
+        File old = write("channel/2016/01/01/00/01/old", 10);
+        File oldDir = old.getParentFile();
+        File recent = write("channel/2016/01/01/00/02/recent", 20);
+        assertTrue(old.setLastModified(now - 120_000));
+        assertTrue(oldDir.setLastModified(now - 120_000));
+
+        reaper.deleteModifiedBefore(root + "/channel", now - 60_000);
+        assertFalse(old.exists());
+        assertFalse(oldDir.exists());
+        assertTrue(recent.exists());
+        assertTrue(new File(root, "channel").exists());
+        assertEquals(1, reaper.getItems());
+        assertEquals(10, reaper.getBytes());
+    }
+
+    @Test
+    public void testYieldIsBounded() throws Exception {
+        InFlightService inFlightService = mock(InFlightService.class);
+        when(inFlightService.getInFlight()).thenReturn(100);
+        reaper = new TtlReaper("test", inFlightService, metricsService);
+        for (int i = 0; i < 20; i++) {
+            write("channel/2016/01/01/00/01/item" + i, 1);
+        }
+        long start = System.currentTimeMillis();
+        reaper.delete(root + "/channel");
+        assertEquals(20, reaper.getItems());
+        assertEquals(1000, reaper.getYielded());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testMissing() {
+        reaper.delete(root + "/missing");
+        reaper.deleteModifiedBefore(root + "/missing", System.currentTimeMillis());
+        assertEquals(0, reaper.getItems());
+    }
+
+    private File write(String path, int size) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(new byte[size], file);
+        return file;
+    }
+}
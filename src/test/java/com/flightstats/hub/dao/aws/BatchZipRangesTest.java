@@ -0,0 +1,185 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.flightstats.hub.channel.ZipBulkBuilder;
+import com.flightstats.hub.dao.ContentDaoUtil;
+import com.flightstats.hub.metrics.NoOpMetricsService;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class BatchZipRangesTest {
+
+    @Test
+    public void testRanges() throws Exception {
+        List<Content> contents = new ArrayList<>();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ZipOutputStream output = new ZipOutputStream(baos);
+        for (int i = 0; i < 20; i++) {
+            Content content = ContentDaoUtil.createContent(new ContentKey(TimeUtil.now().plusMillis(i), "" + i));
+            contents.add(content);
+            ZipBulkBuilder.createZipEntry(output, ContentDaoUtil.createContent(content.getContentKey().get()));
+        }
+        output.close();
+        byte[] zip = baos.toByteArray();
+
+        Map<String, long[]> ranges = BatchZipRanges.read(zip);
+        assertEquals(contents.size(), ranges.size());
+        for (Content content : contents) {
+            String key = content.getContentKey().get().toUrl();
+            long[] range = ranges.get(key);
+            ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(zip, (int) range[0], (int) range[1]));
+            ZipEntry entry = zipStream.getNextEntry();
+            assertEquals(key, entry.getName());
+            assertArrayEquals(content.getData(), ByteStreams.toByteArray(zipStream));
+            assertNull(zipStream.getNextEntry());
+        }
+    }
+
+    @Test
+    public void testRangedGet() throws Exception {
+        AmazonS3 s3Client = mockS3(new HashMap<>());
+        S3BatchContentDao contentDao = createDao(s3Client);
+        MinutePath minutePath = new MinutePath();
+        List<ContentKey> keys = writeBatch(contentDao, "testRangedGet", minutePath);
+
+        for (ContentKey key : keys) {
+            Content read = contentDao.get("testRangedGet", key);
+            assertArrayEquals(key.toString().getBytes(), read.getData());
+            assertEquals("stuff", read.getContentType().get());
+        }
+        assertNull(contentDao.get("testRangedGet", new ContentKey(minutePath.getTime(), "missing")));
+        verify(s3Client, times(5)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void testCachedIndex() throws Exception {
+        AmazonS3 s3Client = mockS3(new HashMap<>());
+        S3BatchContentDao contentDao = createDao(s3Client);
+        MinutePath minutePath = new MinutePath();
+        String channel = "testCachedIndex";
+        List<ContentKey> keys = writeBatch(contentDao, channel, minutePath);
+
+        TimeQuery query = TimeQuery.builder().channelName(channel)
+                .startTime(minutePath.getTime()).unit(TimeUtil.Unit.MINUTES).build();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(new TreeSet<>(keys), contentDao.queryByTime(query));
+        }
+        for (ContentKey key : keys) {
+            assertNotNull(contentDao.get(channel, key));
+        }
+        TimeQuery dayQuery = TimeQuery.builder().channelName(channel)
+                .startTime(minutePath.getTime()).unit(TimeUtil.Unit.DAYS).build();
+        assertEquals(new TreeSet<>(keys), contentDao.queryByTime(dayQuery));
+        verify(s3Client, times(1)).getObject(anyString(), anyString());
+
+        writeBatch(contentDao, channel, minutePath);
+        contentDao.queryByTime(query);
+        verify(s3Client, times(2)).getObject(anyString(), anyString());
+
+        contentDao.deleteBefore(channel, new ContentKey(minutePath.getTime().plusMinutes(1), "A"));
+        assertTrue(contentDao.queryByTime(query).isEmpty());
+    }
+
+    private AmazonS3 mockS3(Map<String, byte[]> objects) {
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        when(s3Client.putObject(any(PutObjectRequest.class))).then(invocation -> {
+            PutObjectRequest request = (PutObjectRequest) invocation.getArguments()[0];
+            objects.put(request.getKey(), ByteStreams.toByteArray(request.getInputStream()));
+            return null;
+        });
+        when(s3Client.getObject(anyString(), anyString())).then(invocation ->
+                s3Object(objects.get((String) invocation.getArguments()[1]), 0, -1));
+        when(s3Client.getObject(any(GetObjectRequest.class))).then(invocation -> {
+            GetObjectRequest request = (GetObjectRequest) invocation.getArguments()[0];
+            long[] range = request.getRange();
+            return s3Object(objects.get(request.getKey()), (int) range[0], (int) range[1]);
+        });
+        when(s3Client.listObjects(any(ListObjectsRequest.class))).then(invocation -> {
+            ListObjectsRequest request = (ListObjectsRequest) invocation.getArguments()[0];
+            ObjectListing listing = new ObjectListing();
+            objects.keySet().stream()
+                    .filter(key -> key.startsWith(request.getPrefix()))
+                    .forEach(key -> {
+                        S3ObjectSummary summary = new S3ObjectSummary();
+                        summary.setKey(key);
+                        listing.getObjectSummaries().add(summary);
+                    });
+            return listing;
+        });
+        doAnswer(invocation -> {
+            DeleteObjectsRequest request = (DeleteObjectsRequest) invocation.getArguments()[0];
+            request.getKeys().forEach(key -> objects.remove(key.getKey()));
+            return null;
+        }).when(s3Client).deleteObjects(any(DeleteObjectsRequest.class));
+        return s3Client;
+    }
+
+    private S3BatchContentDao createDao(AmazonS3 s3Client) {
+        return S3BatchContentDao.builder()
+                .s3Client(s3Client)
+                .s3BucketName(new S3BucketName("local", "hub-v2"))
+                .metricsService(new NoOpMetricsService())
+                .build();
+    }
+
+    private List<ContentKey> writeBatch(S3BatchContentDao contentDao, String channel, MinutePath minutePath) throws Exception {
+        List<ContentKey> keys = new ArrayList<>();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ZipOutputStream output = new ZipOutputStream(baos);
+        for (int i = 0; i < 5; i++) {
+            ContentKey key = new ContentKey(minutePath.getTime().plusSeconds(i), "" + i);
+            keys.add(key);
+            ZipBulkBuilder.createZipEntry(output, ContentDaoUtil.createContent(key));
+        }
+        output.close();
+        contentDao.writeBatch(channel, minutePath, keys, baos.toByteArray());
+        return keys;
+    }
+
+    private S3Object s3Object(byte[] bytes, int start, int end) {
+        if (bytes == null) {
+            AmazonS3Exception exception = new AmazonS3Exception("missing");
+            exception.setStatusCode(404);
+            throw exception;
+        }
+        S3Object object = new S3Object();
+        int length = end < 0 ? bytes.length : end - start + 1;
+        object.setObjectContent(new ByteArrayInputStream(bytes, start, length));
+        return object;
+    }
+
+    @Test
+    public void testNotZip() {
+        assertTrue(BatchZipRanges.read(new byte[0]).isEmpty());
+        assertTrue(BatchZipRanges.read("not a zip file at all, just some text".getBytes()).isEmpty());
+    }
+}
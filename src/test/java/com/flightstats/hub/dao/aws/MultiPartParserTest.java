@@ -9,6 +9,9 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -186,4 +189,67 @@ public class MultiPartParserTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testLargeItems() throws IOException {
+        StringBuilder data = new StringBuilder();
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String item = StringUtils.repeat("--frontie\r\n--frontier-" + i, 10 * 1000 + i * 3);
+            items.add(item);
+            data.append("--frontier\r\n")
+                    .append("Content-Type: text/plain\r\n")
+                    .append("\r\n")
+                    .append(item)
+                    .append("\r\n");
+        }
+        data.append("--frontier--");
+        verifyItems(items, new ByteArrayInputStream(data.toString().getBytes()));
+        verifyItems(items, new SlowInputStream(data.toString().getBytes()));
+    }
+
+    @Test
+    public void testMissingEnd() throws IOException {
+        String data = "--boundary\r\n" +
+                "\r\n" +
+                "first\r\n" +
+                "--boundary\r\n" +
+                "\r\n" +
+                "second";
+        BulkContent bulkContent = BulkContent.builder()
+                .stream(new ByteArrayInputStream(data.getBytes()))
+                .contentType("multipart/mixed; boundary=boundary")
+                .build();
+        new MultiPartParser(bulkContent).parse();
+        assertEquals(1, bulkContent.getItems().size());
+        assertEquals("first", new String(bulkContent.getItems().get(0).getData()));
+    }
+
+    private void verifyItems(List<String> items, InputStream inputStream) throws IOException {
+        BulkContent bulkContent = BulkContent.builder()
+                .stream(inputStream)
+                .contentType("multipart/mixed; boundary=frontier")
+                .isNew(true)
+                .build();
+        new MultiPartParser(bulkContent).parse();
+        assertEquals(items.size(), bulkContent.getItems().size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(items.get(i), new String(bulkContent.getItems().get(i).getData()));
+        }
+    }
+
+    /**
+     * Returns at most 7 bytes per read, so boundaries span reads.
+     */
+    private static class SlowInputStream extends ByteArrayInputStream {
+
+        SlowInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] bytes, int offset, int length) {
+            return super.read(bytes, offset, Math.min(length, 7));
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.exception.FailedQueryException;
+import com.flightstats.hub.metrics.NoOpMetricsService;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class QueryExecutorTest {
+
+    private static final long FAR = Long.MAX_VALUE;
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+        QueryExecutor executor = new QueryExecutor("testRejectsWhenFull", 1, 1, NoOpMetricsService::new);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> running = executor.submit(() -> {
+            started.countDown();
+            release.await();
+            return "running";
+        }, FAR);
+        started.await();
+        Future<String> queued = executor.submit(() -> "queued", FAR);
+        assertEquals(1, executor.getQueueDepth());
+        try {
+            executor.submit(() -> "rejected", FAR);
+            fail("expected the query to be rejected");
+        } catch (FailedQueryException e) {
+            assertTrue(e.getMessage().contains("testRejectsWhenFull"));
+        }
+        release.countDown();
+        assertEquals("running", running.get());
+        assertEquals("queued", queued.get());
+    }
+
+    @Test
+    public void testSkipsAfterDeadline() throws Exception {
+        QueryExecutor executor = new QueryExecutor("testSkipsAfterDeadline", 1, 10, NoOpMetricsService::new);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            release.await();
+            return "first";
+        }, FAR);
+        boolean[] called = {false};
+        Future<String> late = executor.submit(() -> {
+            called[0] = true;
+            return "late";
+        }, System.currentTimeMillis() + 10);
+        Thread.sleep(50);
+        release.countDown();
+        try {
+            late.get();
+            fail("expected the late query to be skipped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+        }
+        assertFalse(called[0]);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        QueryExecutor executor = new QueryExecutor("testCancel", 1, 10, NoOpMetricsService::new);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Future<String> future = executor.submit(() -> {
+            try {
+                Thread.sleep(60 * 1000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "done";
+        }, FAR);
+        Thread.sleep(50);
+        future.cancel(true);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+}
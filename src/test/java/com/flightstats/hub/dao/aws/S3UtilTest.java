@@ -0,0 +1,111 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class S3UtilTest {
+
+    @Test
+    public void testInOrder() {
+        List<Callable<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            calls.add(() -> {
+                Thread.sleep((100 - value) % 7);
+                return value;
+            });
+        }
+        List<Integer> results = new ArrayList<>();
+        S3Util.inOrder(calls, calls.size(), results::add);
+        assertEquals(100, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void testInOrderStops() {
+        AtomicInteger called = new AtomicInteger();
+        List<Callable<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int value = i;
+            calls.add(() -> {
+                called.incrementAndGet();
+                return value;
+            });
+        }
+        List<Integer> results = new ArrayList<>();
+        S3Util.inOrder(calls, 1, value -> {
+            results.add(value);
+            return value < 2;
+        });
+        assertEquals(3, results.size());
+        assertTrue(called.get() < 20);
+    }
+
+    @Test
+    public void testNested() {
+        List<Callable<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            calls.add(() -> {
+                List<Callable<Integer>> inner = new ArrayList<>();
+                for (int j = 0; j < 50; j++) {
+                    inner.add(() -> 1);
+                }
+                AtomicInteger sum = new AtomicInteger();
+                S3Util.inOrder(inner, inner.size(), value -> sum.addAndGet(value) > 0);
+                return sum.get();
+            });
+        }
+        AtomicInteger total = new AtomicInteger();
+        S3Util.inOrder(calls, calls.size(), value -> total.addAndGet(value) > 0);
+        assertEquals(2500, total.get());
+    }
+
+    @Test
+    public void testPreviousWindows() {
+        DateTime start = new DateTime(2016, 11, 20, 10, 30, DateTimeZone.UTC);
+        DirectionQuery query = DirectionQuery.builder()
+                .channelName("testPreviousWindows")
+                .startKey(new ContentKey(start, "A"))
+                .count(10)
+                .earliestTime(start.minusDays(60))
+                .build();
+        List<TimeQuery> windows = S3Util.getPreviousWindows(query);
+        assertEquals(TimeUtil.Unit.HOURS, windows.get(0).getUnit());
+        assertEquals(start, windows.get(0).getStartTime());
+        assertEquals(TimeUtil.Unit.HOURS, windows.get(47).getUnit());
+        assertEquals(TimeUtil.Unit.DAYS, windows.get(48).getUnit());
+        assertEquals(start.minusDays(2), windows.get(48).getStartTime());
+        TimeQuery last = windows.get(windows.size() - 1);
+        assertEquals(TimeUtil.Unit.MONTHS, last.getUnit());
+        assertTrue(last.getStartTime().isAfter(start.minusDays(60).minusDays(2)));
+    }
+
+    @Test
+    public void testPrefixes() {
+        DateTime day = new DateTime(2016, 2, 10, 0, 0, DateTimeZone.UTC);
+        List<String> hours = S3BatchContentDao.getPrefixes(TimeUtil.Unit.DAYS, day);
+        assertEquals(24, hours.size());
+        assertEquals("2016/02/10/00", hours.get(0));
+        assertEquals("2016/02/10/23", hours.get(23));
+        List<String> days = S3BatchContentDao.getPrefixes(TimeUtil.Unit.MONTHS, day);
+        assertEquals(29, days.size());
+        assertEquals("2016/02/01", days.get(0));
+        assertEquals("2016/02/29", days.get(28));
+        assertEquals("2016/02/10/00", S3BatchContentDao.getPrefixes(TimeUtil.Unit.HOURS, day).get(0));
+    }
+}
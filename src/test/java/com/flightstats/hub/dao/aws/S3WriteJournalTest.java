@@ -0,0 +1,152 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class S3WriteJournalTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDir();
+    }
+
+    @Test
+    public void testAckDeletes() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 10, MINUTE);
+        List<S3WriteJournal.Entry> entries = append(journal, 25);
+        assertEquals(3, journal.getSegmentCount());
+        for (S3WriteJournal.Entry entry : entries) {
+            journal.ack(entry);
+        }
+        assertEquals(1, journal.getSegmentCount());
+        journal.close();
+        assertEquals(0, journal.getSegmentCount());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testSegmentExpires() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 10, 0);
+        journal.ack(journal.append(key(0)));
+        assertEquals(1, journal.getSegmentCount());
+        journal.checkpoint();
+        assertEquals(0, journal.getSegmentCount());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testRecoverAcks() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 10, MINUTE);
+        List<S3WriteJournal.Entry> entries = append(journal, 5);
+        journal.ack(entries.get(1));
+        journal.ack(entries.get(3));
+        journal.checkpoint();
+        journal.ack(entries.get(4));
+        S3WriteJournal recovered = new S3WriteJournal(directory, 10, MINUTE);
+        List<ChannelContentKey> keys = recovered.recover().stream()
+                .map(S3WriteJournal.Entry::getKey)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList(key(0), key(2), key(4)), keys);
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 10, MINUTE);
+        List<S3WriteJournal.Entry> entries = append(journal, 25);
+        for (int i = 0; i < 10; i++) {
+            journal.ack(entries.get(i));
+        }
+        S3WriteJournal recovered = new S3WriteJournal(directory, 10, MINUTE);
+        List<ChannelContentKey> keys = recovered.recover().stream()
+                .map(S3WriteJournal.Entry::getKey)
+                .collect(Collectors.toList());
+        assertEquals(keys(entries.subList(10, 25)), keys);
+        S3WriteJournal.Entry next = recovered.append(key(100));
+        recovered.ack(next);
+        assertEquals(3, recovered.getSegmentCount());
+    }
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 50, MINUTE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 100;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 100; i++) {
+                    journal.append(key(offset + i));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        S3WriteJournal recovered = new S3WriteJournal(directory, 50, MINUTE);
+        assertEquals(400, new HashSet<>(keys(recovered.recover())).size());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        S3WriteJournal journal = new S3WriteJournal(directory, 10, MINUTE);
+        List<S3WriteJournal.Entry> entries = append(journal, 25);
+        for (int i = 0; i < 25; i++) {
+            if (i % 2 == 0) {
+                journal.spill(entries.get(i));
+            } else {
+                journal.ack(entries.get(i));
+            }
+        }
+        assertEquals(13, journal.getSpilled());
+        List<S3WriteJournal.Entry> first = journal.unspill(5);
+        assertEquals(5, first.size());
+        List<S3WriteJournal.Entry> rest = journal.unspill(100);
+        assertEquals(8, rest.size());
+        assertEquals(0, journal.getSpilled());
+        List<S3WriteJournal.Entry> unspilled = new ArrayList<>(first);
+        unspilled.addAll(rest);
+        List<S3WriteJournal.Entry> expected = new ArrayList<>();
+        for (int i = 0; i < 25; i += 2) {
+            expected.add(entries.get(i));
+        }
+        assertEquals(keys(expected), keys(unspilled));
+        unspilled.forEach(journal::ack);
+        assertEquals(1, journal.getSegmentCount());
+    }
+
+    private List<S3WriteJournal.Entry> append(S3WriteJournal journal, int count) throws Exception {
+        List<S3WriteJournal.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(journal.append(key(i)));
+        }
+        return entries;
+    }
+
+    private ChannelContentKey key(int i) {
+        return new ChannelContentKey("testJournal" + (i % 3), new ContentKey(1000L * i, "hash" + i));
+    }
+
+    private List<ChannelContentKey> keys(List<S3WriteJournal.Entry> entries) {
+        return entries.stream().map(S3WriteJournal.Entry::getKey).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,54 @@
+package com.flightstats.hub.dao.aws;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class S3WriteLimitTest {
+
+    @Test
+    public void testGrowsWhenFast() {
+        S3WriteLimit limit = new S3WriteLimit(2, 10, 40);
+        long now = 0;
+        for (int i = 0; i < 1000; i++) {
+            limit.update(50, now += 10);
+        }
+        assertEquals(40, limit.getLimit());
+    }
+
+    @Test
+    public void testShrinksWhenSlow() {
+        S3WriteLimit limit = new S3WriteLimit(2, 20, 40);
+        long now = 0;
+        for (int i = 0; i < 100; i++) {
+            limit.update(50, now += 10);
+        }
+        int fast = limit.getLimit();
+        for (int i = 0; i < 5000; i++) {
+            limit.update(500, now += 10);
+        }
+        assertTrue(limit.getLimit() < fast);
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void testAcquire() throws Exception {
+        S3WriteLimit limit = new S3WriteLimit(1, 2, 2);
+        limit.acquire();
+        limit.acquire();
+        Thread thread = new Thread(() -> {
+            try {
+                limit.acquire();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join(100);
+        assertTrue(thread.isAlive());
+        limit.release();
+        thread.join(1000);
+        assertTrue(!thread.isAlive());
+    }
+}
@@ -0,0 +1,174 @@
+package com.flightstats.hub.events;
+
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.Request;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ChannelBroadcasterTest {
+
+    private final ConcurrentSkipListSet<ContentKey> channelKeys = new ConcurrentSkipListSet<>();
+    private ChannelService channelService;
+
+    @Before
+    public void setUp() throws Exception {
+        channelService = mock(ChannelService.class);
+        when(channelService.getLastUpdated(anyString(), any(ContentPath.class)))
+                .thenAnswer(invocation -> invocation.getArguments()[1]);
+        when(channelService.query(any(DirectionQuery.class))).thenAnswer(invocation -> {
+            DirectionQuery query = (DirectionQuery) invocation.getArguments()[0];
+            SortedSet<ContentKey> keys = new TreeSet<>();
+            for (ContentKey key : channelKeys.tailSet(query.getStartKey(), false)) {
+                if (keys.size() == query.getCount()) {
+                    break;
+                }
+                keys.add(key);
+            }
+            return keys;
+        });
+        when(channelService.get(any(Request.class))).thenAnswer(invocation -> {
+            Request request = (Request) invocation.getArguments()[0];
+            return Optional.of(Content.builder()
+                    .withContentKey(request.getKey())
+                    .withData(request.getKey().toUrl().getBytes())
+                    .build());
+        });
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        ChannelBroadcaster broadcaster = new ChannelBroadcaster(channelService, 100, 10, 10_000);
+        ContentKey start = new ContentKey(TimeUtil.now().minusMinutes(1));
+        List<ContentKey> older = addKeys(TimeUtil.now().minusSeconds(30), 3);
+        TestListener contentListener = new TestListener(true, 6);
+        TestListener keyListener = new TestListener(false, 6);
+        broadcaster.subscribe("testFanOut", start, "content", contentListener);
+        broadcaster.subscribe("testFanOut", start, "key", keyListener);
+        assertTrue(contentListener.waitFor(older.size()));
+        assertTrue(keyListener.waitFor(older.size()));
+
+        List<ContentKey> newer = addKeys(TimeUtil.now(), 3);
+        assertTrue(contentListener.latch.await(5, TimeUnit.SECONDS));
+        assertTrue(keyListener.latch.await(5, TimeUnit.SECONDS));
+
+        List<ContentKey> expected = new ArrayList<>(older);
+        expected.addAll(newer);
+        assertEquals(expected, contentListener.keys);
+        assertEquals(expected, keyListener.keys);
+        assertEquals(expected.size(), contentListener.contents.size());
+        assertTrue(keyListener.contents.isEmpty());
+        for (ContentKey key : newer) {
+            verify(channelService, times(1)).get(Request.builder().channel("testFanOut").key(key).build());
+        }
+    }
+
+    @Test
+    public void testSlowListenerClosed() throws Exception {
+        ChannelBroadcaster broadcaster = new ChannelBroadcaster(channelService, 3, 10, 10_000);
+        TestListener slowListener = new TestListener(false, 1);
+        slowListener.blocked = new CountDownLatch(1);
+        TestListener fastListener = new TestListener(false, 10);
+        broadcaster.subscribe("testSlowListenerClosed", new ContentKey(), "slow", slowListener);
+        broadcaster.subscribe("testSlowListenerClosed", new ContentKey(), "fast", fastListener);
+        List<ContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(50);
+            keys.addAll(addKeys(TimeUtil.now(), 1));
+        }
+        assertTrue(fastListener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(keys, fastListener.keys);
+        assertTrue(slowListener.closed.await(5, TimeUnit.SECONDS));
+        slowListener.blocked.countDown();
+        assertEquals(1, fastListener.closed.getCount());
+    }
+
+    @Test
+    public void testStalledListenerClosed() throws Exception {
+        ChannelBroadcaster broadcaster = new ChannelBroadcaster(channelService, 100, 10, 200);
+        TestListener stalledListener = new TestListener(false, 1);
+        stalledListener.blocked = new CountDownLatch(1);
+        TestListener fastListener = new TestListener(false, 5);
+        broadcaster.subscribe("testStalledListenerClosed", new ContentKey(), "stalled", stalledListener);
+        broadcaster.subscribe("testStalledListenerClosed", new ContentKey(), "fast", fastListener);
+        List<ContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(50);
+            keys.addAll(addKeys(TimeUtil.now(), 1));
+        }
+        assertTrue(fastListener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(keys, fastListener.keys);
+        assertTrue(stalledListener.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(stalledListener.keys.isEmpty());
+        assertEquals(1, fastListener.closed.getCount());
+    }
+
+    private List<ContentKey> addKeys(DateTime time, int count) {
+        List<ContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ContentKey key = new ContentKey(time.plusMillis(i), "key" + i);
+            keys.add(key);
+            channelKeys.add(key);
+        }
+        return keys;
+    }
+
+    private static class TestListener implements ChannelBroadcaster.Listener {
+
+        private final boolean needsContent;
+        private final List<ContentKey> keys = Collections.synchronizedList(new ArrayList<>());
+        private final List<Content> contents = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch latch;
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private CountDownLatch blocked;
+
+        private TestListener(boolean needsContent, int expected) {
+            this.needsContent = needsContent;
+            this.latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public boolean needsContent() {
+            return needsContent;
+        }
+
+        @Override
+        public void send(ContentKey key, Content content) throws Exception {
+            if (blocked != null) {
+                blocked.await();
+            }
+            keys.add(key);
+            if (content != null) {
+                contents.add(content);
+            }
+            latch.countDown();
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        private boolean waitFor(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while (keys.size() < count && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            return keys.size() >= count;
+        }
+    }
+}
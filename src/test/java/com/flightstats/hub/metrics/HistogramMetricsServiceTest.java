@@ -0,0 +1,30 @@
+package com.flightstats.hub.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramMetricsServiceTest {
+
+    @Test
+    public void testChannelsDoNotDropAggregates() {
+        HistogramMetricsService service = new HistogramMetricsService();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 1010; i++) {
+            service.time("channel" + i, "request", start, "method:GET");
+        }
+        service.time("request", start, "method:PUT");
+        ObjectNode root = new ObjectMapper().createObjectNode();
+        service.output(root, null);
+        ObjectNode histograms = (ObjectNode) root.get("histograms");
+        assertEquals(1010, histograms.get("request method:GET").get("cumulative").get("count").asLong());
+        assertTrue(histograms.has("request method:PUT"));
+        assertTrue(histograms.has("request channel:channel999"));
+        assertFalse(histograms.has("request channel:channel1000"));
+        assertEquals(10, root.get("dropped").asLong());
+    }
+}
@@ -0,0 +1,60 @@
+package com.flightstats.hub.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value <= LatencyHistogram.MAX_VALUE; value += 1 + value / 7) {
+            int index = LatencyHistogram.index(value);
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(value + " " + highest, value <= highest);
+            assertTrue(value + " " + highest, highest - value <= value / 32);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.highestValue(index - 1) < value);
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(LatencyHistogram.MAX_VALUE));
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot cumulative = histogram.getCumulative();
+        assertEquals(1000, cumulative.getCount());
+        assertEquals(503, cumulative.getPercentile(50));
+        assertEquals(991, cumulative.getPercentile(99));
+        assertEquals(1007, cumulative.getPercentile(99.9));
+        assertEquals(1007, cumulative.getMax());
+    }
+
+    @Test
+    public void testInterval() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.roll();
+        assertEquals(1, histogram.getInterval().getCount());
+        histogram.record(20);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getInterval().getCount());
+        histogram.roll();
+        LatencyHistogram.Snapshot interval = histogram.getInterval();
+        assertEquals(3, interval.getCount());
+        assertEquals(0, interval.getPercentile(1));
+        assertEquals(20, interval.getPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, interval.getMax());
+        assertEquals(4, histogram.getCumulative().getCount());
+        histogram.roll();
+        assertEquals(0, histogram.getInterval().getCount());
+        assertEquals(0, histogram.getInterval().getMax());
+    }
+}
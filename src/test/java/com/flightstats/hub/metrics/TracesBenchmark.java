@@ -0,0 +1,76 @@
+package com.flightstats.hub.metrics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Times recording request traces, for a single Traces with ten adds, sampled and unsampled,
+ * and for ActiveTraces start and end.  With a thread count, each thread also runs whole requests
+ * through ActiveTraces at the same time.
+ * <p>
+ * Usage: TracesBenchmark [iterations] [threads]
+ */
+public class TracesBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        for (int round = 0; round < 3; round++) {
+            long sampled = traces(iterations, true);
+            long unsampled = traces(iterations, false);
+            long startEnd = startEnd(iterations);
+            System.out.printf("round %d: traces sampled %d ns, unsampled %d ns, start/end %d ns%n",
+                    round, sampled, unsampled, startEnd);
+            if (threads > 0) {
+                System.out.printf("round %d: %d threads %d ns per request%n",
+                        round, threads, concurrent(iterations, threads));
+            }
+        }
+    }
+
+    private static long traces(int iterations, boolean sampled) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Traces traces = new Traces("/channel/benchmark", "POST", "10.0.0.1");
+            traces.setSampled(sampled, 1000);
+            for (int j = 0; j < 10; j++) {
+                traces.add("step", j);
+            }
+            traces.end(201);
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static long startEnd(int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ActiveTraces.start("/channel/benchmark", "POST", "10.0.0.1");
+            ActiveTraces.end(false, 201);
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static long concurrent(int iterations, int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int perThread = iterations / threads;
+        CountDownLatch latch = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ActiveTraces.start("/channel/benchmark", "POST", "10.0.0.1");
+                    for (int j = 0; j < 10; j++) {
+                        ActiveTraces.getLocal().add("step", j);
+                    }
+                    ActiveTraces.end(false, 201);
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        long nanos = System.nanoTime() - start;
+        executor.shutdown();
+        return nanos / ((long) perThread * threads);
+    }
+}
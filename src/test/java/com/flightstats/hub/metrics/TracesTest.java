@@ -1,11 +1,15 @@
 package com.flightstats.hub.metrics;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TracesTest {
 
@@ -20,4 +24,53 @@ public class TracesTest {
         assertEquals(102, output.size());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testUnsampled() {
+        Traces traces = new Traces("start");
+        traces.setSampled(false, 60 * 1000);
+        traces.add("skipped");
+        List<String> output = new ArrayList<>();
+        traces.outputTraces(output::add);
+        assertEquals(1, output.size());
+    }
+
+    @Test
+    public void testCaptureAfter() {
+        Traces traces = new Traces("start");
+        traces.setSampled(false, 0);
+        traces.add("captured");
+        assertTrue(traces.isSampled());
+        List<String> output = new ArrayList<>();
+        traces.outputTraces(output::add);
+        assertEquals(3, output.size());
+        assertTrue(output.get(2).endsWith("[captured]"));
+    }
+
+
+    @Test
+    public void testEndOnAnotherThread() throws Exception {
+        ActiveTraces.start("testEndOnAnotherThread");
+        Traces traces = ActiveTraces.getLocal();
+        ActiveTraces.setLocal(null);
+        assertEquals(1, countActive(traces.getId()));
+        Thread thread = new Thread(() -> {
+            ActiveTraces.setLocal(traces);
+            ActiveTraces.end();
+        });
+        thread.start();
+        thread.join();
+        assertEquals(0, countActive(traces.getId()));
+    }
+
+    private int countActive(String id) {
+        ObjectNode root = new ObjectMapper().createObjectNode();
+        ActiveTraces.log(root);
+        int count = 0;
+        for (JsonNode active : root.get("active")) {
+            if (active.get("id").asText().equals(id)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
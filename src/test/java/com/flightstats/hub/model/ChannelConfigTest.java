@@ -1,5 +1,6 @@
 package com.flightstats.hub.model;
 
+import com.flightstats.hub.dao.ContentCodec;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.collect.Sets;
 import org.joda.time.DateTime;
@@ -137,6 +138,7 @@ public class ChannelConfigTest {
                 .protect(false)
                 .mutableTime(TimeUtil.now())
                 .allowZeroBytes(false)
+                .codec("lz4")
                 .build();
         assertTrue(config.equals(config.toBuilder().build()));
 
@@ -187,4 +189,18 @@ public class ChannelConfigTest {
         assertFalse(testZeroBytes.isAllowZeroBytes());
     }
 
+    @Test
+    public void testCodec() {
+        ChannelConfig defaults = ChannelConfig.builder().name("testCodec").build();
+        assertEquals("", defaults.getCodec());
+        assertEquals(ContentCodec.getDefault(), defaults.getContentCodec());
+
+        ChannelConfig updated = ChannelConfig.updateFromJson(defaults, "{\"codec\": \"none\"}");
+        assertEquals(ContentCodec.NONE, updated.getContentCodec());
+        assertTrue(updated.isValidCodec());
+        assertEquals(updated, ChannelConfig.createFromJson(updated.toJson()));
+
+        assertFalse(defaults.toBuilder().codec("snappy").build().isValidCodec());
+    }
+
 }
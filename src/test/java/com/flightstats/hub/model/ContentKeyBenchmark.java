@@ -0,0 +1,109 @@
+package com.flightstats.hub.model;
+
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.text.DecimalFormat;
+import java.util.Random;
+
+/**
+ * Times ContentKey fromUrl, toUrl and bulkKey against the Joda parsing and formatting they replaced,
+ * over the same set of random keys.
+ * <p>
+ * Usage: ContentKeyBenchmark [iterations]
+ */
+public class ContentKeyBenchmark {
+
+    private static final int KEYS = 1024;
+    private static final DecimalFormat format = new DecimalFormat("000000");
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Random random = new Random(1);
+        long max = new DateTime(2100, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        ContentKey[] keys = new ContentKey[KEYS];
+        String[] urls = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = new ContentKey((long) (random.nextDouble() * max), "L7QtaY" + i);
+            urls[i] = keys[i].toUrl();
+        }
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("round %d: fromUrl %d ns, joda %d ns%n",
+                    round, fromUrl(urls, iterations), jodaFromUrl(urls, iterations));
+            System.out.printf("round %d: toUrl %d ns, joda %d ns%n",
+                    round, toUrl(keys, iterations), jodaToUrl(keys, iterations));
+            System.out.printf("round %d: bulkKey %d ns, joda %d ns%n",
+                    round, bulkKey(keys, iterations), jodaBulkKey(keys, iterations));
+        }
+        System.out.println(sink);
+    }
+
+    private static long fromUrl(String[] urls, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += ContentKey.fromUrl(urls[i % KEYS]).get().getMillis();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static long jodaFromUrl(String[] urls, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String key = urls[i % KEYS];
+            DateTime time = new DateTime(Integer.parseInt(key.substring(0, 4)), Integer.parseInt(key.substring(5, 7)),
+                    Integer.parseInt(key.substring(8, 10)), Integer.parseInt(key.substring(11, 13)),
+                    Integer.parseInt(key.substring(14, 16)), Integer.parseInt(key.substring(17, 19)),
+                    Integer.parseInt(key.substring(20, 23)), DateTimeZone.UTC);
+            sink += time.getMillis() + key.substring(24).length();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static long toUrl(ContentKey[] keys, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += keys[i % KEYS].toUrl().length();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static long jodaToUrl(ContentKey[] keys, int iterations) {
+        DateTime[] times = times(keys);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += (TimeUtil.millis(times[i % KEYS]) + keys[i % KEYS].getHash()).length();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static long bulkKey(ContentKey[] keys, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += ContentKey.bulkKey(keys[i % KEYS], i % 1000).getHash().length();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static long jodaBulkKey(ContentKey[] keys, int iterations) {
+        DateTime[] times = times(keys);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String hash;
+            synchronized (format) {
+                hash = keys[i % KEYS].getHash() + format.format(i % 1000);
+            }
+            sink += times[i % KEYS].getMillis() + hash.length();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static DateTime[] times(ContentKey[] keys) {
+        DateTime[] times = new DateTime[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            times[i] = new DateTime(keys[i].getMillis(), DateTimeZone.UTC);
+        }
+        return times;
+    }
+}
@@ -2,8 +2,12 @@ package com.flightstats.hub.model;
 
 import com.flightstats.hub.util.TimeUtil;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.junit.Test;
 
+import java.util.Random;
 import java.util.TreeSet;
 
 import static org.junit.Assert.*;
@@ -17,6 +21,13 @@ public class ContentKeyTest {
         assertEquals(contentKey, cycled);
     }
 
+    @Test
+    public void testUrlKeyToStringFormatter() throws Exception {
+        ContentKey contentKey = ContentKey.fromUrl("2015/01/23/21/11/19/407/L7QtaY").get();
+        DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyy-MM-dd-HH-mm-ss-SSS-").withZoneUTC();
+        assertEquals("2015-01-23-21-11-19-407-L7QtaY", contentKey.toString(formatter));
+    }
+
     @Test
     public void testCompareTime() throws Exception {
         DateTime now = TimeUtil.now();
@@ -74,5 +85,39 @@ public class ContentKeyTest {
         ContentKey nextMinute = new ContentKey(minutePath.getTime().plusMinutes(1), "0");
         assertTrue(nextMinute.compareTo(minutePath) > 0);
     }
-}
 
+    @Test
+    public void testUrlMatchesFormatter() {
+        Random random = new Random(1);
+        long max = new DateTime(2100, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        for (int i = 0; i < 10000; i++) {
+            DateTime time = new DateTime((long) (random.nextDouble() * max), DateTimeZone.UTC);
+            ContentKey key = new ContentKey(time.getMillis(), "hash" + i);
+            assertEquals(TimeUtil.millis(time) + "hash" + i, key.toUrl());
+            ContentKey cycled = ContentKey.fromUrl(key.toUrl()).get();
+            assertEquals(key, cycled);
+            assertEquals(time, cycled.getTime());
+        }
+        assertEquals("1970/01/01/00/00/00/001/none", ContentKey.NONE.toUrl());
+    }
+
+    @Test
+    public void testInvalidUrls() {
+        assertTrue(ContentKey.fromUrl("2016/02/29/23/59/59/999/").isPresent());
+        assertFalse(ContentKey.fromUrl("2015/02/29/00/00/00/000/A").isPresent());
+        assertFalse(ContentKey.fromUrl("2015/13/01/00/00/00/000/A").isPresent());
+        assertFalse(ContentKey.fromUrl("2015/01/01/24/00/00/000/A").isPresent());
+        assertFalse(ContentKey.fromUrl("2015/01/01/00/00/00/0a0/A").isPresent());
+        assertFalse(ContentKey.fromUrl("2015/01/01/00/00/00/000").isPresent());
+        assertFalse(ContentKey.fromUrl("2015/01/01/00/00").isPresent());
+        assertFalse(ContentKey.fromUrl(null).isPresent());
+    }
+
+    @Test
+    public void testBulkKey() {
+        ContentKey master = new ContentKey(TimeUtil.now(), "master");
+        assertEquals(master.toUrl() + "000000", ContentKey.bulkKey(master, 0).toUrl());
+        assertEquals(master.toUrl() + "000123", ContentKey.bulkKey(master, 123).toUrl());
+        assertEquals(master.getTime(), ContentKey.bulkKey(master, 123).getTime());
+    }
+}
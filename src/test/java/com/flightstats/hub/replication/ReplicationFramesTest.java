@@ -0,0 +1,126 @@
+package com.flightstats.hub.replication;
+
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class ReplicationFramesTest {
+
+    private static final String[] keys = {"2016/01/01/00/01/02/003/A", "2016/01/01/00/01/02/003/B"};
+    private static final String[] types = {"application/json", null};
+    private static final byte[][] data = {"first".getBytes(), new byte[20 * 1024]};
+    private static final String progress = "2016/01/01/00/01/02";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ReplicationFrames.Writer writer = new ReplicationFrames.Writer(baos)) {
+            for (int i = 0; i < keys.length; i++) {
+                writer.writeItem(keys[i], types[i], data[i]);
+            }
+            writer.writeProgress(progress);
+        }
+        ReplicationFrames.Reader reader = new ReplicationFrames.Reader(new ByteArrayInputStream(baos.toByteArray()));
+        for (int i = 0; i < keys.length; i++) {
+            assertTrue(reader.next());
+            assertFalse(reader.isProgress());
+            assertEquals(keys[i], reader.getKey());
+            assertEquals(types[i], reader.getContentType());
+            assertArrayEquals(data[i], reader.getData());
+        }
+        assertTrue(reader.next());
+        assertTrue(reader.isProgress());
+        assertEquals(progress, reader.getKey());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void testSkipsUnreadable() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ContentKey first = ContentKey.fromUrl(keys[0]).get();
+        ContentKey missing = ContentKey.fromUrl("2016/01/01/00/01/02/003/M").get();
+        ContentKey last = ContentKey.fromUrl(keys[1]).get();
+        try (ReplicationFrames.Writer writer = new ReplicationFrames.Writer(baos)) {
+            assertTrue(writer.writeContent(first, Optional.of(content(first, data[0]))));
+            assertFalse(writer.writeContent(missing, Optional.absent()));
+            assertTrue(writer.writeContent(last, Optional.of(content(last, data[1]))));
+            writer.writeProgress(progress);
+        }
+        ReplicationFrames.Reader reader = new ReplicationFrames.Reader(new ByteArrayInputStream(baos.toByteArray()));
+        assertTrue(reader.next());
+        assertEquals(keys[0], reader.getKey());
+        assertArrayEquals(data[0], reader.getData());
+        assertTrue(reader.next());
+        assertEquals(keys[1], reader.getKey());
+        assertArrayEquals(data[1], reader.getData());
+        assertTrue(reader.next());
+        assertTrue(reader.isProgress());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void testLarge() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ContentKey key = ContentKey.fromUrl(keys[0]).get();
+        Content large = Content.builder()
+                .withContentKey(key)
+                .withContentType("application/octet-stream")
+                .withStream(new ByteArrayInputStream(data[1]))
+                .build();
+        large.setLarge(true);
+        try (ReplicationFrames.Writer writer = new ReplicationFrames.Writer(baos)) {
+            assertTrue(writer.writeContent(key, Optional.of(large)));
+        }
+        ReplicationFrames.Reader reader = new ReplicationFrames.Reader(new ByteArrayInputStream(baos.toByteArray()));
+        assertTrue(reader.next());
+        assertTrue(reader.isLarge());
+        assertEquals(keys[0], reader.getKey());
+        assertEquals("application/octet-stream", reader.getContentType());
+        assertNull(reader.getData());
+        assertFalse(reader.next());
+    }
+
+    private Content content(ContentKey key, byte[] bytes) {
+        return Content.builder().withContentKey(key).withData(bytes).build();
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        PipedInputStream input = new PipedInputStream(64 * 1024);
+        ReplicationFrames.Writer writer = new ReplicationFrames.Writer(new PipedOutputStream(input));
+        writer.writeProgress(progress);
+        writer.flush();
+        ReplicationFrames.Reader reader = new ReplicationFrames.Reader(input);
+        assertTrue(reader.next());
+        assertEquals(progress, reader.getKey());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncated() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ReplicationFrames.Writer writer = new ReplicationFrames.Writer(baos);
+        writer.writeItem(keys[0], types[0], data[0]);
+        writer.flush();
+        ReplicationFrames.Reader reader = new ReplicationFrames.Reader(new ByteArrayInputStream(baos.toByteArray()));
+        assertTrue(reader.next());
+        reader.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownHeader() throws Exception {
+        new ReplicationFrames.Reader(new ByteArrayInputStream("not a replication stream".getBytes()));
+    }
+
+    @Test
+    public void testStreamUrl() {
+        ContentKey key = ContentKey.fromUrl(keys[0]).get();
+        String expected = "http://hub.example.com/internal/repls/source/stream?startKey=" + keys[0];
+        assertEquals(expected, ReplicationFrames.getStreamUrl("http://hub.example.com/channel/source", key));
+        assertEquals(expected, ReplicationFrames.getStreamUrl("http://hub.example.com/channel/source/", key));
+    }
+}
@@ -1,5 +1,6 @@
 package com.flightstats.hub.spoke;
 
+import com.flightstats.hub.dao.ContentCodec;
 import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
@@ -8,6 +9,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -33,12 +35,59 @@ public class ContentMarshallerTest {
         verify(content, 1024);
     }
 
+    @Test
+    public void testCodecs() throws IOException {
+        for (ContentCodec codec : ContentCodec.values()) {
+            verify(getContent(0), 0, codec);
+            verify(getContent(10), 10, codec);
+            verify(getContent(100 * 1024), 100 * 1024, codec);
+            verify(getRepeating(300 * 1024), 300 * 1024, codec);
+        }
+    }
+
+    @Test
+    public void testCompressed() throws IOException {
+        Content content = getRepeating(64 * 1024);
+        byte[] none = ContentMarshaller.toBytes(getRepeating(64 * 1024), ContentCodec.NONE);
+        assertTrue(ContentMarshaller.toBytes(content, ContentCodec.LZ4).length < none.length / 4);
+        assertTrue(ContentMarshaller.toBytes(getRepeating(64 * 1024), ContentCodec.DEFLATE).length < none.length / 4);
+    }
+
+    @Test
+    public void testPackageOnce() throws IOException {
+        Content content = getContent(1024);
+        content.packageStream(ContentCodec.LZ4);
+        byte[] data = content.getData();
+        content.packageStream(ContentCodec.ZIP);
+        assertArrayEquals(data, content.getData());
+    }
+
     private void verify(Content content, int size) throws IOException {
         Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content), content.getContentKey().get());
         assertTrue(content.equals(cycled));
         assertEquals(size, cycled.getData().length);
     }
 
+    private void verify(Content content, int size, ContentCodec codec) throws IOException {
+        byte[] expected = content.getData();
+        Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content, codec), content.getContentKey().get());
+        assertTrue(content.equals(cycled));
+        assertEquals(size, cycled.getData().length);
+        assertArrayEquals(expected, cycled.getData());
+    }
+
+    private static Content getRepeating(int size) {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < size) {
+            builder.append("{\"id\":").append(builder.length() % 97).append(",\"status\":\"landed\"}");
+        }
+        return Content.builder()
+                .withContentType("application/json")
+                .withData(builder.substring(0, size).getBytes())
+                .withContentKey(new ContentKey())
+                .build();
+    }
+
     private static Content getContent(int size) {
         String random = RandomStringUtils.randomAlphanumeric(size);
         return Content.builder()
@@ -15,10 +15,12 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -44,6 +46,17 @@ public class FileSpokeStoreTest {
         assertArrayEquals(BYTES, read);
     }
 
+    @Test
+    public void testReadChannel() throws Exception {
+        String path = "testReadChannel/" + new ContentKey().toUrl();
+        byte[] bytes = new byte[200 * 1024];
+        new Random().nextBytes(bytes);
+        assertTrue(spokeStore.insert(path, bytes));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        spokeStore.read(path, Channels.newChannel(baos));
+        assertArrayEquals(bytes, baos.toByteArray());
+    }
+
     @Test
     public void testPathTranslation() throws Exception {
         String incoming = "/test_0_4274725520517677/2014/11/18/00/57/24/015/NV2cl5";
@@ -0,0 +1,334 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.dao.ContentKeyUtil;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.Files;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SegmentSpokeStoreTest {
+    private static final byte[] BYTES = new byte[]{0, 2, 3, 4, 5, 6};
+    private String tempDir;
+    private SegmentSpokeStore spokeStore;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDir().getPath();
+        spokeStore = new SegmentSpokeStore(tempDir, true);
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        String path = "channelWR/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        assertArrayEquals(BYTES, spokeStore.read(path));
+        File minute = new File(tempDir + "/" + path).getParentFile().getParentFile().getParentFile();
+        assertEquals(1, minute.list().length);
+    }
+
+    @Test
+    public void testReadChannel() throws Exception {
+        String path = "testReadChannel/" + new ContentKey().toUrl();
+        byte[] bytes = new byte[200 * 1024];
+        new Random().nextBytes(bytes);
+        assertTrue(spokeStore.insert(path, bytes));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        spokeStore.read(path, Channels.newChannel(baos));
+        assertArrayEquals(bytes, baos.toByteArray());
+    }
+
+    @Test
+    public void testClosedAfterWriting() throws Exception {
+        String path = "testClosedAfterWriting/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, new byte[100 * 1024]));
+        AtomicInteger writes = new AtomicInteger();
+        try {
+            spokeStore.read(path, new ClosingChannel(writes, 1));
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("segment closed after writing"));
+        }
+    }
+
+    @Test
+    public void testClosedRetries() throws Exception {
+        String path = "testClosedRetries/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        AtomicInteger writes = new AtomicInteger();
+        try {
+            spokeStore.read(path, new ClosingChannel(writes, 0));
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertFalse(e instanceof ClosedChannelException);
+        }
+        assertEquals(3, writes.get());
+    }
+
+    @Test
+    public void testReadRegion() throws Exception {
+        String path = "testReadRegion/" + new ContentKey().toUrl();
+        byte[] bytes = new byte[200 * 1024];
+        new Random().nextBytes(bytes);
+        assertTrue(spokeStore.insert(path, bytes));
+        RegionChannel output = new RegionChannel(1);
+        spokeStore.read(path, output);
+        assertArrayEquals(bytes, output.baos.toByteArray());
+        assertEquals(2, output.transfers);
+    }
+
+    @Test(expected = javax.ws.rs.NotFoundException.class)
+    public void testMissing() throws Exception {
+        String path = "testMissing/" + new ContentKey().toUrl();
+        spokeStore.read(path);
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        String channel = "testBuckets";
+        spokeStore.insert(channel + "/2014/11/18/00/57/23/015/1", BYTES);
+        spokeStore.insert(channel + "/2014/11/18/00/57/24/015/1", BYTES);
+        spokeStore.insert(channel + "/2014/11/18/00/57/24/015/2", BYTES);
+        spokeStore.insert(channel + "/2014/11/18/00/57/25/015/1", BYTES);
+        spokeStore.insert(channel + "/2014/11/18/00/58/01/015/1", BYTES);
+
+        assertEquals(4, keys(spokeStore, channel + "/2014/11/18/00/57").size());
+        assertEquals(2, keys(spokeStore, channel + "/2014/11/18/00/57/24").size());
+        assertEquals(5, keys(spokeStore, channel + "/2014/11/18/00").size());
+        assertEquals(5, keys(spokeStore, channel + "/2014/11/18").size());
+        assertEquals(0, keys(spokeStore, channel + "/2014/11/18/01").size());
+    }
+
+    @Test
+    public void testIndexSurvivesClose() throws Exception {
+        String channel = "testIndexSurvivesClose";
+        String path = channel + "/2014/11/18/00/57/24/015/1";
+        spokeStore.insert(path, BYTES);
+        spokeStore.closeIdle(0);
+        assertTrue(new File(tempDir + "/" + channel + "/2014/11/18/00/57/" + SpokeSegment.INDEX).exists());
+        SegmentSpokeStore restarted = new SegmentSpokeStore(tempDir, true);
+        assertArrayEquals(BYTES, restarted.read(path));
+        restarted.insert(channel + "/2014/11/18/00/57/24/015/2", BYTES);
+        assertEquals(2, keys(restarted, channel + "/2014/11/18/00/57").size());
+    }
+
+    @Test
+    public void testInsertWhileClosing() throws Exception {
+        String channel = "testInsertWhileClosing";
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Thread closer = new Thread(() -> {
+            while (writing.get()) {
+                spokeStore.closeIdle(0);
+            }
+        });
+        closer.start();
+        List<String> inserted = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String path = channel + "/2014/11/18/00/57/24/015/" + i;
+            if (spokeStore.insert(path, BYTES)) {
+                inserted.add(path);
+            }
+        }
+        writing.set(false);
+        closer.join();
+        spokeStore.closeIdle(0);
+        assertEquals(2000, inserted.size());
+        SegmentSpokeStore restarted = new SegmentSpokeStore(tempDir, false);
+        for (String path : inserted) {
+            assertArrayEquals(path, BYTES, restarted.read(path));
+        }
+    }
+
+    @Test
+    public void testRecoverTornTail() throws Exception {
+        String channel = "testRecoverTornTail";
+        String first = channel + "/2014/11/18/00/57/24/015/1";
+        String second = channel + "/2014/11/18/00/57/24/015/2";
+        spokeStore.insert(first, BYTES);
+        spokeStore.insert(second, BYTES);
+        File segment = new File(tempDir + "/" + channel + "/2014/11/18/00/57/" + SpokeSegment.SEGMENT);
+        long length = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(length - 2);
+        }
+
+        SegmentSpokeStore restarted = new SegmentSpokeStore(tempDir, true);
+        assertArrayEquals(BYTES, restarted.read(first));
+        assertEquals(1, keys(restarted, channel + "/2014/11/18/00/57").size());
+        assertTrue(segment.length() < length - 2);
+
+        assertTrue(restarted.insert(second, BYTES));
+        assertArrayEquals(BYTES, restarted.read(second));
+        assertEquals(length, segment.length());
+    }
+
+    @Test
+    public void testCorruptRecord() throws Exception {
+        String channel = "testCorruptRecord";
+        String first = channel + "/2014/11/18/00/57/24/015/1";
+        spokeStore.insert(first, BYTES);
+        spokeStore.insert(channel + "/2014/11/18/00/57/24/015/2", BYTES);
+        File segment = new File(tempDir + "/" + channel + "/2014/11/18/00/57/" + SpokeSegment.SEGMENT);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(segment.length() - 1);
+            file.write(99);
+        }
+        SegmentSpokeStore restarted = new SegmentSpokeStore(tempDir, true);
+        assertEquals(1, keys(restarted, channel + "/2014/11/18/00/57").size());
+        assertArrayEquals(BYTES, restarted.read(first));
+    }
+
+    @Test
+    public void testLatest() {
+        DateTime time = new DateTime(2014, 12, 31, 23, 30, 1, 2, DateTimeZone.UTC);
+        for (int i = 0; i < 30; i++) {
+            time = time.plusMinutes(2);
+            spokeStore.insert("testLatest/" + new ContentKey(time, "A").toUrl(), BYTES);
+            time = time.plusSeconds(1);
+            spokeStore.insert("testLatest/" + new ContentKey(time, "B").toUrl(), BYTES);
+            time = time.plusMillis(1);
+            spokeStore.insert("testLatest/" + new ContentKey(time, "C").toUrl(), BYTES);
+        }
+        ContentKey limitKey = new ContentKey(time.minusMinutes(1), "A");
+        assertEquals("testLatest/2015/01/01/00/28/30/031/C", spokeStore.getLatest("testLatest", limitKey.toUrl()));
+
+        limitKey = new ContentKey(time, "B");
+        assertEquals("testLatest/2015/01/01/00/30/31/031/B", spokeStore.getLatest("testLatest", limitKey.toUrl()));
+    }
+
+    @Test
+    public void testLatestAcrossHour() {
+        DateTime now = TimeUtil.now();
+        DateTime beforeTheHour = now.minusHours(1).withMinuteOfHour(59).withSecondOfMinute(59).withMillisOfSecond(999);
+        String beforeKey = new ContentKey(beforeTheHour, "0").toUrl();
+        assertTrue(spokeStore.insert("testLatestAcrossHour/" + beforeKey, BYTES));
+        DateTime limitTime = now.withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
+        String read = spokeStore.getLatest("testLatestAcrossHour", ContentKey.lastKey(limitTime).toUrl());
+        assertEquals("testLatestAcrossHour/" + beforeKey, read);
+        assertNull(spokeStore.getLatest("testLatestAcrossHour", beforeKey));
+    }
+
+    @Test
+    public void testNext() throws IOException {
+        String name = "testNext";
+        DateTime startTime = TimeUtil.now().minusMinutes(70);
+        DateTime time = startTime;
+        for (int i = 0; i < 30; i++) {
+            time = time.plusMinutes(2);
+            spokeStore.insert(name + "/" + new ContentKey(time, "A").toUrl(), BYTES);
+            time = time.plusSeconds(1);
+            spokeStore.insert(name + "/" + new ContentKey(time, "B").toUrl(), BYTES);
+        }
+        assertEquals(60, getNext(name, new ContentKey(startTime, "A").toUrl(), 90).size());
+        assertEquals(30, getNext(name, new ContentKey(startTime.plusMinutes(31), "A").toUrl(), 30).size());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        String path = "testDelete/" + new ContentKey().toUrl();
+        assertTrue(spokeStore.insert(path, BYTES));
+        spokeStore.delete("testDelete");
+        assertFalse(new File(tempDir + "/testDelete").exists());
+        assertTrue(spokeStore.insert(path, BYTES));
+        assertArrayEquals(BYTES, spokeStore.read(path));
+    }
+
+    private List<ContentKey> keys(SpokeStore store, String path) {
+        ArrayList<ContentKey> keys = new ArrayList<>();
+        ContentKeyUtil.convertKeyStrings(store.readKeysInBucket(path), keys);
+        return keys;
+    }
+
+    private List<String> getNext(String channel, String startKey, int count) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        spokeStore.getNext(channel, startKey, count, baos);
+        return Arrays.asList(baos.toString().split(","));
+    }
+
+    /**
+     * Accepts the first successful writes, then acts as if the segment was closed.
+     */
+    private static class RegionChannel implements FileRegionChannel {
+
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        private final int failures;
+        private int transfers;
+
+        private RegionChannel(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public void transferFrom(FileChannel input, long position, long count) throws IOException {
+            if (++transfers <= failures) {
+                throw new ClosedChannelException();
+            }
+            ByteBuffer region = input.map(FileChannel.MapMode.READ_ONLY, position, count);
+            Channels.newChannel(baos).write(region);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            throw new UnsupportedOperationException("regions are transferred");
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class ClosingChannel implements WritableByteChannel {
+
+        private final AtomicInteger writes;
+        private final int successful;
+
+        private ClosingChannel(AtomicInteger writes, int successful) {
+            this.writes = writes;
+            this.successful = successful;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            if (writes.incrementAndGet() > successful) {
+                throw new ClosedChannelException();
+            }
+            int remaining = source.remaining();
+            source.position(source.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
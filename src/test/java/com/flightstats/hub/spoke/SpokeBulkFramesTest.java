@@ -0,0 +1,95 @@
+package com.flightstats.hub.spoke;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpokeBulkFramesTest {
+
+    private static final String[] keys = {"2016/01/01/00/01/02/003/A", "2016/01/01/00/01/02/003/B", "2016/01/01/00/01/02/003/C"};
+    private static final byte[][] data = {"first".getBytes(), new byte[0], new byte[20 * 1024]};
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        verify(read(write(true)));
+        verify(read(write(false)));
+    }
+
+    @Test
+    public void testBuffers() throws Exception {
+        for (boolean checksum : new boolean[]{true, false}) {
+            SpokeBulkFrames.Buffers buffers = new SpokeBulkFrames.Buffers(checksum);
+            for (int i = 0; i < keys.length; i++) {
+                buffers.write(keys[i], data[i]);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            boolean wrapped = false;
+            for (ByteBuffer buffer : buffers.close()) {
+                wrapped |= buffer.array() == data[2];
+                baos.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            assertTrue(wrapped);
+            assertArrayEquals(write(checksum), baos.toByteArray());
+        }
+    }
+
+    @Test
+    public void testLegacy() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream stream = new ObjectOutputStream(baos);
+        stream.writeInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            stream.writeInt(keys[i].length());
+            stream.write(keys[i].getBytes());
+            stream.writeInt(data[i].length);
+            stream.write(data[i]);
+        }
+        stream.flush();
+        verify(read(baos.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testChecksumMismatch() throws Exception {
+        byte[] bytes = write(true);
+        bytes[6 + 4 + keys[0].length() + 4] ^= 1;
+        read(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownHeader() throws Exception {
+        read("not a bulk stream".getBytes());
+    }
+
+    private byte[] write(boolean checksum) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (SpokeBulkFrames.Writer writer = new SpokeBulkFrames.Writer(baos, checksum)) {
+            for (int i = 0; i < keys.length; i++) {
+                writer.write(keys[i], data[i]);
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private List<Object[]> read(byte[] bytes) throws IOException {
+        SpokeBulkFrames.Reader reader = new SpokeBulkFrames.Reader(new ByteArrayInputStream(bytes));
+        List<Object[]> items = new ArrayList<>();
+        while (reader.next()) {
+            items.add(new Object[]{reader.getKey(), ByteStreams.toByteArray(reader.getData())});
+        }
+        return items;
+    }
+
+    private void verify(List<Object[]> items) {
+        assertEquals(keys.length, items.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(keys[i], items.get(i)[0]);
+            assertArrayEquals(data[i], (byte[]) items.get(i)[1]);
+        }
+    }
+}
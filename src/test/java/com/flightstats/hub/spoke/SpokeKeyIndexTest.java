@@ -0,0 +1,104 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpokeKeyIndexTest {
+
+    private SpokeKeyIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new SpokeKeyIndex();
+    }
+
+    @Test
+    public void testKeysInBucket() {
+        index.add("testKeysInBucket/2014/11/18/00/57/23/015/1", 0);
+        index.add("testKeysInBucket/2014/11/18/00/57/24/015/1", 0);
+        index.add("testKeysInBucket/2014/11/18/00/57/24/015/2", 0);
+        index.add("testKeysInBucket/2014/11/18/00/58/01/015/1", 0);
+        index.add("other/2014/11/18/00/57/24/015/3", 0);
+
+        assertEquals(3, index.keysInBucket("testKeysInBucket/2014/11/18/00/57").size());
+        assertEquals(2, index.keysInBucket("/testKeysInBucket/2014/11/18/00/57/24").size());
+        assertEquals(4, index.keysInBucket("testKeysInBucket/2014/11/18/00").size());
+        assertEquals(4, index.keysInBucket("testKeysInBucket/2014").size());
+        assertEquals(0, index.keysInBucket("testKeysInBucket/2014/11/18/01").size());
+        assertEquals(0, index.keysInBucket("missing/2014/11/18/00").size());
+    }
+
+    @Test
+    public void testLatest() {
+        DateTime now = TimeUtil.now();
+        ContentKey first = new ContentKey(now.minusMinutes(5), "A");
+        ContentKey second = new ContentKey(now.minusMinutes(1), "B");
+        index.add("testLatest", first.toUrl(), 0);
+        index.add("testLatest", second.toUrl(), 0);
+
+        assertEquals("testLatest/" + second.toUrl(), index.getLatest("testLatest", ContentKey.lastKey(now)));
+        assertEquals("testLatest/" + first.toUrl(), index.getLatest("testLatest", second));
+        assertNull(index.getLatest("testLatest", first));
+        assertNull(index.getLatest("missing", ContentKey.lastKey(now)));
+    }
+
+    @Test
+    public void testLatestBeforeTtl() {
+        DateTime old = TimeUtil.now().minusMinutes(HubProperties.getSpokeTtlMinutes()).minusHours(2);
+        index.add("testLatestBeforeTtl", new ContentKey(old, "A").toUrl(), 0);
+        assertNull(index.getLatest("testLatestBeforeTtl", ContentKey.lastKey(TimeUtil.now())));
+        assertNotNull(index.getLatest("testLatestBeforeTtl", ContentKey.lastKey(old.plusMinutes(1))));
+    }
+
+    @Test
+    public void testNextIncludesMinute() throws Exception {
+        DateTime start = new DateTime(2015, 1, 1, 0, 0, 10, 0, DateTimeZone.UTC);
+        for (int i = 0; i < 4; i++) {
+            index.add("testNext", new ContentKey(start.plusSeconds(i), "" + i).toUrl(), 0);
+        }
+        index.add("testNext", new ContentKey(start.plusMinutes(1), "A").toUrl(), 0);
+        index.add("testNext", new ContentKey(start.plusMinutes(2), "B").toUrl(), 0);
+
+        ContentKey startKey = new ContentKey(start, "0");
+        assertEquals(3, getNext(startKey, 2).size());
+        assertEquals(4, getNext(startKey, 4).size());
+        assertEquals(5, getNext(startKey, 10).size());
+    }
+
+    @Test
+    public void testPrune() {
+        index.add("testPrune/2014/11/18/00/57/23/015/1", 1000);
+        index.add("testPrune/2014/11/18/00/57/24/015/1", 3000);
+        index.add("gone/2014/11/18/00/57/24/015/1", 3000);
+        index.prune(new DateTime(2000, DateTimeZone.UTC), channel -> !channel.equals("gone"));
+        assertEquals(1, index.keysInBucket("testPrune/2014/11/18").size());
+        assertEquals(0, index.keysInBucket("gone/2014/11/18").size());
+    }
+
+    @Test
+    public void testRemove() {
+        index.add("testRemove/2014/11/18/00/57/23/015/1", 0);
+        index.add("testRemove/2014/11/18/01/57/24/015/1", 0);
+        index.remove("testRemove/2014/11/18/00");
+        assertEquals(1, index.keysInBucket("testRemove/2014").size());
+        index.remove("testRemove");
+        assertEquals(0, index.keysInBucket("testRemove/2014").size());
+    }
+
+    private List<String> getNext(ContentKey startKey, int count) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        index.writeNext("testNext", startKey, count, baos);
+        return Arrays.asList(baos.toString().split(","));
+    }
+}
@@ -0,0 +1,116 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.metrics.NoOpMetricsService;
+import com.flightstats.hub.model.ContentKey;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares spoke payload reads through SpokePayloadHandler with the stream copy used by SpokeInternalResource,
+ * from an embedded Jetty server with one loopback client.
+ * Allocation is measured on the server threads.
+ * <p>
+ * Usage: SpokePayloadBenchmark [file|segment] [payloadBytes]
+ */
+public class SpokePayloadBenchmark {
+
+    private static final String PREFIX = "/internal/spoke/payload/";
+    private static final int ITEMS = 50;
+
+    public static void main(String[] args) throws Exception {
+        String type = args.length > 0 ? args[0] : "file";
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4 * 1024;
+        String directory = Files.createTempDirectory("SpokePayloadBenchmark").toString();
+        SpokeStore store = type.equals("segment") ? new SegmentSpokeStore(directory, false) : new FileSpokeStore(directory, false);
+        byte[] bytes = new byte[size];
+        new Random(1).nextBytes(bytes);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            String path = "benchmark/" + new ContentKey().toUrl();
+            store.insert(path, bytes);
+            paths.add(path);
+        }
+        run(type + " stream", streamHandler(store), paths, size);
+        run(type + " handler", new SpokePayloadHandler(store, new NoOpMetricsService()), paths, size);
+    }
+
+    private static Handler streamHandler(SpokeStore store) {
+        return new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                try (OutputStream output = new BufferedOutputStream(response.getOutputStream())) {
+                    store.read(target.substring(PREFIX.length()), output);
+                }
+            }
+        };
+    }
+
+    private static void run(String name, Handler handler, List<String> paths, int size) throws Exception {
+        Server server = new Server(0);
+        server.setHandler(handler);
+        server.start();
+        try {
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            int requests = Math.max(1000, 4000 * 1024 / Math.max(1, size / 256));
+            for (int i = 0; i < requests / 4; i++) {
+                get(port, paths.get(i % ITEMS), size);
+            }
+            long allocated = serverAllocated();
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                get(port, paths.get(i % ITEMS), size);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            allocated = serverAllocated() - allocated;
+            System.out.printf("%s size=%d requests=%d MB/s=%.1f serverBytesPerRequest=%d%n",
+                    name, size, requests, (double) size * requests / seconds / 1e6, allocated / requests);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void get(int port, String path, int size) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + PREFIX + path).openConnection();
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        try (InputStream input = connection.getInputStream()) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                total += read;
+            }
+        }
+        if (total != size) {
+            throw new IllegalStateException("expected " + size + " bytes, read " + total);
+        }
+    }
+
+    private static long serverAllocated() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("qtp")) {
+                total += threadMXBean.getThreadAllocatedBytes(thread.getId());
+            }
+        }
+        return total;
+    }
+}
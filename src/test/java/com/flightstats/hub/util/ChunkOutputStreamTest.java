@@ -0,0 +1,68 @@
+package com.flightstats.hub.util;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ChunkOutputStreamTest {
+
+    private static final int MEGABYTES = 1024 * 1024;
+
+    @Test
+    public void testChunks() throws Exception {
+        byte[] source = new byte[12 * MEGABYTES + 123];
+        new Random(1).nextBytes(source);
+        Map<Integer, byte[]> chunks = new ConcurrentHashMap<>();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        ChunkOutputStream outputStream = new ChunkOutputStream(2, chunk -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                chunks.put(chunk.getCount(), ByteStreams.toByteArray(chunk.getStream()));
+                return "ok";
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+        ByteStreams.copy(new ByteArrayInputStream(source), outputStream);
+        outputStream.close();
+        assertEquals(3, chunks.size());
+        assertEquals(5 * MEGABYTES, chunks.get(1).length);
+        assertEquals(5 * MEGABYTES, chunks.get(2).length);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 1; i <= chunks.size(); i++) {
+            joined.write(chunks.get(i));
+        }
+        assertArrayEquals(source, joined.toByteArray());
+        assertTrue(maxActive.get() <= 2);
+        assertTrue(ChunkPool.getPooledBytes() > 0);
+    }
+
+    @Test
+    public void testFailedChunk() throws Exception {
+        ChunkOutputStream outputStream = new ChunkOutputStream(1, chunk -> {
+            throw new RuntimeException("failed " + chunk.getCount());
+        });
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            for (int i = 0; i < 1000; i++) {
+                outputStream.write(buffer);
+            }
+            outputStream.close();
+            fail("expected the failed chunk to stop the stream");
+        } catch (IOException e) {
+            assertTrue(e.getCause().getMessage().startsWith("failed"));
+        }
+    }
+}
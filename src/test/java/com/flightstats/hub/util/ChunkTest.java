@@ -28,4 +28,16 @@ public class ChunkTest {
         assertFalse(chunk.add(5));
         assertArrayEquals(expected, chunk.getBytes());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBulk() {
+        Chunk chunk = new Chunk(1, 4);
+        byte[] source = {1, 2, 3, 4, 5, 6};
+        assertEquals(3, chunk.add(source, 0, 3));
+        assertEquals(1, chunk.add(source, 3, 3));
+        assertTrue(chunk.isFull());
+        assertEquals(0, chunk.add(source, 4, 2));
+        assertEquals(4, chunk.getLength());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, chunk.getBytes());
+    }
+}
@@ -64,4 +64,43 @@ public class WebhookContentPathSetTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCheckpoint() throws Exception {
+        groupSet = new WebhookContentPathSet(curator);
+        groupName = "testCheckpoint";
+        ContentKey first = new ContentKey();
+        ContentKey second = new ContentKey();
+        groupSet.add(groupName, first);
+        groupSet.add(groupName, second);
+        WebhookContentPathSet other = new WebhookContentPathSet(curator);
+        assertEquals(0, other.getSet(groupName, first).size());
+
+        groupSet.checkpoint(groupName);
+        assertEquals(2, other.getSet(groupName, first).size());
+        groupSet.remove(groupName, first);
+        groupSet.checkpoint(groupName);
+
+        Set<ContentPath> loaded = other.load(groupName, first);
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.contains(second));
+    }
+
+    @Test
+    public void testLegacy() throws Exception {
+        groupName = "testLegacy";
+        ContentKey legacyKey = new ContentKey();
+        curator.create().creatingParentsIfNeeded().forPath("/GroupInFlight/" + groupName + "/" + legacyKey.toZk());
+        groupSet = new WebhookContentPathSet(curator);
+        assertTrue(groupSet.load(groupName, legacyKey).contains(legacyKey));
+        groupSet.checkpoint(groupName);
+        for (int i = 0; i < 50; i++) {
+            if (curator.getChildren().forPath("/GroupInFlight/" + groupName).isEmpty()) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertTrue(curator.getChildren().forPath("/GroupInFlight/" + groupName).isEmpty());
+        assertTrue(new WebhookContentPathSet(curator).getSet(groupName, legacyKey).contains(legacyKey));
+    }
+
+}
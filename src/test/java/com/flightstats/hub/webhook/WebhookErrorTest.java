@@ -5,22 +5,26 @@ import org.apache.curator.framework.CuratorFramework;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class WebhookErrorTest {
 
+    private static CuratorFramework curator;
     private static WebhookError webhookError;
 
     @BeforeClass
     public static void setUpClass() throws Exception {
-        CuratorFramework curator = Integration.startZooKeeper();
+        curator = Integration.startZooKeeper();
         webhookError = new WebhookError(curator);
     }
 
     @Test
     public void testErrors() {
+        webhookError.load("testErrors");
         for (int i = 0; i < 20; i++) {
             webhookError.add("testErrors", "stuff" + i);
         }
@@ -35,4 +39,46 @@ public class WebhookErrorTest {
         }*/
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCheckpoint() throws Exception {
+        webhookError.load("testCheckpoint");
+        webhookError.add("testCheckpoint", "first\nline");
+        webhookError.add("testCheckpoint", "second");
+        WebhookError other = new WebhookError(curator);
+        assertEquals(0, other.get("testCheckpoint").size());
+        webhookError.checkpoint("testCheckpoint");
+        assertEquals(Arrays.asList("first line", "second"), other.get("testCheckpoint"));
+        webhookError.delete("testCheckpoint");
+        assertEquals(0, other.get("testCheckpoint").size());
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        webhookError.load("testLoad");
+        webhookError.add("testLoad", "first");
+        webhookError.checkpoint("testLoad");
+        webhookError.release("testLoad");
+        curator.create().creatingParentsIfNeeded().forPath("/GroupError/testLoad/" + System.currentTimeMillis() + "abcdef", "legacy".getBytes());
+
+        WebhookError leader = new WebhookError(curator);
+        leader.load("testLoad");
+        leader.add("testLoad", "second");
+        assertEquals(Arrays.asList("first", "legacy", "second"), leader.get("testLoad"));
+        leader.checkpoint("testLoad");
+        assertNull(curator.checkExists().forPath("/GroupError/testLoad"));
+        assertEquals(Arrays.asList("first", "legacy", "second"), new WebhookError(curator).get("testLoad"));
+        leader.delete("testLoad");
+    }
+
+    @Test
+    public void testAddAfterRelease() throws Exception {
+        webhookError.load("testAddAfterRelease");
+        webhookError.add("testAddAfterRelease", "first");
+        webhookError.checkpoint("testAddAfterRelease");
+        webhookError.release("testAddAfterRelease");
+        webhookError.add("testAddAfterRelease", "late");
+        assertEquals(Arrays.asList("first"), webhookError.get("testAddAfterRelease"));
+        webhookError.delete("testAddAfterRelease");
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.flightstats.hub.webhook;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WebhookSchedulerTest {
+
+    @Test
+    public void testParallelCalls() throws Exception {
+        WebhookScheduler scheduler = new WebhookScheduler(10, 1);
+        WebhookScheduler.Lane lane = scheduler.createLane("testParallelCalls", 3);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            lane.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(10);
+                running.decrementAndGet();
+            });
+        }
+        assertTrue(lane.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(3, maxRunning.get());
+    }
+
+    @Test
+    public void testFairness() throws Exception {
+        WebhookScheduler scheduler = new WebhookScheduler(1, 1);
+        WebhookScheduler.Lane busy = scheduler.createLane("busy", 10);
+        WebhookScheduler.Lane quiet = scheduler.createLane("quiet", 10);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        busy.submit(() -> await(blocked));
+        for (int i = 0; i < 5; i++) {
+            busy.submit(() -> order.add("busy"));
+        }
+        quiet.submit(() -> order.add("quiet"));
+        blocked.countDown();
+        assertTrue(busy.awaitIdle(5, TimeUnit.SECONDS));
+        assertTrue(quiet.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(6, order.size());
+        assertTrue(order.indexOf("quiet") <= 1);
+    }
+
+    @Test
+    public void testSubmitBlocks() throws Exception {
+        WebhookScheduler scheduler = new WebhookScheduler(2, 1);
+        WebhookScheduler.Lane lane = scheduler.createLane("testSubmitBlocks", 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        lane.submit(() -> await(blocked));
+        Thread thread = new Thread(() -> {
+            try {
+                lane.submit(() -> {
+                });
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join(100);
+        assertTrue(thread.isAlive());
+        assertFalse(lane.awaitIdle(10, TimeUnit.MILLISECONDS));
+        blocked.countDown();
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        assertTrue(lane.awaitIdle(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSubmitAsync() throws Exception {
+        WebhookScheduler scheduler = new WebhookScheduler(1, 1);
+        WebhookScheduler.Lane lane = scheduler.createLane("testSubmitAsync", 2);
+        List<CompletableFuture<Object>> futures = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 2; i++) {
+            lane.submitAsync(() -> {
+                CompletableFuture<Object> future = new CompletableFuture<>();
+                futures.add(future);
+                return future;
+            });
+        }
+        AtomicInteger called = new AtomicInteger();
+        Thread thread = new Thread(() -> {
+            try {
+                lane.submit(called::incrementAndGet);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join(100);
+        assertTrue(thread.isAlive());
+        assertEquals(2, futures.size());
+        futures.get(0).complete(null);
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        assertFalse(lane.awaitIdle(100, TimeUnit.MILLISECONDS));
+        futures.get(1).complete(null);
+        assertTrue(lane.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(1, called.get());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}